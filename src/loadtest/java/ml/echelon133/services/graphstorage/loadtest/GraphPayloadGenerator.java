@@ -0,0 +1,58 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import java.util.Random;
+
+/*
+    Generates JSON payloads of random, valid graphs. Vertexes are named v0, v1, ..., so that the vertex
+    membership checks can pick names that are (or are not) a part of a graph without remembering its payload.
+ */
+public class GraphPayloadGenerator {
+
+    // shape of the pareto distribution, smaller values mean more very large graphs
+    private static final double PARETO_SHAPE = 1.5;
+
+    private LoadTestConfig config;
+
+    public GraphPayloadGenerator(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    public int nextVertexCount(Random random) {
+        int min = config.getMinVertexes();
+        int max = config.getMaxVertexes();
+
+        if ("uniform".equals(config.getSizeDistribution())) {
+            return min + random.nextInt(max - min + 1);
+        }
+
+        // pareto: most graphs are small, but there is a long tail of big ones
+        double size = min / Math.pow(1.0 - random.nextDouble(), 1.0 / PARETO_SHAPE);
+        return (int) Math.min(max, Math.round(size));
+    }
+
+    public String generate(int vertexCount, Random random) {
+        int edgeCount = (int) Math.min(config.getMaxEdges(), Math.round(vertexCount * config.getEdgesPerVertex()));
+        StringBuilder payload = new StringBuilder(32 + vertexCount * 8 + edgeCount * 48);
+
+        payload.append("{\"vertexes\":[");
+        for (int i = 0; i < vertexCount; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append("\"v").append(i).append('"');
+        }
+
+        payload.append("],\"edges\":[");
+        for (int i = 0; i < edgeCount; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append("{\"source\":\"v").append(random.nextInt(vertexCount))
+                    .append("\",\"destination\":\"v").append(random.nextInt(vertexCount))
+                    .append("\",\"weight\":").append(1 + random.nextInt(100))
+                    .append('}');
+        }
+        payload.append("]}");
+        return payload.toString();
+    }
+}
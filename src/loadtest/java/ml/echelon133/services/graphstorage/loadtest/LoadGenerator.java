@@ -0,0 +1,236 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Load generator for graph-storage-service. It creates a pool of graphs, runs an unmeasured warm-up phase and
+    then a measured phase, in which every client thread repeatedly picks an operation according to the workload mix.
+
+    When loadtest.targetRate is set, requests are sent on a fixed schedule and latency is measured from the moment
+    a request should have been sent, so that a stalled server does not hide its own latency (coordinated omission).
+ */
+public class LoadGenerator {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static class StoredGraph {
+        private String id;
+        private int vertexCount;
+
+        StoredGraph(String id, int vertexCount) {
+            this.id = id;
+            this.vertexCount = vertexCount;
+        }
+    }
+
+    private LoadTestConfig config;
+    private HttpClient client;
+    private GraphPayloadGenerator payloadGenerator;
+    private List<StoredGraph> graphPool = new ArrayList<>();
+    private ZipfSampler popularity;
+
+    private int[] operationWeights;
+    private int totalWeight;
+
+    private Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    public LoadGenerator(LoadTestConfig config, HttpClient client) {
+        this.config = config;
+        this.client = client;
+        this.payloadGenerator = new GraphPayloadGenerator(config);
+
+        Operation[] operations = Operation.values();
+        operationWeights = new int[operations.length];
+        for (Operation operation : operations) {
+            int weight = config.getMix().getOrDefault(operation, 0);
+            operationWeights[operation.ordinal()] = weight;
+            totalWeight += weight;
+            recorders.put(operation, new Recorder(3));
+            errors.put(operation, new LongAdder());
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Workload mix has to contain at least one operation with positive weight");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        System.out.println("Load test settings: " + config);
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(config.getThreads()))
+                .build();
+
+        LoadGenerator generator = new LoadGenerator(config, client);
+        generator.createGraphPool();
+
+        System.out.println(String.format("Warming up for %d seconds", config.getWarmup().getSeconds()));
+        generator.run(config.getWarmup());
+        generator.resetMeasurements();
+
+        System.out.println(String.format("Measuring for %d seconds", config.getDuration().getSeconds()));
+        generator.run(config.getDuration());
+
+        LoadReport report = new LoadReport(config.getDuration());
+        for (Operation operation : Operation.values()) {
+            report.add(operation, generator.recorders.get(operation).getIntervalHistogram(), generator.errors.get(operation).sum());
+        }
+        report.print(System.out);
+        report.writeHistograms(config.getReportDirectory());
+        System.exit(0);
+    }
+
+    private void createGraphPool() throws IOException, InterruptedException {
+        System.out.println(String.format("Creating %d graphs used by read operations", config.getIdPoolSize()));
+        Random random = new Random(config.getSeed());
+
+        for (int i = 0; i < config.getIdPoolSize(); i++) {
+            int vertexCount = payloadGenerator.nextVertexCount(random);
+            HttpResponse<String> response = postGraph(payloadGenerator.generate(vertexCount, random));
+            Matcher matcher = ID_PATTERN.matcher(response.body());
+            if (response.statusCode() >= 300 || !matcher.find()) {
+                throw new IllegalStateException(String.format("Could not create a graph (status %d): %s", response.statusCode(), response.body()));
+            }
+            graphPool.add(new StoredGraph(matcher.group(1), vertexCount));
+        }
+        popularity = new ZipfSampler(graphPool.size(), config.getZipfExponent());
+    }
+
+    private void resetMeasurements() {
+        recorders.values().forEach(Recorder::reset);
+        errors.values().forEach(LongAdder::reset);
+    }
+
+    private void run(Duration duration) throws InterruptedException {
+        if (duration.isZero()) {
+            return;
+        }
+
+        ExecutorService clients = Executors.newFixedThreadPool(config.getThreads());
+        long endTime = System.nanoTime() + duration.toNanos();
+        for (int i = 0; i < config.getThreads(); i++) {
+            // every client has its own random generator, so that runs with the same seed make the same choices
+            Random random = new Random(config.getSeed() * 31 + i);
+            clients.submit(() -> runClient(random, endTime));
+        }
+        clients.shutdown();
+        clients.awaitTermination(duration.toMillis() + 60_000, TimeUnit.MILLISECONDS);
+    }
+
+    private void runClient(Random random, long endTime) {
+        boolean openLoop = config.getTargetRate() > 0;
+        long intervalNanos = openLoop ? (long) (1_000_000_000L * config.getThreads() / config.getTargetRate()) : 0;
+        long intendedStart = System.nanoTime();
+
+        while (intendedStart < endTime) {
+            if (openLoop) {
+                long waitNanos = intendedStart - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+            } else {
+                intendedStart = System.nanoTime();
+            }
+
+            Operation operation = nextOperation(random);
+            boolean successful;
+            try {
+                successful = execute(operation, random);
+            } catch (IOException ex) {
+                successful = false;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long latencyMicros = (System.nanoTime() - intendedStart) / 1000;
+            recorders.get(operation).recordValue(latencyMicros);
+            if (!successful) {
+                errors.get(operation).increment();
+            }
+
+            if (openLoop) {
+                intendedStart += intervalNanos;
+            } else {
+                intendedStart = System.nanoTime();
+            }
+        }
+    }
+
+    private Operation nextOperation(Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (Operation operation : Operation.values()) {
+            pick -= operationWeights[operation.ordinal()];
+            if (pick < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("Workload mix weights are inconsistent");
+    }
+
+    private boolean execute(Operation operation, Random random) throws IOException, InterruptedException {
+        switch (operation) {
+            case POST_GRAPH: {
+                String payload = payloadGenerator.generate(payloadGenerator.nextVertexCount(random), random);
+                int status = postGraph(payload).statusCode();
+                return status == 201 || status == 202;
+            }
+            case GET_GRAPH: {
+                boolean miss = random.nextDouble() < config.getMissRatio();
+                String id = miss ? missingGraphId(random) : graphPool.get(popularity.sample(random)).id;
+                int status = get("/api/graphs/" + id);
+                return miss ? status == 404 : status == 200;
+            }
+            case CHECK_VERTEX: {
+                boolean miss = random.nextDouble() < config.getMissRatio();
+                StoredGraph graph = graphPool.get(popularity.sample(random));
+                String id = miss ? missingGraphId(random) : graph.id;
+                // half of the checks ask about vertexes that are not a part of the graph
+                String vertexName = "v" + random.nextInt(graph.vertexCount * 2);
+                int status = get("/api/graphs/" + id + "/vertexes?name=" + vertexName);
+                return miss ? status == 404 : status == 200;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    // Drawn from the seeded generator, so that runs with the same seed ask for the same missing graphs
+    private static String missingGraphId(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private HttpResponse<String> postGraph(String payload) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(config.getBaseUrl() + "/api/graphs/"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(config.getBaseUrl() + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
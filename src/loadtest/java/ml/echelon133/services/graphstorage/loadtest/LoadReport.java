@@ -0,0 +1,77 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/*
+    Summary of the measured phase. Latencies are recorded in microseconds and reported in milliseconds.
+    Full percentile distributions are written as .hgrm files, which can be compared between runs
+    (e.g. with the HdrHistogram plotter).
+ */
+public class LoadReport {
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private Duration duration;
+    private Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    private Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+
+    public LoadReport(Duration duration) {
+        this.duration = duration;
+    }
+
+    public void add(Operation operation, Histogram histogram, long errorCount) {
+        histograms.put(operation, histogram);
+        errors.put(operation, errorCount);
+    }
+
+    public void print(PrintStream out) {
+        double seconds = duration.toMillis() / 1000.0;
+
+        out.println(String.format("%-10s %10s %10s %8s %9s %9s %9s %9s %9s",
+                "operation", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+        long totalCount = 0;
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.getTotalCount();
+            totalCount += count;
+            if (count == 0) {
+                continue;
+            }
+
+            out.println(String.format("%-10s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    entry.getKey().getMixName(),
+                    count,
+                    count / seconds,
+                    errors.get(entry.getKey()),
+                    histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(90) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                    histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                    histogram.getMaxValue() / MICROS_PER_MILLI));
+        }
+        out.println(String.format("Total throughput: %.1f req/s", totalCount / seconds));
+    }
+
+    public void writeHistograms(String directory) throws FileNotFoundException {
+        File reportDirectory = new File(directory);
+        if (!reportDirectory.exists() && !reportDirectory.mkdirs()) {
+            throw new IllegalStateException("Could not create report directory " + reportDirectory.getAbsolutePath());
+        }
+
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            File file = new File(reportDirectory, entry.getKey().getMixName() + ".hgrm");
+            try (PrintStream out = new PrintStream(file)) {
+                entry.getValue().outputPercentileDistribution(out, MICROS_PER_MILLI);
+            }
+        }
+        System.out.println("Latency histograms written to " + reportDirectory.getAbsolutePath());
+    }
+}
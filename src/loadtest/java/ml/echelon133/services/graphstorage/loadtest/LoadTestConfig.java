@@ -0,0 +1,160 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/*
+    Settings of a load test run, read from -Dloadtest.* system properties:
+
+    loadtest.baseUrl            address of the service (default http://localhost:8095)
+    loadtest.warmupSeconds      duration of the warm-up phase, which is not measured (default 10)
+    loadtest.durationSeconds    duration of the measured phase (default 60)
+    loadtest.threads            number of concurrent clients (default 16)
+    loadtest.targetRate         requests per second of all clients together, 0 means that every client sends
+                                its next request as soon as it gets a response (default 0)
+    loadtest.mix                relative weights of operations (default post=10,get=60,vertexes=30)
+    loadtest.minVertexes        minimum number of vertexes of a generated graph (default 10)
+    loadtest.maxVertexes        maximum number of vertexes of a generated graph (default 1000)
+    loadtest.sizeDistribution   'uniform' or 'pareto' distribution of graph sizes (default pareto)
+    loadtest.edgesPerVertex     average number of edges per vertex (default 3)
+    loadtest.maxEdges           edge limit of the service, generated graphs never exceed it (default 5000)
+    loadtest.idPoolSize         number of graphs created before the test, reads pick from them (default 1000)
+    loadtest.zipfExponent       skew of id popularity, 0 means that every graph is equally popular (default 1.0)
+    loadtest.missRatio          fraction of reads asking for graphs that do not exist (default 0.05)
+    loadtest.seed               seed of all random choices, so that runs can be reproduced (default 42)
+    loadtest.reportDirectory    where .hgrm latency histograms are written (default build/loadtest)
+ */
+public class LoadTestConfig {
+
+    private String baseUrl;
+    private Duration warmup;
+    private Duration duration;
+    private int threads;
+    private double targetRate;
+    private Map<Operation, Integer> mix;
+    private int minVertexes;
+    private int maxVertexes;
+    private String sizeDistribution;
+    private double edgesPerVertex;
+    private int maxEdges;
+    private int idPoolSize;
+    private double zipfExponent;
+    private double missRatio;
+    private long seed;
+    private String reportDirectory;
+
+    public static LoadTestConfig fromSystemProperties() {
+        LoadTestConfig config = new LoadTestConfig();
+        config.baseUrl = property("baseUrl", "http://localhost:8095");
+        config.warmup = Duration.ofSeconds(Long.parseLong(property("warmupSeconds", "10")));
+        config.duration = Duration.ofSeconds(Long.parseLong(property("durationSeconds", "60")));
+        config.threads = Integer.parseInt(property("threads", "16"));
+        config.targetRate = Double.parseDouble(property("targetRate", "0"));
+        config.mix = parseMix(property("mix", "post=10,get=60,vertexes=30"));
+        config.minVertexes = Integer.parseInt(property("minVertexes", "10"));
+        config.maxVertexes = Integer.parseInt(property("maxVertexes", "1000"));
+        config.sizeDistribution = property("sizeDistribution", "pareto");
+        config.edgesPerVertex = Double.parseDouble(property("edgesPerVertex", "3"));
+        config.maxEdges = Integer.parseInt(property("maxEdges", "5000"));
+        config.idPoolSize = Integer.parseInt(property("idPoolSize", "1000"));
+        config.zipfExponent = Double.parseDouble(property("zipfExponent", "1.0"));
+        config.missRatio = Double.parseDouble(property("missRatio", "0.05"));
+        config.seed = Long.parseLong(property("seed", "42"));
+        config.reportDirectory = property("reportDirectory", "build/loadtest");
+
+        if (config.minVertexes < 1 || config.maxVertexes < config.minVertexes) {
+            throw new IllegalArgumentException("loadtest.minVertexes has to be positive and not greater than loadtest.maxVertexes");
+        }
+        return config;
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty("loadtest." + name, defaultValue);
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid workload mix entry '%s', expected operation=weight", entry));
+            }
+            weights.put(Operation.fromMixName(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    public int getMinVertexes() {
+        return minVertexes;
+    }
+
+    public int getMaxVertexes() {
+        return maxVertexes;
+    }
+
+    public String getSizeDistribution() {
+        return sizeDistribution;
+    }
+
+    public double getEdgesPerVertex() {
+        return edgesPerVertex;
+    }
+
+    public int getMaxEdges() {
+        return maxEdges;
+    }
+
+    public int getIdPoolSize() {
+        return idPoolSize;
+    }
+
+    public double getZipfExponent() {
+        return zipfExponent;
+    }
+
+    public double getMissRatio() {
+        return missRatio;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getReportDirectory() {
+        return reportDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("baseUrl=%s, warmup=%ds, duration=%ds, threads=%d, targetRate=%.1f/s, mix=%s, " +
+                        "vertexes=%d..%d (%s), edgesPerVertex=%.1f, maxEdges=%d, idPoolSize=%d, zipfExponent=%.2f, " +
+                        "missRatio=%.2f, seed=%d",
+                baseUrl, warmup.getSeconds(), duration.getSeconds(), threads, targetRate, mix, minVertexes, maxVertexes,
+                sizeDistribution, edgesPerVertex, maxEdges, idPoolSize, zipfExponent, missRatio, seed);
+    }
+}
@@ -0,0 +1,29 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+public enum Operation {
+    // POST /api/graphs/
+    POST_GRAPH("post"),
+    // GET /api/graphs/{id}
+    GET_GRAPH("get"),
+    // GET /api/graphs/{id}/vertexes?name=
+    CHECK_VERTEX("vertexes");
+
+    private String mixName;
+
+    Operation(String mixName) {
+        this.mixName = mixName;
+    }
+
+    public String getMixName() {
+        return mixName;
+    }
+
+    public static Operation fromMixName(String mixName) {
+        for (Operation operation : values()) {
+            if (operation.mixName.equals(mixName)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown operation '%s' in workload mix", mixName));
+    }
+}
@@ -0,0 +1,142 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+import ml.echelon133.services.graphstorage.config.RedisGraphSerializer;
+import ml.echelon133.services.graphstorage.graph.*;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Thundering herd: in every round all threads ask GraphRepository for the same graph at the same moment.
+    Redis is simulated in process (a fixed latency per command, the stored graph is deserialized on every HGET),
+    so the benchmark shows how many fetches and decodes coalescing saves, without running Redis.
+    Settings: -Dloadtest.herd.threads (default 64), -Dloadtest.herd.rounds (200), -Dloadtest.herd.edges (5000),
+    -Dloadtest.herd.redisLatencyMicros (500)
+ */
+public class ThunderingHerdBenchmark {
+
+    private static final String GRAPH_ID = "0b9a4f6e-8a5c-4d8e-9d5e-1f2a3b4c5d6e";
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("loadtest.herd.threads", 64);
+        int rounds = Integer.getInteger("loadtest.herd.rounds", 200);
+        int edgeCount = Integer.getInteger("loadtest.herd.edges", 5000);
+        long redisLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Integer.getInteger("loadtest.herd.redisLatencyMicros", 500));
+
+        ObjectMapper mapper = GraphStorageApp.objectMapper(null, 0);
+        RedisGraphSerializer serializer = new RedisGraphSerializer(mapper);
+        byte[] storedGraph = serializer.serialize(graphWithEdges(edgeCount));
+
+        System.out.println(String.format("%d threads, %d rounds, graph with %d edges, %d us per Redis command",
+                threads, rounds, edgeCount, TimeUnit.NANOSECONDS.toMicros(redisLatencyNanos)));
+        System.out.println(String.format("%-12s %12s %12s %12s", "mode", "redis calls", "decodes", "ms/round"));
+
+        for (boolean coalesce : new boolean[]{false, true}) {
+            AtomicLong redisCalls = new AtomicLong();
+            AtomicLong decodes = new AtomicLong();
+
+            HashOperations<String, String, Graph<BigDecimal>> hashOperations = simulatedRedis(redisLatencyNanos, redisCalls, () -> {
+                decodes.incrementAndGet();
+                return serializer.deserialize(storedGraph);
+            });
+            GraphRepository repository = repository(mapper, coalesce);
+            repository.setGraphOpsForHash(hashOperations);
+
+            double millisPerRound = run(repository, threads, rounds);
+            System.out.println(String.format("%-12s %12d %12d %12.2f",
+                    coalesce ? "coalesced" : "independent", redisCalls.get(), decodes.get(), millisPerRound));
+        }
+    }
+
+    private interface Decode {
+        Graph<BigDecimal> decode();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashOperations<String, String, Graph<BigDecimal>> simulatedRedis(long latencyNanos, AtomicLong calls, Decode decode) {
+        return (HashOperations<String, String, Graph<BigDecimal>>) Proxy.newProxyInstance(
+                HashOperations.class.getClassLoader(), new Class<?>[]{HashOperations.class}, (proxy, method, args) -> {
+                    calls.incrementAndGet();
+                    LockSupport.parkNanos(latencyNanos);
+                    switch (method.getName()) {
+                        case "hasKey":
+                            return Boolean.TRUE;
+                        case "get":
+                            return decode.decode();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static GraphRepository repository(ObjectMapper mapper, boolean coalesce) {
+        ColdGraphTier coldGraphTier = new ColdGraphTier(new RedisTemplate<>(), new RedisTemplate<>(), new GraphSegmentStore("cold-graphs", 1024L),
+                mapper, new SimpleMeterRegistry(), false, 60000L, 10000);
+        return new GraphRepository(
+                new RedisTemplate<>(),
+                new RedisTemplate<>(),
+                new GraphIdFilter(false, 1000, 0.01),
+                new NegativeGraphCache(0L, 100),
+                new ChunkedGraphStore(new RedisTemplate<>(), mapper, 0, 5000, 8, 1),
+                new GraphSizeEstimates(100),
+                new GraphReadCoalescer(new SimpleMeterRegistry(), coalesce, 5000L),
+                // the local cache is disabled, every read that is not coalesced has to reach Redis
+                new LocalGraphCache(new SimpleMeterRegistry(), 0, 10000),
+                coldGraphTier,
+                new ReachabilityIndexStore(new RedisTemplate<>(), false, 1000),
+                new GraphReadHedger(new RedisTemplate<>(), new SimpleMeterRegistry(), false, 0.95, 5L, 1000, 32, "", 6379, 5000L, "", false),
+                new GraphIdSet(new RedisTemplate<>(), new RedisTemplate<>(), coldGraphTier)
+        );
+    }
+
+    private static double run(GraphRepository repository, int threads, int rounds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+
+        long start = System.nanoTime();
+        Future<?>[] workers = new Future<?>[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = executor.submit(() -> {
+                for (int round = 0; round < rounds; round++) {
+                    barrier.await();
+                    repository.findById(GRAPH_ID);
+                }
+                return null;
+            });
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        executor.shutdown();
+        return elapsed / 1_000_000.0 / rounds;
+    }
+
+    private static Graph<BigDecimal> graphWithEdges(int edgeCount) {
+        int vertexCount = Math.max(2, edgeCount / 10);
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < vertexCount; i++) {
+            graph.addVertex(new Vertex<>("v" + i));
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(graph.findVertex("v" + (i % vertexCount)), graph.findVertex("v" + ((i * 31 + 7) % vertexCount)), new BigDecimal(i % 1000));
+        }
+        return graph;
+    }
+}
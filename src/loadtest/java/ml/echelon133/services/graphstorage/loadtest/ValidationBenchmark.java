@@ -0,0 +1,83 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+    Compares wall-clock time of deserializing (parsing and validating) a single large graph:
+        parse only   - building the JSON tree, which is sequential in every mode and limits the possible gain
+        library      - GraphDeserializer
+        sequential   - ParallelGraphDeserializer below its threshold
+        parallel     - ParallelGraphDeserializer, edges validated on the common fork-join pool
+    Settings: -Dloadtest.validation.edges (default 200000), -Dloadtest.validation.iterations (default 30)
+ */
+public class ValidationBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int edgeCount = Integer.getInteger("loadtest.validation.edges", 200000);
+        int iterations = Integer.getInteger("loadtest.validation.iterations", 30);
+        byte[] payload = payload(edgeCount);
+
+        System.out.println(String.format("Graph with %d edges (%d bytes), fork-join parallelism %d",
+                edgeCount, payload.length, ForkJoinPool.commonPool().getParallelism()));
+        System.out.println(String.format("%-12s %9s %9s %9s", "mode", "p50 ms", "p90 ms", "min ms"));
+
+        ObjectMapper plainMapper = new ObjectMapper();
+        report("parse only", iterations, () -> plainMapper.readTree(payload));
+        report("library", iterations, deserialization(GraphStorageApp.objectMapper(null, 0), payload));
+        report("sequential", iterations, deserialization(GraphStorageApp.objectMapper(null, Integer.MAX_VALUE), payload));
+        report("parallel", iterations, deserialization(GraphStorageApp.objectMapper(null, 1), payload));
+    }
+
+    private interface Run {
+        Object run() throws Exception;
+    }
+
+    private static Run deserialization(ObjectMapper mapper, byte[] payload) {
+        JavaType graphBigDecimalType = mapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
+        return () -> {
+            Graph<BigDecimal> graph = mapper.readValue(payload, graphBigDecimalType);
+            return graph;
+        };
+    }
+
+    private static void report(String mode, int iterations, Run run) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run.run();
+        }
+
+        double[] millis = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            run.run();
+            millis[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(millis);
+        System.out.println(String.format("%-12s %9.2f %9.2f %9.2f",
+                mode, millis[iterations / 2], millis[(int) (iterations * 0.9)], millis[0]));
+    }
+
+    private static byte[] payload(int edgeCount) {
+        int vertexCount = Math.max(2, edgeCount / 10);
+        StringBuilder payload = new StringBuilder("{\"vertexes\":[");
+        for (int i = 0; i < vertexCount; i++) {
+            payload.append(i == 0 ? "" : ",").append("\"v").append(i).append('"');
+        }
+        payload.append("],\"edges\":[");
+        for (int i = 0; i < edgeCount; i++) {
+            payload.append(i == 0 ? "" : ",")
+                    .append("{\"source\":\"v").append(i % vertexCount)
+                    .append("\",\"destination\":\"v").append((i * 31 + 7) % vertexCount)
+                    .append("\",\"weight\":").append(i % 1000).append(".25}");
+        }
+        return payload.append("]}").toString().getBytes();
+    }
+}
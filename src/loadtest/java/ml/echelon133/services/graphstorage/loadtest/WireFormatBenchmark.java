@@ -0,0 +1,77 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/*
+    Compares the size and parse time (parsing and validating) of the same graph in every wire format:
+        json  - the format of Redis and of clients that do not ask for another one
+        smile - application/x-jackson-smile
+        cbor  - application/cbor
+    Mappers are built like the ones of the HTTP message converters, so the same graph deserializer runs for every format.
+    Settings: -Dloadtest.formats.edges (default 10000), -Dloadtest.formats.iterations (default 200)
+ */
+public class WireFormatBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int edgeCount = Integer.getInteger("loadtest.formats.edges", 10000);
+        int iterations = Integer.getInteger("loadtest.formats.iterations", 200);
+
+        ObjectMapper jsonMapper = GraphStorageApp.objectMapper(null, 0);
+        ObjectMapper smileMapper = GraphStorageApp.smileHttpMessageConverter(null, 0).getObjectMapper();
+        ObjectMapper cborMapper = GraphStorageApp.cborHttpMessageConverter(null, 0).getObjectMapper();
+
+        // every format encodes the same graph, which has passed validation once
+        Graph<BigDecimal> graph = jsonMapper.readValue(payload(edgeCount), graphType(jsonMapper));
+
+        System.out.println(String.format("Graph with %d edges", edgeCount));
+        System.out.println(String.format("%-6s %9s %9s %9s %9s", "format", "bytes", "p50 ms", "p90 ms", "min ms"));
+        report("json", iterations, jsonMapper, jsonMapper.writeValueAsBytes(graph));
+        report("smile", iterations, smileMapper, smileMapper.writeValueAsBytes(graph));
+        report("cbor", iterations, cborMapper, cborMapper.writeValueAsBytes(graph));
+    }
+
+    private static JavaType graphType(ObjectMapper mapper) {
+        return mapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
+    }
+
+    private static void report(String format, int iterations, ObjectMapper mapper, byte[] serializedGraph) throws Exception {
+        JavaType graphBigDecimalType = graphType(mapper);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mapper.readValue(serializedGraph, graphBigDecimalType);
+        }
+
+        double[] millis = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            mapper.readValue(serializedGraph, graphBigDecimalType);
+            millis[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(millis);
+        System.out.println(String.format("%-6s %9d %9.2f %9.2f %9.2f",
+                format, serializedGraph.length, millis[iterations / 2], millis[(int) (iterations * 0.9)], millis[0]));
+    }
+
+    private static byte[] payload(int edgeCount) {
+        int vertexCount = Math.max(2, edgeCount / 10);
+        StringBuilder payload = new StringBuilder("{\"vertexes\":[");
+        for (int i = 0; i < vertexCount; i++) {
+            payload.append(i == 0 ? "" : ",").append("\"v").append(i).append('"');
+        }
+        payload.append("],\"edges\":[");
+        for (int i = 0; i < edgeCount; i++) {
+            payload.append(i == 0 ? "" : ",")
+                    .append("{\"source\":\"v").append(i % vertexCount)
+                    .append("\",\"destination\":\"v").append((i * 31 + 7) % vertexCount)
+                    .append("\",\"weight\":").append(i % 1000).append(".25}");
+        }
+        return payload.append("]}").toString().getBytes();
+    }
+}
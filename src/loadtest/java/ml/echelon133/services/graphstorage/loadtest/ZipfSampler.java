@@ -0,0 +1,33 @@
+package ml.echelon133.services.graphstorage.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Picks indexes 0..n-1 with probability proportional to 1 / (index + 1)^exponent.
+    With exponent 0 all indexes are equally likely, higher exponents concentrate traffic on a few hot graphs.
+ */
+public class ZipfSampler {
+
+    private double[] cumulativeProbabilities;
+
+    public ZipfSampler(int n, double exponent) {
+        cumulativeProbabilities = new double[n];
+
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        // binarySearch returns (-(insertion point) - 1) when the exact value is not found
+        int sampled = index >= 0 ? index : -index - 1;
+        return Math.min(sampled, cumulativeProbabilities.length - 1);
+    }
+}
@@ -3,8 +3,12 @@ package ml.echelon133.services.graphstorage;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import ml.echelon133.graph.*;
 import ml.echelon133.graph.json.*;
+import ml.echelon133.services.graphstorage.config.CborEdgeSerializer;
+import ml.echelon133.services.graphstorage.config.ParallelGraphDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,6 +16,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import springfox.documentation.builders.ApiInfoBuilder;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
@@ -30,10 +36,46 @@ public class GraphStorageApp {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphStorageApp.class);
 
     @Bean
-    public static ObjectMapper objectMapper(@Value("${graphs.storage.maxEdgesCount}") Integer maxEdgesCount) {
+    public static ObjectMapper objectMapper(@Value("${graphs.storage.maxEdgesCount}") Integer maxEdgesCount,
+                                            @Value("${graphs.storage.validation.parallelThreshold:0}") Integer parallelValidationThreshold) {
         LOGGER.info("Started setup of ObjectMapper");
-        SimpleModule module = new SimpleModule();
         ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(graphModule(mapper, maxEdgesCount, parallelValidationThreshold));
+
+        LOGGER.info("Finished setup of ObjectMapper");
+        return mapper;
+    }
+
+    // Binary formats are only used on the HTTP layer (service-to-service traffic), Redis keeps storing JSON
+    @Bean
+    public static MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(@Value("${graphs.storage.maxEdgesCount}") Integer maxEdgesCount,
+                                                                                     @Value("${graphs.storage.validation.parallelThreshold:0}") Integer parallelValidationThreshold) {
+        LOGGER.info("Started setup of Smile message converter");
+        ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+        mapper.registerModule(graphModule(mapper, maxEdgesCount, parallelValidationThreshold));
+
+        LOGGER.info("Finished setup of Smile message converter");
+        return new MappingJackson2SmileHttpMessageConverter(mapper);
+    }
+
+    @Bean
+    public static MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(@Value("${graphs.storage.maxEdgesCount}") Integer maxEdgesCount,
+                                                                                   @Value("${graphs.storage.validation.parallelThreshold:0}") Integer parallelValidationThreshold) {
+        LOGGER.info("Started setup of CBOR message converter");
+        ObjectMapper mapper = new ObjectMapper(new CBORFactory());
+        mapper.registerModule(graphModule(mapper, maxEdgesCount, parallelValidationThreshold));
+        // serializers of a module registered later take precedence, weights are written as plain CBOR numbers
+        SimpleModule cborModule = new SimpleModule();
+        cborModule.addSerializer(new CborEdgeSerializer(mapper.constructType(Edge.class)));
+        mapper.registerModule(cborModule);
+
+        LOGGER.info("Finished setup of CBOR message converter");
+        return new MappingJackson2CborHttpMessageConverter(mapper);
+    }
+
+    // The same serializers and validation rules are used no matter which data format the mapper reads and writes
+    private static SimpleModule graphModule(ObjectMapper mapper, Integer maxEdgesCount, Integer parallelValidationThreshold) {
+        SimpleModule module = new SimpleModule();
 
         JavaType vertexType = mapper.constructType(Vertex.class);
         JavaType edgeType = mapper.constructType(Edge.class);
@@ -44,19 +86,19 @@ public class GraphStorageApp {
         module.addSerializer(new EdgeSerializer(edgeType));
         module.addSerializer(new GraphSerializer(graphType));
 
+        // validation of large graphs is split across a fork-join pool only when the threshold is configured
+        if (parallelValidationThreshold != null && parallelValidationThreshold > 0) {
+            LOGGER.info(String.format("Graphs with at least %d edges will be validated in parallel", parallelValidationThreshold));
+            module.addDeserializer(Graph.class, new ParallelGraphDeserializer(graphBigDecimalType, maxEdgesCount, parallelValidationThreshold));
         // if there is no maxEdgesCount value in config - add a deserializer without any edge number limit
-        if (maxEdgesCount != null) {
+        } else if (maxEdgesCount != null) {
             LOGGER.info(String.format("Setting maxEdgesCount of GraphDeserializer to %d", maxEdgesCount));
             module.addDeserializer(Graph.class, new GraphDeserializer(graphBigDecimalType, maxEdgesCount));
         } else {
             LOGGER.info("Unable to read maxEdgesCount from config. GraphDeserializer will deserialize without any limits");
             module.addDeserializer(Graph.class, new GraphDeserializer(graphBigDecimalType));
         }
-
-        mapper.registerModule(module);
-
-        LOGGER.info("Finished setup of ObjectMapper");
-        return mapper;
+        return module;
     }
 
     @Bean
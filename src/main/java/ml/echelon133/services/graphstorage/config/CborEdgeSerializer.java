@@ -0,0 +1,40 @@
+package ml.echelon133.services.graphstorage.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import ml.echelon133.graph.Edge;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/*
+    Writes edges like EdgeSerializer, except for weights. CBOR writes a BigDecimal as a tagged decimal fraction,
+    which GraphDeserializer does not accept as a number, so graphs received from GET could not be sent back with
+    POST. Whole weights are written as integers and the others as doubles, which is also how JSON payloads are read.
+ */
+public class CborEdgeSerializer extends StdSerializer<Edge<?>> {
+
+    public CborEdgeSerializer(JavaType valueType) {
+        super(valueType);
+    }
+
+    @Override
+    public void serialize(Edge<?> edge, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("source", edge.getSource().getName());
+        gen.writeStringField("destination", edge.getDestination().getName());
+        gen.writeFieldName("weight");
+        writeWeight(edge.getWeightAsBigDecimal(), gen);
+        gen.writeEndObject();
+    }
+
+    private static void writeWeight(BigDecimal weight, JsonGenerator gen) throws IOException {
+        try {
+            gen.writeNumber(weight.longValueExact());
+        } catch (ArithmeticException ex) {
+            gen.writeNumber(weight.doubleValue());
+        }
+    }
+}
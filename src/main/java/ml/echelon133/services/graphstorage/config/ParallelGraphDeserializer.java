@@ -0,0 +1,230 @@
+package ml.echelon133.services.graphstorage.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import ml.echelon133.graph.Edge;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.graph.json.exception.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Performs the same validation as GraphDeserializer (same checks, messages and exception types), but validates
+    edges of graphs that have at least parallelThreshold edges on a fork-join pool.
+
+    Errors are reported deterministically: vertexes are validated first and sequentially, then the error of the edge
+    with the lowest index is reported, exactly like in the sequential pass. Graphs with more than maxEdgesCount edges
+    fail at the edge with index maxEdgesCount, unless one of the edges before it is invalid.
+ */
+public class ParallelGraphDeserializer extends StdDeserializer<Graph<BigDecimal>> {
+
+    // smaller ranges are not worth the cost of forking a task
+    private static final int EDGES_PER_TASK = 2048;
+
+    private Integer maxEdgesCount;
+    private int parallelThreshold;
+    private ForkJoinPool pool;
+
+    private static class EdgeFailure {
+        private int index;
+        private JsonProcessingException exception;
+
+        EdgeFailure(int index, JsonProcessingException exception) {
+            this.index = index;
+            this.exception = exception;
+        }
+    }
+
+    // State shared by all tasks validating edges of a single graph
+    private static class EdgeValidation {
+        private JsonNode edgesNode;
+        private Map<String, Vertex<BigDecimal>> vertexes;
+        private Edge<BigDecimal>[] edges;
+        private AtomicReference<EdgeFailure> firstFailure = new AtomicReference<>();
+
+        @SuppressWarnings("unchecked")
+        EdgeValidation(JsonNode edgesNode, Map<String, Vertex<BigDecimal>> vertexes, int edgeCount) {
+            this.edgesNode = edgesNode;
+            this.vertexes = vertexes;
+            this.edges = (Edge<BigDecimal>[]) new Edge[edgeCount];
+        }
+
+        void validateRange(int from, int to) {
+            for (int i = from; i < to; i++) {
+                // an edge with a lower index already failed, so nothing in this range can be reported
+                EdgeFailure failure = firstFailure.get();
+                if (failure != null && failure.index < i) {
+                    return;
+                }
+
+                try {
+                    edges[i] = validateEdge(edgesNode.get(i), vertexes);
+                } catch (JsonProcessingException ex) {
+                    recordFailure(new EdgeFailure(i, ex));
+                    return;
+                }
+            }
+        }
+
+        private void recordFailure(EdgeFailure failure) {
+            EdgeFailure current;
+            do {
+                current = firstFailure.get();
+                if (current != null && current.index < failure.index) {
+                    return;
+                }
+            } while (!firstFailure.compareAndSet(current, failure));
+        }
+    }
+
+    private static class EdgeValidationTask extends RecursiveAction {
+        private EdgeValidation validation;
+        private int from;
+        private int to;
+
+        EdgeValidationTask(EdgeValidation validation, int from, int to) {
+            this.validation = validation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= EDGES_PER_TASK) {
+                validation.validateRange(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EdgeValidationTask(validation, from, middle), new EdgeValidationTask(validation, middle, to));
+            }
+        }
+    }
+
+    public ParallelGraphDeserializer(JavaType valueType, Integer maxEdgesCount, int parallelThreshold) {
+        this(valueType, maxEdgesCount, parallelThreshold, ForkJoinPool.commonPool());
+    }
+
+    ParallelGraphDeserializer(JavaType valueType, Integer maxEdgesCount, int parallelThreshold, ForkJoinPool pool) {
+        super(valueType);
+        this.maxEdgesCount = maxEdgesCount;
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    @Override
+    public Graph<BigDecimal> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonNode root = p.getCodec().readTree(p);
+        JsonNode vertexesNode = root.get("vertexes");
+        JsonNode edgesNode = root.get("edges");
+
+        checkIfNodeExists(vertexesNode, "Missing 'vertexes' JSON node.");
+        checkIfNodeExists(edgesNode, "Missing 'edges' JSON node.");
+        checkIfNodeIsArray(vertexesNode, "'vertexes' is not an array node.");
+        checkIfNodeIsArray(edgesNode, "'edges' is not an array node.");
+
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        Map<String, Vertex<BigDecimal>> vertexes = new HashMap<>();
+        for (JsonNode vertexNode : vertexesNode) {
+            checkIfNodeIsText(vertexNode, "Vertex element in 'vertexes' is not textual");
+            Vertex<BigDecimal> vertex = new Vertex<>(vertexNode.textValue());
+            try {
+                graph.addVertex(vertex);
+            } catch (IllegalArgumentException ex) {
+                throw new VertexAlreadyInGraphException(String.format("Vertex with name %s already belongs to the graph", vertex.getName()));
+            }
+            vertexes.put(vertexNode.textValue(), vertex);
+        }
+
+        // edges after the one that exceeds the limit are never looked at
+        int edgeCount = edgesNode.size();
+        int validatedCount = maxEdgesCount == null ? edgeCount : Math.min(edgeCount, maxEdgesCount + 1);
+
+        EdgeValidation validation = new EdgeValidation(edgesNode, vertexes, validatedCount);
+        if (parallelThreshold > 0 && validatedCount >= parallelThreshold) {
+            pool.invoke(new EdgeValidationTask(validation, 0, validatedCount));
+        } else {
+            validation.validateRange(0, validatedCount);
+        }
+
+        EdgeFailure failure = validation.firstFailure.get();
+        if (failure != null) {
+            throw failure.exception;
+        }
+        if (maxEdgesCount != null && edgeCount > maxEdgesCount) {
+            throw new MaxEdgeCountReachedException(String.format("Cannot accept graphs that contain more than %d edges", maxEdgesCount));
+        }
+
+        for (Edge<BigDecimal> edge : validation.edges) {
+            graph.addEdge(edge);
+        }
+        return graph;
+    }
+
+    private static Edge<BigDecimal> validateEdge(JsonNode edgeNode, Map<String, Vertex<BigDecimal>> vertexes) throws JsonProcessingException {
+        checkIfNodeIsObject(edgeNode, "Edge element in 'edges' is not an object");
+
+        JsonNode sourceNode = edgeNode.get("source");
+        JsonNode destinationNode = edgeNode.get("destination");
+        JsonNode weightNode = edgeNode.get("weight");
+
+        checkIfNodeExists(sourceNode, "Edge object does not contain 'source' field");
+        checkIfNodeExists(destinationNode, "Edge object does not contain 'destination' field");
+        checkIfNodeExists(weightNode, "Edge object does not contain 'weight' field");
+        checkIfNodeIsText(sourceNode, "Source vertex in Edge is not textual");
+        checkIfNodeIsText(destinationNode, "Destination vertex in Edge is not textual");
+        checkIfNodeIsNumber(weightNode, "Weight cannot be deserialized as BigDecimal");
+
+        Vertex<BigDecimal> source = vertexes.get(sourceNode.textValue());
+        Vertex<BigDecimal> destination = vertexes.get(destinationNode.textValue());
+        if (source == null || destination == null) {
+            throw new EdgeNullVertexException(String.format("Edge '%s' references a vertex that is not present in 'vertexes'", edgeNode.toString()));
+        }
+
+        try {
+            return new Edge<>(source, destination, weightNode.decimalValue());
+        } catch (IllegalArgumentException ex) {
+            throw new NegativeEdgeWeightException(ex.getMessage());
+        }
+    }
+
+    private static void checkIfNodeExists(JsonNode node, String message) throws JsonProcessingException {
+        if (node == null || node.isMissingNode()) {
+            throw new MissingNodeException(message);
+        }
+    }
+
+    private static void checkIfNodeIsArray(JsonNode node, String message) throws JsonProcessingException {
+        if (!node.isArray()) {
+            throw new NodeIsNotArrayException(message);
+        }
+    }
+
+    private static void checkIfNodeIsText(JsonNode node, String message) throws JsonProcessingException {
+        if (!node.isTextual()) {
+            throw new NodeIsNotTextualException(message);
+        }
+    }
+
+    private static void checkIfNodeIsObject(JsonNode node, String message) throws JsonProcessingException {
+        if (!node.isObject()) {
+            throw new NodeIsNotObjectException(message);
+        }
+    }
+
+    private static void checkIfNodeIsNumber(JsonNode node, String message) throws JsonProcessingException {
+        if (!node.isNumber()) {
+            throw new NodeIsNotNumberException(message);
+        }
+    }
+}
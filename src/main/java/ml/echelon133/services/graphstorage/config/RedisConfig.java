@@ -1,7 +1,5 @@
 package ml.echelon133.services.graphstorage.config;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import ml.echelon133.graph.Graph;
 import org.slf4j.Logger;
@@ -14,11 +12,9 @@ import org.springframework.data.redis.connection.RedisPassword;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.RedisSerializer;
-import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
-import java.io.IOException;
 import java.math.BigDecimal;
 
 @Configuration
@@ -43,29 +39,6 @@ public class RedisConfig {
         LOGGER.info("Instantiated RedisConfig with ObjectMapper: " + oMapper);
     }
 
-    // We need this custom serializer because GenericJackson2JsonRedisSerializer cannot pass our JavaType to readValue
-    private class RedisGraphSerializer implements RedisSerializer<Graph<BigDecimal>> {
-
-        @Override
-        public byte[] serialize(Graph<BigDecimal> bigDecimalGraph) throws SerializationException {
-            try {
-                return oMapper.writeValueAsBytes(bigDecimalGraph);
-            } catch (JsonProcessingException ex) {
-                throw new SerializationException(ex.getMessage(), ex);
-            }
-        }
-
-        @Override
-        public Graph<BigDecimal> deserialize(byte[] bytes) throws SerializationException {
-            JavaType graphBigDecimalType = oMapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
-            try {
-                return oMapper.readValue(bytes, graphBigDecimalType);
-            } catch (IOException ex) {
-                throw new SerializationException(ex.getMessage(), ex);
-            }
-        }
-    }
-
     @Bean
     public RedisTemplate<String, String> vertexRedisTemplate() {
         RedisTemplate<String, String> redisTemplate = new RedisTemplate<>();
@@ -85,13 +58,23 @@ public class RedisConfig {
 
         redisTemplate.setConnectionFactory(jedisConnectionFactory());
         redisTemplate.setHashKeySerializer(new StringRedisSerializer());
-        redisTemplate.setHashValueSerializer(new RedisGraphSerializer());
+        redisTemplate.setHashValueSerializer(new RedisGraphSerializer(oMapper));
 
         LOGGER.info("Instantiating RedisTemplate<String, Graph<BigDecimal>> bean");
 
         return redisTemplate;
     }
 
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(jedisConnectionFactory());
+
+        LOGGER.info("Instantiating RedisMessageListenerContainer bean");
+
+        return container;
+    }
+
     @Bean
     public JedisConnectionFactory jedisConnectionFactory() {
         RedisStandaloneConfiguration config = new RedisStandaloneConfiguration();
@@ -0,0 +1,60 @@
+package ml.echelon133.services.graphstorage.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.services.graphstorage.jfr.GraphSerializationEvent;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+// We need this custom serializer because GenericJackson2JsonRedisSerializer cannot pass our JavaType to readValue
+public class RedisGraphSerializer implements RedisSerializer<Graph<BigDecimal>> {
+
+    // Reader and writer are created once, so that the type and its (de)serializers are not resolved for every value
+    private ObjectReader graphReader;
+    private ObjectWriter graphWriter;
+
+    public RedisGraphSerializer(ObjectMapper oMapper) {
+        JavaType graphBigDecimalType = oMapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
+        this.graphReader = oMapper.readerFor(graphBigDecimalType);
+        this.graphWriter = oMapper.writerFor(graphBigDecimalType);
+    }
+
+    @Override
+    public byte[] serialize(Graph<BigDecimal> bigDecimalGraph) throws SerializationException {
+        GraphSerializationEvent event = GraphSerializationEvent.start("serialize");
+        try {
+            byte[] bytes = graphWriter.writeValueAsBytes(bigDecimalGraph);
+            if (event != null) {
+                event.finish(bigDecimalGraph, bytes.length);
+            }
+            return bytes;
+        } catch (JsonProcessingException ex) {
+            throw new SerializationException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public Graph<BigDecimal> deserialize(byte[] bytes) throws SerializationException {
+        // RedisSerializer contract: a missing value is deserialized as null
+        if (bytes == null) {
+            return null;
+        }
+        GraphSerializationEvent event = GraphSerializationEvent.start("deserialize");
+        try {
+            Graph<BigDecimal> graph = graphReader.readValue(bytes);
+            if (event != null) {
+                event.finish(graph, bytes.length);
+            }
+            return graph;
+        } catch (IOException ex) {
+            throw new SerializationException(ex.getMessage(), ex);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ml.echelon133.services.graphstorage.graph;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -45,6 +46,31 @@ public class APIExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(msg, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(value = WriteQueueFullException.class)
+    protected ResponseEntity<ErrorMessage> handleWriteQueueFullException(WriteQueueFullException ex, WebRequest request) {
+        ErrorMessage msg = new ErrorMessage(ex.getMessage(), request.getDescription(false));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>(msg, headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @ExceptionHandler(value = GraphWritePendingException.class)
+    protected ResponseEntity<ErrorMessage> handleGraphWritePendingException(GraphWritePendingException ex, WebRequest request) {
+        ErrorMessage msg = new ErrorMessage(ex.getMessage(), request.getDescription(false));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>(msg, headers, HttpStatus.CONFLICT);
+    }
+
+    // Redis is unavailable and there was no stale copy of the graph to serve
+    @ExceptionHandler(value = RedisConnectionFailureException.class)
+    protected ResponseEntity<ErrorMessage> handleRedisConnectionFailureException(RedisConnectionFailureException ex, WebRequest request) {
+        ErrorMessage msg = new ErrorMessage("Graph storage is temporarily unavailable", request.getDescription(false));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>(msg, headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(value = JsonProcessingException.class)
     protected ResponseEntity<ErrorMessage> handleJsonProcessingException(JsonProcessingException ex, WebRequest request) {
         ErrorMessage msg = new ErrorMessage(ex.getMessage(), request.getDescription(false));
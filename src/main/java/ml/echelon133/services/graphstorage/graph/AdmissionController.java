@@ -0,0 +1,134 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/*
+    Cost-based admission of requests to /api/graphs (graphs.storage.admission.enabled).
+
+    Every request is estimated in cost units and belongs to a class with its own budget of units that can be used
+    at the same time, so that a few large writes cannot starve small reads:
+        WRITE  - POST, 1 unit + 1 unit per bytesPerCostUnit bytes of the body (the whole budget if the length is unknown)
+        READ   - GET of a whole graph, 1 unit + 1 unit per edgesPerCostUnit edges, if the size of the graph is known
+        LOOKUP - every other request, 1 unit
+    A request that costs more than the budget of its class is charged the whole budget, so that it can still run alone.
+ */
+@Component
+public class AdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+
+    static final String GRAPHS_PATH = "/api/graphs/";
+
+    public enum RequestClass {
+        WRITE, READ, LOOKUP
+    }
+
+    private GraphSizeEstimates graphSizeEstimates;
+
+    private boolean enabled;
+    private long bytesPerCostUnit;
+    private int edgesPerCostUnit;
+
+    private Map<RequestClass, Integer> budgets = new EnumMap<>(RequestClass.class);
+    private Map<RequestClass, Semaphore> availableUnits = new EnumMap<>(RequestClass.class);
+    private Map<RequestClass, Counter> admittedCostCounters = new EnumMap<>(RequestClass.class);
+    private Map<RequestClass, Counter> shedCostCounters = new EnumMap<>(RequestClass.class);
+    private Map<RequestClass, Counter> shedRequestCounters = new EnumMap<>(RequestClass.class);
+
+    @Autowired
+    public AdmissionController(GraphSizeEstimates graphSizeEstimates,
+                               MeterRegistry meterRegistry,
+                               @Value("${graphs.storage.admission.enabled:false}") Boolean enabled,
+                               @Value("${graphs.storage.admission.writeBudget:64}") Integer writeBudget,
+                               @Value("${graphs.storage.admission.readBudget:256}") Integer readBudget,
+                               @Value("${graphs.storage.admission.lookupBudget:1024}") Integer lookupBudget,
+                               @Value("${graphs.storage.admission.bytesPerCostUnit:16384}") Long bytesPerCostUnit,
+                               @Value("${graphs.storage.admission.edgesPerCostUnit:500}") Integer edgesPerCostUnit) {
+        this.graphSizeEstimates = graphSizeEstimates;
+        this.enabled = enabled;
+        this.bytesPerCostUnit = bytesPerCostUnit;
+        this.edgesPerCostUnit = edgesPerCostUnit;
+
+        budgets.put(RequestClass.WRITE, writeBudget);
+        budgets.put(RequestClass.READ, readBudget);
+        budgets.put(RequestClass.LOOKUP, lookupBudget);
+
+        for (RequestClass requestClass : RequestClass.values()) {
+            String tag = requestClass.name().toLowerCase();
+            int budget = budgets.get(requestClass);
+            Semaphore units = new Semaphore(budget);
+            availableUnits.put(requestClass, units);
+
+            Gauge.builder("graphs.storage.admission.cost.inUse", units, semaphore -> budget - semaphore.availablePermits())
+                    .description("Cost units used by requests that are being handled")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            admittedCostCounters.put(requestClass, meterRegistry.counter("graphs.storage.admission.cost.admitted", "class", tag));
+            shedCostCounters.put(requestClass, meterRegistry.counter("graphs.storage.admission.cost.shed", "class", tag));
+            shedRequestCounters.put(requestClass, meterRegistry.counter("graphs.storage.admission.requests.shed", "class", tag));
+        }
+
+        LOGGER.info(String.format("Instantiated AdmissionController (enabled: %s, budgets: %s, bytesPerCostUnit: %d, edgesPerCostUnit: %d)",
+                enabled, budgets, bytesPerCostUnit, edgesPerCostUnit));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // path is relative to the context path of the application
+    public RequestClass classify(String method, String path) {
+        if ("POST".equals(method)) {
+            return RequestClass.WRITE;
+        }
+        if ("GET".equals(method) && path.startsWith(GRAPHS_PATH) && path.indexOf('/', GRAPHS_PATH.length()) == -1) {
+            return RequestClass.READ;
+        }
+        return RequestClass.LOOKUP;
+    }
+
+    public int estimateCost(RequestClass requestClass, HttpServletRequest request, String path) {
+        int budget = budgets.get(requestClass);
+        long cost;
+        switch (requestClass) {
+            case WRITE:
+                long contentLength = request.getContentLengthLong();
+                cost = contentLength < 0 ? budget : 1 + contentLength / bytesPerCostUnit;
+                break;
+            case READ:
+                Integer edgeCount = graphSizeEstimates.getEdgeCount(path.substring(GRAPHS_PATH.length()));
+                cost = edgeCount == null ? 1 : 1 + edgeCount / edgesPerCostUnit;
+                break;
+            default:
+                cost = 1;
+        }
+        return (int) Math.min(cost, budget);
+    }
+
+    // Never waits, a request that does not fit into the budget of its class right now is shed
+    public boolean tryAdmit(RequestClass requestClass, int cost) {
+        if (availableUnits.get(requestClass).tryAcquire(cost)) {
+            admittedCostCounters.get(requestClass).increment(cost);
+            return true;
+        }
+        shedCostCounters.get(requestClass).increment(cost);
+        shedRequestCounters.get(requestClass).increment();
+        return false;
+    }
+
+    public void release(RequestClass requestClass, int cost) {
+        availableUnits.get(requestClass).release(cost);
+    }
+}
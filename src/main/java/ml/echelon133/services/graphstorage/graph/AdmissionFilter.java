@@ -0,0 +1,124 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Admits requests to /api/graphs according to AdmissionController. Shed requests get 503 with Retry-After
+    before anything (e.g. a large body) is read. Cost units of streamed responses are held until streaming ends.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionFilter.class);
+
+    private AdmissionController admissionController;
+    private ObjectMapper oMapper;
+
+    @Autowired
+    public AdmissionFilter(AdmissionController admissionController, ObjectMapper oMapper) {
+        this.admissionController = admissionController;
+        this.oMapper = oMapper;
+        LOGGER.info("Instantiated AdmissionFilter");
+    }
+
+    private static String pathOf(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !admissionController.isEnabled() || !pathOf(request).startsWith(AdmissionController.GRAPHS_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        String path = pathOf(request);
+        AdmissionController.RequestClass requestClass = admissionController.classify(request.getMethod(), path);
+        int cost = admissionController.estimateCost(requestClass, request, path);
+
+        if (!admissionController.tryAdmit(requestClass, cost)) {
+            LOGGER.debug("Shed {} request to {} with cost {}", requestClass, path, cost);
+            shed(request, response);
+            return;
+        }
+
+        boolean releasedLater = false;
+        try {
+            filterChain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener(requestClass, cost));
+                releasedLater = true;
+            }
+        } finally {
+            if (!releasedLater) {
+                admissionController.release(requestClass, cost);
+            }
+        }
+    }
+
+    private void shed(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        APIExceptionHandler.ErrorMessage msg = new APIExceptionHandler.ErrorMessage(
+                "Service is overloaded. Try again later", "uri=" + request.getRequestURI());
+
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        oMapper.writeValue(response.getOutputStream(), msg);
+    }
+
+    // Releases cost units of an asynchronous request exactly once, no matter how it ends
+    private class ReleasingListener implements AsyncListener {
+        private AdmissionController.RequestClass requestClass;
+        private int cost;
+        private AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingListener(AdmissionController.RequestClass requestClass, int cost) {
+            this.requestClass = requestClass;
+            this.cost = cost;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                admissionController.release(requestClass, cost);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
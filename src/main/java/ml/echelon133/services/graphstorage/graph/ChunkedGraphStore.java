@@ -0,0 +1,283 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ml.echelon133.graph.Edge;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Segmented layout of graphs that have more edges than graphs.storage.chunking.thresholdEdges.
+    Storing such graphs as a single value would block Redis for the whole time of writing/reading a multi-megabyte value.
+
+    A chunked graph with id X is stored as:
+        DirectedGraph (hash), field X           - the graph without edges (so that existence checks work as before)
+        DirectedGraphManifest (hash), field X   - "chunkCount:edgeCount"
+        DirectedGraphChunk:X:0 .. N-1 (strings) - JSON arrays of at most graphs.storage.chunking.chunkEdges edges
+
+    Chunks are written in a single pipeline and read in pipelined windows, which are fetched in parallel and
+    decoded in order as soon as they arrive.
+ */
+@Component
+public class ChunkedGraphStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedGraphStore.class);
+
+    static final String MANIFEST_KEY = "DirectedGraphManifest";
+    static final String CHUNK_KEY_PREFIX = "DirectedGraphChunk:";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    public static class Manifest {
+        private int chunkCount;
+        private int edgeCount;
+
+        public Manifest(int chunkCount, int edgeCount) {
+            this.chunkCount = chunkCount;
+            this.edgeCount = edgeCount;
+        }
+
+        static Manifest parse(String value) {
+            String[] parts = value.split(":");
+            return new Manifest(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        }
+
+        String format() {
+            return chunkCount + ":" + edgeCount;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        public int getEdgeCount() {
+            return edgeCount;
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(byte[] chunk) throws IOException;
+    }
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+    private ObjectMapper oMapper;
+
+    private int thresholdEdges;
+    private int chunkEdges;
+    private int fetchWindow;
+    private int fetchParallelism;
+
+    private ExecutorService fetchExecutor;
+
+    @Autowired
+    public ChunkedGraphStore(RedisTemplate<String, String> vertexRedisTemplate,
+                             ObjectMapper oMapper,
+                             @Value("${graphs.storage.chunking.thresholdEdges:0}") Integer thresholdEdges,
+                             @Value("${graphs.storage.chunking.chunkEdges:5000}") Integer chunkEdges,
+                             @Value("${graphs.storage.chunking.fetchWindow:8}") Integer fetchWindow,
+                             @Value("${graphs.storage.chunking.fetchParallelism:4}") Integer fetchParallelism) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.oMapper = oMapper;
+        this.thresholdEdges = thresholdEdges;
+        this.chunkEdges = chunkEdges;
+        this.fetchWindow = fetchWindow;
+        this.fetchParallelism = fetchParallelism;
+
+        // threads are started lazily, only when the first chunked graph is read
+        this.fetchExecutor = Executors.newFixedThreadPool(fetchParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "graph-chunk-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOGGER.info(String.format("Instantiated ChunkedGraphStore (thresholdEdges: %d, chunkEdges: %d, fetchWindow: %d, fetchParallelism: %d)",
+                thresholdEdges, chunkEdges, fetchWindow, fetchParallelism));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+    }
+
+    // thresholdEdges equal to 0 disables chunking of new graphs, already chunked graphs can always be read
+    public boolean shouldChunk(Graph<BigDecimal> graph) {
+        return thresholdEdges > 0 && graph.getEdges().size() > thresholdEdges;
+    }
+
+    // Chunked graphs are stored without edges, only such graphs have to be checked for a manifest
+    public boolean mightBeChunked(Graph<BigDecimal> storedGraph) {
+        return storedGraph.getEdges().isEmpty() && !storedGraph.getVertexes().isEmpty();
+    }
+
+    public Graph<BigDecimal> withoutEdges(Graph<BigDecimal> graph) {
+        Graph<BigDecimal> base = new WeightedGraph<>();
+        graph.getVertexes().forEach(vertex -> base.addVertex(new Vertex<>(vertex.getName())));
+        return base;
+    }
+
+    public void saveChunks(String graphId, Graph<BigDecimal> graph) {
+        vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeChunks(connection, graphId, graph);
+            return null;
+        });
+    }
+
+    // Queues writes of all chunks and the manifest, meant to be called inside a pipeline
+    public void writeChunks(RedisConnection connection, String graphId, Graph<BigDecimal> graph) {
+        List<Edge<BigDecimal>> edges = graph.getEdges();
+        int chunkCount = (edges.size() + chunkEdges - 1) / chunkEdges;
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            List<Edge<BigDecimal>> chunkOfEdges = edges.subList(chunk * chunkEdges, Math.min(edges.size(), (chunk + 1) * chunkEdges));
+            connection.set(STRING_SERIALIZER.serialize(chunkKey(graphId, chunk)), encodeChunk(chunkOfEdges));
+        }
+        connection.hSet(STRING_SERIALIZER.serialize(MANIFEST_KEY),
+                STRING_SERIALIZER.serialize(graphId),
+                STRING_SERIALIZER.serialize(new Manifest(chunkCount, edges.size()).format()));
+        LOGGER.debug("Queued {} chunks of a graph with id {}", chunkCount, graphId);
+    }
+
+    // Queues removal of all chunks and the manifest, meant to be called inside a pipeline. Chunks are reclaimed by UNLINK in the background
+    public void unlinkChunks(RedisConnection connection, String graphId, Manifest manifest) {
+        byte[][] rawChunkKeys = new byte[manifest.getChunkCount()][];
+        for (int chunk = 0; chunk < rawChunkKeys.length; chunk++) {
+            rawChunkKeys[chunk] = STRING_SERIALIZER.serialize(chunkKey(graphId, chunk));
+        }
+        if (rawChunkKeys.length > 0) {
+            connection.unlink(rawChunkKeys);
+        }
+        connection.hDel(STRING_SERIALIZER.serialize(MANIFEST_KEY), STRING_SERIALIZER.serialize(graphId));
+        LOGGER.debug("Queued removal of {} chunks of a graph with id {}", rawChunkKeys.length, graphId);
+    }
+
+    // Returns null when the graph is not chunked
+    public Manifest findManifest(String graphId) {
+        byte[] rawManifest = vertexRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.hGet(STRING_SERIALIZER.serialize(MANIFEST_KEY), STRING_SERIALIZER.serialize(graphId)));
+        return rawManifest == null ? null : Manifest.parse(STRING_SERIALIZER.deserialize(rawManifest));
+    }
+
+    // Adds all edges stored in chunks to the graph read from the DirectedGraph hash
+    public void readChunks(String graphId, Manifest manifest, Graph<BigDecimal> base) throws IOException {
+        forEachChunk(graphId, manifest, chunk -> decodeChunk(chunk, base));
+    }
+
+    // Passes chunks to the consumer in their order. At most fetchParallelism windows of chunks are held in memory
+    public void forEachChunk(String graphId, Manifest manifest, ChunkConsumer consumer) throws IOException {
+        int windowCount = (manifest.getChunkCount() + fetchWindow - 1) / fetchWindow;
+        Deque<CompletableFuture<List<Object>>> inFlight = new ArrayDeque<>();
+
+        int nextWindow = 0;
+        while (nextWindow < windowCount && inFlight.size() < fetchParallelism) {
+            inFlight.add(fetchWindow(graphId, nextWindow++, manifest.getChunkCount()));
+        }
+
+        int chunkIndex = 0;
+        while (!inFlight.isEmpty()) {
+            List<Object> chunks = join(inFlight.poll());
+            if (nextWindow < windowCount) {
+                inFlight.add(fetchWindow(graphId, nextWindow++, manifest.getChunkCount()));
+            }
+
+            for (Object chunk : chunks) {
+                if (chunk == null) {
+                    throw new IllegalStateException(String.format("Chunk %d of a graph with id %s is missing", chunkIndex, graphId));
+                }
+                consumer.accept((byte[]) chunk);
+                chunkIndex++;
+            }
+        }
+    }
+
+    private CompletableFuture<List<Object>> fetchWindow(String graphId, int window, int chunkCount) {
+        int firstChunk = window * fetchWindow;
+        int lastChunk = Math.min(chunkCount, firstChunk + fetchWindow);
+
+        return CompletableFuture.supplyAsync(() -> vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+                connection.get(STRING_SERIALIZER.serialize(chunkKey(graphId, chunk)));
+            }
+            return null;
+        }, null), fetchExecutor);
+    }
+
+    private static List<Object> join(CompletableFuture<List<Object>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    static String chunkKey(String graphId, int chunk) {
+        return CHUNK_KEY_PREFIX + graphId + ":" + chunk;
+    }
+
+    byte[] encodeChunk(List<Edge<BigDecimal>> edges) {
+        try {
+            return oMapper.writeValueAsBytes(edges);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Chunks were validated before they were saved, so edges are added without checks made by GraphDeserializer
+    void decodeChunk(byte[] chunk, Graph<BigDecimal> graph) throws IOException {
+        try (JsonParser parser = oMapper.getFactory().createParser(chunk)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Chunk of edges is not an array");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String source = null;
+                String destination = null;
+                BigDecimal weight = null;
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "source":
+                            source = parser.getText();
+                            break;
+                        case "destination":
+                            destination = parser.getText();
+                            break;
+                        case "weight":
+                            weight = parser.getDecimalValue();
+                            break;
+                        default:
+                            parser.skipChildren();
+                    }
+                }
+                graph.addEdge(graph.findVertex(source), graph.findVertex(destination), weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Moves graphs that were not saved or read for coldAfterMillis from Redis to the cold tier (see ColdGraphTier).
+
+    Every intervalMillis the migrator takes the oldest entries of GraphLastAccess in batches of batchSize graphs,
+    appends the graphs to the active segment, syncs it to disk and only then swaps them from DirectedGraph to the
+    index of the tier in a single pipeline. Vertex sets are reclaimed by UNLINK. At most maxGraphsPerCycle graphs
+    are moved per cycle, with a pause of pauseMillis after every batch.
+
+    Segments are written by a single instance at a time, guarded by a lock in Redis that is extended after every batch.
+    A cycle that lost the lock stops. Chunked graphs stay in Redis.
+
+    After the migration a cycle compacts at most one segment, the one with the smallest share of live records, when that
+    share is below compactLiveRatio. Live records are copied to the active segment and the index is pointed at the
+    copies. The old segment is deleted by the first cycle that starts intervalMillis after that, when no request can
+    still be reading a location from before the copy. The active segment is never compacted.
+
+    Graphs saved before the tier was enabled have no time of the last access. They are added to GraphLastAccess
+    once, by the first instance that starts with the tier enabled (see seedLastAccess).
+ */
+@Component
+public class ColdGraphMigrator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColdGraphMigrator.class);
+
+    static final String LOCK_KEY = "ColdGraphMigrationLock";
+    static final String SEEDED_KEY = "GraphLastAccessSeeded";
+    static final String SEEDING_LOCK_KEY = "GraphLastAccessSeeding";
+
+    private static final int SEED_BATCH = 1000;
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+    private static final RedisScript<Long> RELEASE_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+    private static final RedisScript<Long> EXTEND_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end", Long.class);
+    // ZADD NX with time 0, graphs that were accessed in the meantime keep their time
+    private static final RedisScript<Long> SEED_LAST_ACCESS = new DefaultRedisScript<>(
+            "local args = {} for i = 1, #ARGV do args[2 * i - 1] = 0 args[2 * i] = ARGV[i] end " +
+            "return redis.call('zadd', KEYS[1], 'NX', unpack(args))", Long.class);
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+    private GraphSegmentStore graphSegmentStore;
+    private ColdGraphTier coldGraphTier;
+    private GraphIdSet graphIdSet;
+
+    private boolean enabled;
+    private long coldAfterMillis;
+    private long intervalMillis;
+    private int batchSize;
+    private int maxGraphsPerCycle;
+    private long pauseMillis;
+    private double compactLiveRatio;
+
+    private Counter migratedGraphs;
+    private Counter migratedBytes;
+    private Timer migrationCycles;
+    private Counter compactedSegments;
+    private Counter reclaimedBytes;
+
+    private ScheduledExecutorService migrationExecutor;
+
+    @Autowired
+    public ColdGraphMigrator(RedisTemplate<String, String> vertexRedisTemplate,
+                             RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                             GraphSegmentStore graphSegmentStore,
+                             ColdGraphTier coldGraphTier,
+                             GraphIdSet graphIdSet,
+                             MeterRegistry meterRegistry,
+                             @Value("${graphs.storage.tier.enabled:false}") Boolean enabled,
+                             @Value("${graphs.storage.tier.coldAfterMillis:3600000}") Long coldAfterMillis,
+                             @Value("${graphs.storage.tier.intervalMillis:300000}") Long intervalMillis,
+                             @Value("${graphs.storage.tier.batchSize:100}") Integer batchSize,
+                             @Value("${graphs.storage.tier.maxGraphsPerCycle:10000}") Integer maxGraphsPerCycle,
+                             @Value("${graphs.storage.tier.pauseMillis:50}") Long pauseMillis,
+                             @Value("${graphs.storage.tier.compactLiveRatio:0.5}") Double compactLiveRatio) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.graphRedisTemplate = graphRedisTemplate;
+        this.graphSegmentStore = graphSegmentStore;
+        this.coldGraphTier = coldGraphTier;
+        this.graphIdSet = graphIdSet;
+        this.enabled = enabled;
+        this.coldAfterMillis = coldAfterMillis;
+        this.intervalMillis = intervalMillis;
+        this.batchSize = batchSize;
+        this.maxGraphsPerCycle = maxGraphsPerCycle;
+        this.pauseMillis = pauseMillis;
+        this.compactLiveRatio = compactLiveRatio;
+
+        // migration throughput is migrated / time of migration cycles
+        this.migratedGraphs = Counter.builder("graphs.storage.tier.migrated")
+                .description("Graphs moved from Redis to the cold tier")
+                .register(meterRegistry);
+        this.migratedBytes = Counter.builder("graphs.storage.tier.migratedBytes")
+                .description("Bytes of graphs moved from Redis to the cold tier")
+                .register(meterRegistry);
+        this.migrationCycles = Timer.builder("graphs.storage.tier.migration")
+                .description("Time of migration cycles that held the migration lock")
+                .register(meterRegistry);
+        this.compactedSegments = Counter.builder("graphs.storage.tier.compactedSegments")
+                .description("Segments whose live records were copied to the active segment")
+                .register(meterRegistry);
+        this.reclaimedBytes = Counter.builder("graphs.storage.tier.reclaimedBytes")
+                .description("Bytes of deleted compacted segments")
+                .register(meterRegistry);
+
+        if (enabled) {
+            this.migrationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cold-graph-migrator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            migrationExecutor.scheduleWithFixedDelay(this::migrateSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info(String.format("Instantiated ColdGraphMigrator (enabled: %s, coldAfterMillis: %d, intervalMillis: %d, batchSize: %d, maxGraphsPerCycle: %d, pauseMillis: %d, compactLiveRatio: %.2f)",
+                enabled, coldAfterMillis, intervalMillis, batchSize, maxGraphsPerCycle, pauseMillis, compactLiveRatio));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (migrationExecutor != null) {
+            migrationExecutor.shutdownNow();
+        }
+    }
+
+    /*
+        Adds graphs saved before the tier was enabled to GraphLastAccess, so that they are migrated by the next cycle.
+        Ids of cold or deleted graphs that end up there are removed by the migration cycle that finds them missing.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 2)
+    public void seedLastAccess() {
+        if (!enabled || Boolean.TRUE.equals(vertexRedisTemplate.hasKey(SEEDED_KEY))) {
+            return;
+        }
+        Boolean locked = vertexRedisTemplate.opsForValue().setIfAbsent(SEEDING_LOCK_KEY, "1", Duration.ofHours(1));
+        if (!Boolean.TRUE.equals(locked)) {
+            LOGGER.info("Times of the last access are being seeded by another instance");
+            return;
+        }
+
+        LOGGER.info("Started seeding times of the last access of stored graphs");
+        List<String> graphIds = new ArrayList<>(SEED_BATCH);
+        long count = graphIdSet.forEachGraphId(graphId -> {
+            graphIds.add(graphId);
+            if (graphIds.size() == SEED_BATCH) {
+                seedBatch(graphIds);
+                graphIds.clear();
+            }
+        });
+        seedBatch(graphIds);
+        vertexRedisTemplate.opsForValue().set(SEEDED_KEY, "1");
+        vertexRedisTemplate.delete(SEEDING_LOCK_KEY);
+        LOGGER.info(String.format("Finished seeding times of the last access of %d graphs", count));
+    }
+
+    private void seedBatch(List<String> graphIds) {
+        if (!graphIds.isEmpty()) {
+            vertexRedisTemplate.execute(SEED_LAST_ACCESS, Collections.singletonList(ColdGraphTier.LAST_ACCESS_KEY), graphIds.toArray());
+        }
+    }
+
+    private void migrateSafely() {
+        try {
+            migrate();
+        } catch (RuntimeException ex) {
+            LOGGER.warn(String.format("Migration of cold graphs failed: %s", ex.getMessage()));
+        }
+    }
+
+    // Returns the number of migrated graphs, or -1 when another instance holds the migration lock
+    int migrate() {
+        String token = UUID.randomUUID().toString();
+        // the lock expires on its own if this instance dies during a cycle
+        Boolean locked = vertexRedisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, Duration.ofMillis(intervalMillis));
+        if (!Boolean.TRUE.equals(locked)) {
+            LOGGER.debug("Migration of cold graphs skipped, another instance holds the lock");
+            return -1;
+        }
+
+        long startedAt = System.nanoTime();
+        int migrated = 0;
+        boolean lockHeld = true;
+        try {
+            long coldBefore = System.currentTimeMillis() - coldAfterMillis;
+            while (migrated < maxGraphsPerCycle) {
+                Set<String> graphIds = vertexRedisTemplate.opsForZSet().rangeByScore(ColdGraphTier.LAST_ACCESS_KEY,
+                        Double.NEGATIVE_INFINITY, coldBefore, 0, Math.min(batchSize, maxGraphsPerCycle - migrated));
+                if (graphIds == null || graphIds.isEmpty()) {
+                    break;
+                }
+                migrated += migrateBatch(new ArrayList<>(graphIds));
+                if (!extendLock(token)) {
+                    LOGGER.warn(String.format("Migration lock expired after %d graphs, the cycle is aborted", migrated));
+                    lockHeld = false;
+                    break;
+                }
+                pause();
+            }
+            if (lockHeld) {
+                compact(token);
+            }
+        } finally {
+            releaseSegment();
+            vertexRedisTemplate.execute(RELEASE_LOCK, Collections.singletonList(LOCK_KEY), token);
+            migrationCycles.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+        LOGGER.info(String.format("Migrated %d graphs to the cold tier", migrated));
+        return migrated;
+    }
+
+    // Every batch extends the lock by intervalMillis, a cycle longer than that would otherwise run next to another one
+    private boolean extendLock(String token) {
+        Long extended = vertexRedisTemplate.execute(EXTEND_LOCK, Collections.singletonList(LOCK_KEY), token, String.valueOf(intervalMillis));
+        return Long.valueOf(1L).equals(extended);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int migrateBatch(List<String> graphIds) {
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        RedisSerializer<String> graphIdSerializer = (RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer();
+        byte[] rawGraphKey = graphKeySerializer.serialize(GraphRepository.GRAPH_KEY);
+        byte[] rawManifestKey = STRING_SERIALIZER.serialize(ChunkedGraphStore.MANIFEST_KEY);
+        byte[] rawIndexKey = STRING_SERIALIZER.serialize(ColdGraphTier.INDEX_KEY);
+        byte[] rawLastAccessKey = STRING_SERIALIZER.serialize(ColdGraphTier.LAST_ACCESS_KEY);
+
+        // stored graphs are read as they are, without deserializing them
+        List<Object> storedGraphs = graphRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String graphId : graphIds) {
+                connection.hGet(rawGraphKey, graphIdSerializer.serialize(graphId));
+                connection.hExists(rawManifestKey, STRING_SERIALIZER.serialize(graphId));
+            }
+            return null;
+        }, null);
+
+        List<String> migratedIds = new ArrayList<>(graphIds.size());
+        List<String> locations = new ArrayList<>(graphIds.size());
+        List<String> skippedIds = new ArrayList<>();
+        long bytes = 0;
+        try {
+            for (int i = 0; i < graphIds.size(); i++) {
+                byte[] storedGraph = (byte[]) storedGraphs.get(2 * i);
+                // deleted graphs leave nothing to migrate, chunked graphs are never migrated
+                if (storedGraph == null || Boolean.TRUE.equals(storedGraphs.get(2 * i + 1))) {
+                    skippedIds.add(graphIds.get(i));
+                    continue;
+                }
+                locations.add(graphSegmentStore.append(storedGraph).format());
+                migratedIds.add(graphIds.get(i));
+                bytes += storedGraph.length;
+            }
+            // graphs are removed from Redis only when their records are on disk
+            graphSegmentStore.sync();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to append graphs to the cold tier", ex);
+        }
+
+        List<Object> results = graphRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < migratedIds.size(); i++) {
+                byte[] rawId = STRING_SERIALIZER.serialize(migratedIds.get(i));
+                connection.hSet(rawIndexKey, rawId, STRING_SERIALIZER.serialize(locations.get(i)));
+                connection.hDel(rawGraphKey, graphIdSerializer.serialize(migratedIds.get(i)));
+                connection.unlink(rawId);
+                connection.zRem(rawLastAccessKey, rawId);
+            }
+            for (String graphId : skippedIds) {
+                connection.zRem(rawLastAccessKey, STRING_SERIALIZER.serialize(graphId));
+            }
+            return null;
+        });
+        forgetDeletedDuringMigration(migratedIds, results);
+
+        migratedGraphs.increment(migratedIds.size());
+        migratedBytes.increment(bytes);
+        LOGGER.debug("Migrated {} graphs ({} bytes) to the cold tier, skipped {}", migratedIds.size(), bytes, skippedIds.size());
+        return migratedIds.size();
+    }
+
+    // A graph deleted after it was read must not be promoted back from its copy in the segment
+    private void forgetDeletedDuringMigration(List<String> migratedIds, List<Object> results) {
+        List<String> deletedIds = new ArrayList<>();
+        for (int i = 0; i < migratedIds.size(); i++) {
+            // HSET, HDEL, UNLINK and ZREM were queued for every graph
+            if (!Long.valueOf(1L).equals(results.get(4 * i + 1))) {
+                deletedIds.add(migratedIds.get(i));
+            }
+        }
+        if (!deletedIds.isEmpty()) {
+            vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                deletedIds.forEach(graphId -> connection.hDel(STRING_SERIALIZER.serialize(ColdGraphTier.INDEX_KEY), STRING_SERIALIZER.serialize(graphId)));
+                return null;
+            });
+            LOGGER.debug("{} graphs were deleted during their migration", deletedIds.size());
+        }
+    }
+
+    private void compact(String token) {
+        try {
+            reclaimedBytes.increment(graphSegmentStore.deleteCompacted(intervalMillis));
+            if (compactLiveRatio <= 0) {
+                return;
+            }
+
+            SortedMap<Integer, Long> sizes = graphSegmentStore.segmentSizes();
+            if (sizes.size() < 2) {
+                return;
+            }
+            Map<Integer, Long> liveBytes = new HashMap<>();
+            coldGraphTier.forEachLocation((graphId, location) ->
+                    liveBytes.merge(location.getSegment(), (long) GraphSegmentStore.HEADER_BYTES + location.getLength(), Long::sum));
+
+            int compacted = -1;
+            double lowestRatio = compactLiveRatio;
+            for (Map.Entry<Integer, Long> size : sizes.headMap(sizes.lastKey()).entrySet()) {
+                double ratio = size.getValue() == 0 ? 0 : (double) liveBytes.getOrDefault(size.getKey(), 0L) / size.getValue();
+                if (ratio < lowestRatio && !graphSegmentStore.isCompacted(size.getKey())) {
+                    compacted = size.getKey();
+                    lowestRatio = ratio;
+                }
+            }
+            if (compacted >= 0) {
+                compactSegment(compacted, token);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to compact segments of the cold tier", ex);
+        }
+    }
+
+    private void compactSegment(int segment, String token) throws IOException {
+        List<String> graphIds = new ArrayList<>();
+        List<GraphSegmentStore.Location> locations = new ArrayList<>();
+        coldGraphTier.forEachLocation((graphId, location) -> {
+            if (location.getSegment() == segment) {
+                graphIds.add(graphId);
+                locations.add(location);
+            }
+        });
+
+        long moved = 0;
+        for (int from = 0; from < graphIds.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, graphIds.size());
+            List<GraphSegmentStore.Location> copies = new ArrayList<>(to - from);
+            for (GraphSegmentStore.Location location : locations.subList(from, to)) {
+                ByteBuffer record = graphSegmentStore.read(location);
+                byte[] copy = new byte[record.remaining()];
+                record.get(copy);
+                copies.add(graphSegmentStore.append(copy));
+            }
+            // the index points at the copies only when they are on disk
+            graphSegmentStore.sync();
+            moved += coldGraphTier.relocate(graphIds.subList(from, to), locations.subList(from, to), copies);
+            if (!extendLock(token)) {
+                LOGGER.warn(String.format("Migration lock expired during compaction of segment %d, it is left as it is", segment));
+                return;
+            }
+        }
+        graphSegmentStore.markCompacted(segment);
+        compactedSegments.increment();
+        LOGGER.info(String.format("Compacted segment %d, copied %d live graphs", segment, moved));
+    }
+
+    private void releaseSegment() {
+        try {
+            graphSegmentStore.release();
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("Failed to close the active segment: %s", ex.getMessage()));
+        }
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Migration of cold graphs was interrupted", ex);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/*
+    Cold tier of graph storage (graphs.storage.tier.enabled). Graphs that were not read for a while are moved
+    by ColdGraphMigrator from Redis into segment files (see GraphSegmentStore), and are promoted back to Redis
+    by GraphRepository when they are accessed again.
+
+    The index of the tier is kept in Redis, so that all instances can find cold graphs:
+        DirectedGraphColdIndex (hash), field X  - "segment:offset:length" of graph X in the segment files
+        GraphLastAccess (sorted set)            - time of the last save or read of every graph that is not cold
+    Segment files have to be on a volume shared by all instances.
+
+    Reads of graphs are collected locally and added to GraphLastAccess every accessFlushMillis, at most
+    maxPendingAccesses graphs per flush. Ids that do not fit are recorded by one of the next flushes, which is enough
+    as long as accessFlushMillis is much shorter than coldAfterMillis of ColdGraphMigrator.
+ */
+@Component
+public class ColdGraphTier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColdGraphTier.class);
+
+    static final String INDEX_KEY = "DirectedGraphColdIndex";
+    static final String LAST_ACCESS_KEY = "GraphLastAccess";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    /*
+        KEYS: index, DirectedGraph, GraphLastAccess, vertex set of the graph, DirectedGraphIds
+        ARGV: graph id, serialized graph, time of the access, vertex names...
+        The graph is moved only when it is still in the index, so a graph deleted after its location was read stays
+        deleted. Its id is added to GraphIdSet as well, so that a backfill that scanned DirectedGraph before the graph
+        was promoted and the index after that does not miss it. Returns 1 when the graph was moved, 2 when another request promoted it first and 0 when it was
+        deleted. Vertex names are added in batches, unpack of a very large graph would not fit on the Lua stack.
+     */
+    private static final byte[] PROMOTE = STRING_SERIALIZER.serialize(
+            "if redis.call('hdel', KEYS[1], ARGV[1]) == 0 then " +
+            "  if redis.call('hexists', KEYS[2], ARGV[1]) == 1 then return 2 end " +
+            "  return 0 " +
+            "end " +
+            "redis.call('hset', KEYS[2], ARGV[1], ARGV[2]) " +
+            "redis.call('sadd', KEYS[5], ARGV[1]) " +
+            "redis.call('zadd', KEYS[3], ARGV[3], ARGV[1]) " +
+            "for i = 4, #ARGV, 1000 do redis.call('sadd', KEYS[4], unpack(ARGV, i, math.min(i + 999, #ARGV))) end " +
+            "return 1");
+
+    // ARGV: triples of graph id, old location and new location. Only graphs still at the old location are moved,
+    // graphs promoted or deleted during compaction keep their state
+    private static final RedisScript<Long> RELOCATE = new DefaultRedisScript<>(
+            "local moved = 0 " +
+            "for i = 1, #ARGV, 3 do " +
+            "  if redis.call('hget', KEYS[1], ARGV[i]) == ARGV[i + 1] then " +
+            "    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 2]) moved = moved + 1 " +
+            "  end " +
+            "end " +
+            "return moved", Long.class);
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+    private GraphSegmentStore graphSegmentStore;
+    private ObjectMapper oMapper;
+
+    private boolean enabled;
+    private int maxPendingAccesses;
+
+    private volatile Set<String> pendingAccesses = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService accessFlushExecutor;
+
+    private Counter redisReads;
+    private Counter coldReads;
+
+    @Autowired
+    public ColdGraphTier(RedisTemplate<String, String> vertexRedisTemplate,
+                         RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                         GraphSegmentStore graphSegmentStore,
+                         ObjectMapper oMapper,
+                         MeterRegistry meterRegistry,
+                         @Value("${graphs.storage.tier.enabled:false}") Boolean enabled,
+                         @Value("${graphs.storage.tier.accessFlushMillis:60000}") Long accessFlushMillis,
+                         @Value("${graphs.storage.tier.maxPendingAccesses:10000}") Integer maxPendingAccesses) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.graphRedisTemplate = graphRedisTemplate;
+        this.graphSegmentStore = graphSegmentStore;
+        this.oMapper = oMapper;
+        this.enabled = enabled;
+        this.maxPendingAccesses = maxPendingAccesses;
+
+        // the hit rate of the cold tier is cold / (redis + cold)
+        this.redisReads = Counter.builder("graphs.storage.tier.reads")
+                .tag("tier", "redis")
+                .description("Accesses of graphs that were found in Redis")
+                .register(meterRegistry);
+        this.coldReads = Counter.builder("graphs.storage.tier.reads")
+                .tag("tier", "cold")
+                .description("Accesses of graphs that were found in the cold tier and promoted back to Redis")
+                .register(meterRegistry);
+
+        if (enabled) {
+            this.accessFlushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "graph-access-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            accessFlushExecutor.scheduleWithFixedDelay(this::flushAccessesSafely, accessFlushMillis, accessFlushMillis, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info(String.format("Instantiated ColdGraphTier (enabled: %s, accessFlushMillis: %d, maxPendingAccesses: %d)",
+                enabled, accessFlushMillis, maxPendingAccesses));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (accessFlushExecutor != null) {
+            accessFlushExecutor.shutdownNow();
+            flushAccessesSafely();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordRedisRead(String graphId) {
+        redisReads.increment();
+        recordAccess(graphId);
+    }
+
+    // Graphs read from a local cache never reach Redis, but they are still hot
+    public void recordAccess(String graphId) {
+        Set<String> accesses = pendingAccesses;
+        if (accesses.size() < maxPendingAccesses) {
+            accesses.add(graphId);
+        }
+    }
+
+    private void flushAccessesSafely() {
+        try {
+            flushAccesses();
+            // segments deleted by the compaction of another instance
+            graphSegmentStore.dropDeletedMappings();
+        } catch (RuntimeException ex) {
+            LOGGER.warn(String.format("Failed to flush accesses of graphs: %s", ex.getMessage()));
+        }
+    }
+
+    // Updates times of the last access of all graphs read since the previous flush in a single pipeline
+    void flushAccesses() {
+        Set<String> accesses = pendingAccesses;
+        if (accesses.isEmpty()) {
+            return;
+        }
+        pendingAccesses = ConcurrentHashMap.newKeySet();
+
+        long flushedAt = System.currentTimeMillis();
+        vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            accesses.forEach(graphId -> touch(connection, graphId, flushedAt));
+            return null;
+        });
+        LOGGER.debug("Flushed accesses of {} graphs", accesses.size());
+    }
+
+    public boolean contains(String graphId) {
+        return vertexRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.hExists(STRING_SERIALIZER.serialize(INDEX_KEY), STRING_SERIALIZER.serialize(graphId)));
+    }
+
+    // Passes ids of all cold graphs to the consumer, returns their number
+    public long forEachGraphId(Consumer<String> consumer) {
+        return vertexRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long count = 0;
+            try (Cursor<Map.Entry<byte[], byte[]>> cursor = connection.hScan(STRING_SERIALIZER.serialize(INDEX_KEY), ScanOptions.scanOptions().count(1000).build())) {
+                while (cursor.hasNext()) {
+                    consumer.accept(STRING_SERIALIZER.deserialize(cursor.next().getKey()));
+                    count++;
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to close the cursor over ids of cold graphs", ex);
+            }
+            return count;
+        });
+    }
+
+    // Passes ids of all cold graphs and locations of their records to the consumer
+    public void forEachLocation(BiConsumer<String, GraphSegmentStore.Location> consumer) {
+        vertexRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try (Cursor<Map.Entry<byte[], byte[]>> cursor = connection.hScan(STRING_SERIALIZER.serialize(INDEX_KEY), ScanOptions.scanOptions().count(1000).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<byte[], byte[]> entry = cursor.next();
+                    consumer.accept(STRING_SERIALIZER.deserialize(entry.getKey()),
+                            GraphSegmentStore.Location.parse(STRING_SERIALIZER.deserialize(entry.getValue())));
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to close the cursor over locations of cold graphs", ex);
+            }
+            return null;
+        });
+    }
+
+    // Points the index at copies of records made by compaction, returns the number of graphs that were still cold
+    public long relocate(List<String> graphIds, List<GraphSegmentStore.Location> from, List<GraphSegmentStore.Location> to) {
+        Object[] args = new Object[3 * graphIds.size()];
+        for (int i = 0; i < graphIds.size(); i++) {
+            args[3 * i] = graphIds.get(i);
+            args[3 * i + 1] = from.get(i).format();
+            args[3 * i + 2] = to.get(i).format();
+        }
+        Long moved = vertexRedisTemplate.execute(RELOCATE, Collections.singletonList(INDEX_KEY), args);
+        return moved == null ? 0 : moved;
+    }
+
+    // Queues an update of the time of the last access, meant to be called inside a pipeline
+    public void touch(RedisConnection connection, String graphId, long accessedAt) {
+        connection.zAdd(STRING_SERIALIZER.serialize(LAST_ACCESS_KEY), accessedAt, STRING_SERIALIZER.serialize(graphId));
+    }
+
+    public void touch(String graphId) {
+        vertexRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            touch(connection, graphId, System.currentTimeMillis());
+            return null;
+        });
+    }
+
+    // Queues removal of a deleted graph from the index of the tier, meant to be called inside a pipeline. HDEL from
+    // the index is queued first, so its result is the first of the results of this method
+    public void forget(RedisConnection connection, String graphId) {
+        byte[] rawId = STRING_SERIALIZER.serialize(graphId);
+        connection.hDel(STRING_SERIALIZER.serialize(INDEX_KEY), rawId);
+        connection.zRem(STRING_SERIALIZER.serialize(LAST_ACCESS_KEY), rawId);
+    }
+
+    /*
+        Moves the graph back to Redis, returns false when the graph is not in the cold tier.
+
+        The graph is removed from the index and written to DirectedGraph by a single script, so that it is always
+        visible in one of them, and a graph deleted while its record was being read is not brought back. Its record
+        stays in the segment file until the segment is compacted.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean promote(String graphId) {
+        byte[] rawLocation = vertexRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.hGet(STRING_SERIALIZER.serialize(INDEX_KEY), STRING_SERIALIZER.serialize(graphId)));
+        if (rawLocation == null) {
+            return false;
+        }
+
+        byte[] serializedGraph;
+        byte[][] rawVertexNames;
+        try {
+            ByteBuffer storedGraph = graphSegmentStore.read(GraphSegmentStore.Location.parse(STRING_SERIALIZER.deserialize(rawLocation)));
+            // vertex names are parsed straight from the mapped segment
+            rawVertexNames = readVertexNames(storedGraph.duplicate());
+            // the redis client only accepts arrays, this is the single copy of the record
+            serializedGraph = new byte[storedGraph.remaining()];
+            storedGraph.get(serializedGraph);
+        } catch (IOException ex) {
+            throw new SerializationException("Failed to read graph with id " + graphId + " from the cold tier", ex);
+        }
+
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        byte[] rawGraphKey = graphKeySerializer.serialize(GraphRepository.GRAPH_KEY);
+
+        byte[][] keysAndArgs = new byte[8 + rawVertexNames.length][];
+        keysAndArgs[0] = STRING_SERIALIZER.serialize(INDEX_KEY);
+        keysAndArgs[1] = rawGraphKey;
+        keysAndArgs[2] = STRING_SERIALIZER.serialize(LAST_ACCESS_KEY);
+        keysAndArgs[3] = STRING_SERIALIZER.serialize(graphId);
+        keysAndArgs[4] = STRING_SERIALIZER.serialize(GraphIdSet.IDS_KEY);
+        // ids are strings in the index, GraphLastAccess, DirectedGraph and DirectedGraphIds alike
+        keysAndArgs[5] = STRING_SERIALIZER.serialize(graphId);
+        keysAndArgs[6] = serializedGraph;
+        keysAndArgs[7] = STRING_SERIALIZER.serialize(String.valueOf(System.currentTimeMillis()));
+        System.arraycopy(rawVertexNames, 0, keysAndArgs, 8, rawVertexNames.length);
+
+        Long promoted = graphRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.eval(PROMOTE, ReturnType.INTEGER, 5, keysAndArgs));
+        if (Long.valueOf(0L).equals(promoted)) {
+            LOGGER.debug("Graph with id {} was deleted while it was being promoted", graphId);
+            return false;
+        }
+        if (Long.valueOf(2L).equals(promoted)) {
+            return true;
+        }
+        coldReads.increment();
+        LOGGER.debug("Promoted graph with id {} ({} bytes) from the cold tier", graphId, serializedGraph.length);
+        return true;
+    }
+
+    private byte[][] readVertexNames(ByteBuffer storedGraph) throws IOException {
+        List<byte[]> rawVertexNames = new ArrayList<>();
+        try (JsonParser parser = oMapper.getFactory().createParser(new ByteBufferBackedInputStream(storedGraph))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Stored graph is not an object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("vertexes")) {
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        rawVertexNames.add(STRING_SERIALIZER.serialize(parser.getText()));
+                    }
+                    break;
+                }
+                parser.skipChildren();
+            }
+        }
+        return rawVertexNames.toArray(new byte[0][]);
+    }
+}
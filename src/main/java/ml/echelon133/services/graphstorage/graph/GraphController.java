@@ -5,12 +5,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 @RestController
@@ -20,24 +21,51 @@ public class GraphController {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphController.class);
 
     private GraphRepository graphRepository;
+    private GraphWriteQueue graphWriteQueue;
+    private GraphPopularityTracker graphPopularityTracker;
 
     @Autowired
-    public GraphController(GraphRepository graphRepository) {
+    public GraphController(GraphRepository graphRepository, GraphWriteQueue graphWriteQueue, GraphPopularityTracker graphPopularityTracker) {
         this.graphRepository = graphRepository;
+        this.graphWriteQueue = graphWriteQueue;
+        this.graphPopularityTracker = graphPopularityTracker;
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Graph<BigDecimal>> getGraph(@PathVariable String id) throws Exception {
-        LOGGER.debug(String.format("getGraph with id %s from the database", id));
+        LOGGER.debug("getGraph with id {} from the database", id);
         Graph<BigDecimal> graph = graphRepository.findById(id);
+        graphPopularityTracker.recordRead(id);
 
-        LOGGER.debug(String.format("Return response with a serialized graph that has an id %s", id));
+        LOGGER.debug("Return response with a serialized graph that has an id {}", id);
         return new ResponseEntity<>(graph, HttpStatus.OK);
     }
 
+    // Streams the graph as NDJSON (vertexes first, then edges) straight from its serialized form
+    @GetMapping(value = "/{id}", produces = GraphStreamWriter.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamGraph(@PathVariable String id) throws Exception {
+        LOGGER.debug("streamGraph with id {} from the database", id);
+        // read before the response is committed, so that a missing graph still results in 404
+        byte[] serializedGraph = graphRepository.findSerializedById(id);
+
+        StreamingResponseBody body = outputStream -> {
+            GraphStreamWriter writer = new GraphStreamWriter(outputStream);
+            writer.writeStoredGraph(serializedGraph);
+
+            // edges of chunked graphs are stored separately, they are written chunk by chunk as they arrive
+            if (writer.getEdgeCount() == 0 && writer.getVertexCount() > 0) {
+                graphRepository.forEachSerializedEdgeChunk(id, writer::writeEdgeChunk);
+            }
+            LOGGER.debug("Streamed {} vertexes and {} edges of a graph with id {}", writer.getVertexCount(), writer.getEdgeCount(), id);
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.valueOf(GraphStreamWriter.APPLICATION_NDJSON_VALUE))
+                .body(body);
+    }
+
     @GetMapping("/{id}/vertexes")
     public ResponseEntity<Map<String, Boolean>> checkGraphVertexStatus(@PathVariable String id, @RequestParam String name) throws Exception {
-        LOGGER.debug(String.format("checkGraphVertexStatus of vertex %s in a graph with id %s", name, id));
+        LOGGER.debug("checkGraphVertexStatus of vertex {} in a graph with id {}", name, id);
 
         Boolean contains = graphRepository.graphHasVertex(id, name);
 
@@ -46,15 +74,65 @@ public class GraphController {
 
     }
 
+    @GetMapping("/{id}/reachable")
+    public ResponseEntity<Map<String, Boolean>> checkVertexReachability(@PathVariable String id, @RequestParam String from, @RequestParam String to) throws Exception {
+        LOGGER.debug("checkVertexReachability from vertex {} to vertex {} in a graph with id {}", from, to, id);
+
+        Boolean reachable = graphRepository.isReachable(id, from, to);
+
+        Map<String, Boolean> response = Collections.singletonMap("reachable", reachable);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @GetMapping("/{id}/status")
+    public ResponseEntity<Map<String, String>> getGraphStatus(@PathVariable String id) throws Exception {
+        LOGGER.debug("getGraphStatus of a graph with id {}", id);
+
+        GraphWriteQueue.WriteStatus writeStatus = graphWriteQueue.getWriteStatus(id);
+        String status;
+        if (writeStatus != null) {
+            status = writeStatus.name();
+        } else if (graphRepository.exists(id)) {
+            status = GraphWriteQueue.WriteStatus.STORED.name();
+        } else {
+            throw new GraphNotFoundException(String.format("Graph with id %s not found", id));
+        }
+
+        Map<String, String> response = Collections.singletonMap("status", status);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteGraph(@PathVariable String id) throws Exception {
+        LOGGER.debug("deleteGraph with id {}", id);
+        // a queued graph would be written after it was deleted, so its write is cancelled instead
+        if (graphWriteQueue.getWriteStatus(id) == GraphWriteQueue.WriteStatus.PENDING) {
+            if (!graphWriteQueue.cancel(id)) {
+                throw new GraphWritePendingException(String.format("Graph with id %s is being saved. Try again later", id));
+            }
+            LOGGER.debug("Write of a graph with id {} cancelled, returning an empty response", id);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        graphRepository.deleteById(id);
+
+        LOGGER.debug("Graph with id {} deleted, returning an empty response", id);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
     @PostMapping("/")
     public ResponseEntity<Map<String, String>> addGraph(@RequestBody Graph<BigDecimal> graph) throws Exception {
-        Map<String, String> response = new HashMap<>();
+        if (graphWriteQueue.isEnabled()) {
+            LOGGER.debug("@RequestBody graph deserialized correctly. Queueing it for saving.");
+            Map<String, String> response = Collections.singletonMap("id", graphWriteQueue.submit(graph));
+            return new ResponseEntity<>(response, HttpStatus.ACCEPTED);
+        }
 
-        LOGGER.debug(String.format("@RequestBody graph deserialized correctly as %s. Attempting saving it.", graph));
+        // the graph itself is not logged, turning a whole graph into a string is too expensive
+        LOGGER.debug("@RequestBody graph deserialized correctly. Attempting saving it.");
         String id = graphRepository.save(graph);
 
-        response.put("id", id);
-        LOGGER.debug(String.format("Returning response with an id %s of the graph that was just serialized", id));
+        Map<String, String> response = Collections.singletonMap("id", id);
+        LOGGER.debug("Returning response with an id {} of the graph that was just serialized", id);
         return new ResponseEntity<>(response, HttpStatus.CREATED);
     }
 }
@@ -0,0 +1,73 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+    Receives ids of graphs saved by other instances of the service, so that their local
+    GraphIdFilter and NegativeGraphCache do not report these graphs as missing.
+    Also receives ids of deleted graphs, which are dropped from local caches of every instance and kept from winning
+    hedged reads (see GraphReadHedger).
+ */
+@Component
+public class GraphEventListener implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphEventListener.class);
+
+    public static final String GRAPH_SAVED_CHANNEL = "graphs:saved";
+    public static final String GRAPH_INVALIDATED_CHANNEL = "graphs:invalidated";
+
+    private GraphIdFilter graphIdFilter;
+    private NegativeGraphCache negativeGraphCache;
+    private LocalGraphCache localGraphCache;
+    private GraphSizeEstimates graphSizeEstimates;
+    private GraphReadHedger graphReadHedger;
+
+    @Autowired
+    public GraphEventListener(RedisMessageListenerContainer listenerContainer,
+                              GraphIdFilter graphIdFilter,
+                              NegativeGraphCache negativeGraphCache,
+                              LocalGraphCache localGraphCache,
+                              GraphSizeEstimates graphSizeEstimates,
+                              GraphReadHedger graphReadHedger) {
+        this.graphIdFilter = graphIdFilter;
+        this.negativeGraphCache = negativeGraphCache;
+        this.localGraphCache = localGraphCache;
+        this.graphReadHedger = graphReadHedger;
+        this.graphSizeEstimates = graphSizeEstimates;
+
+        // a cached miss of a graph saved by another instance would otherwise be reported until it expires
+        if (graphIdFilter.isEnabled() || negativeGraphCache.isEnabled()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(GRAPH_SAVED_CHANNEL));
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(GRAPH_INVALIDATED_CHANNEL));
+        LOGGER.info("Instantiated GraphEventListener");
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String graphId = new String(message.getBody(), StandardCharsets.UTF_8);
+
+        if (GRAPH_INVALIDATED_CHANNEL.equals(channel)) {
+            LOGGER.debug("Received information about a graph deleted with id {}", graphId);
+            localGraphCache.invalidate(graphId);
+            graphSizeEstimates.remove(graphId);
+            negativeGraphCache.add(graphId);
+            graphReadHedger.recordDeletion(graphId);
+            return;
+        }
+
+        LOGGER.debug("Received information about a graph saved with id {}", graphId);
+        graphIdFilter.put(graphId);
+        negativeGraphCache.remove(graphId);
+    }
+}
@@ -0,0 +1,105 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    Bloom filter of ids of all graphs that are stored in the database.
+    If the filter says that it does not contain an id, the graph certainly does not exist and Redis does not
+    have to be asked about it. Until the filter is loaded (see GraphRepository.loadGraphIdFilter) or when it's
+    disabled, it claims to contain every id.
+ */
+@Component
+public class GraphIdFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphIdFilter.class);
+
+    private boolean enabled;
+    private volatile boolean ready;
+
+    private AtomicLongArray bits;
+    private long bitCount;
+    private int hashCount;
+
+    @Autowired
+    public GraphIdFilter(@Value("${graphs.storage.idFilter.enabled:false}") Boolean enabled,
+                         @Value("${graphs.storage.idFilter.expectedGraphs:1000000}") Integer expectedGraphs,
+                         @Value("${graphs.storage.idFilter.falsePositiveRate:0.01}") Double falsePositiveRate) {
+        this.enabled = enabled;
+
+        // standard formulas for the optimal size of the filter and the optimal number of hash functions
+        long optimalBitCount = (long) Math.ceil(-expectedGraphs * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = Math.max(64, optimalBitCount);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedGraphs * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+
+        LOGGER.info(String.format("Instantiated GraphIdFilter (enabled: %s, bits: %d, hash functions: %d)", enabled, bitCount, hashCount));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void markReady() {
+        this.ready = true;
+    }
+
+    public void put(String graphId) {
+        long hash = hash(graphId);
+        long hash1 = hash;
+        long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, bitCount);
+            long mask = 1L << (bitIndex & 63);
+            bits.accumulateAndGet((int) (bitIndex >>> 6), mask, (current, m) -> current | m);
+        }
+    }
+
+    public boolean mightContain(String graphId) {
+        if (!enabled || !ready) {
+            return true;
+        }
+
+        long hash = hash(graphId);
+        long hash1 = hash;
+        long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, bitCount);
+            long mask = 1L << (bitIndex & 63);
+            if ((bits.get((int) (bitIndex >>> 6)) & mask) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a over the characters of the id, finalized with the murmur3 mixer
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
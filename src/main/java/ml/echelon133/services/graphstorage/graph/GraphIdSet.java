@@ -0,0 +1,165 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+    Ids of all stored graphs, hot and cold, kept in the DirectedGraphIds set. Walking DirectedGraph with HSCAN would
+    transfer every stored graph just to learn its id, SSCAN of this set only transfers ids.
+
+    The set is maintained by GraphRepository on every save and delete, and by ColdGraphTier on every promotion, which
+    could otherwise move a graph out of the index behind the back of a running backfill. Graphs saved before the set existed are added
+    to it once, by the first instance that starts (see backfill), which then marks the set as complete. Until then ids
+    are read from DirectedGraph and the index of the cold tier, like before. A graph deleted during the backfill can
+    stay in the set, so users of the set have to expect ids of graphs that no longer exist.
+ */
+@Component
+public class GraphIdSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphIdSet.class);
+
+    static final String IDS_KEY = "DirectedGraphIds";
+    static final String COMPLETE_KEY = "DirectedGraphIdsComplete";
+    static final String BACKFILL_LOCK_KEY = "DirectedGraphIdsBackfill";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+    private static final byte[] RAW_IDS_KEY = STRING_SERIALIZER.serialize(IDS_KEY);
+    private static final int SCAN_COUNT = 1000;
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+    private ColdGraphTier coldGraphTier;
+
+    @Autowired
+    public GraphIdSet(RedisTemplate<String, String> vertexRedisTemplate,
+                      RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                      ColdGraphTier coldGraphTier) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.graphRedisTemplate = graphRedisTemplate;
+        this.coldGraphTier = coldGraphTier;
+        LOGGER.info("Instantiated GraphIdSet");
+    }
+
+    // Queues adding of the id, meant to be called inside a pipeline
+    public void add(RedisConnection connection, String graphId) {
+        connection.sAdd(RAW_IDS_KEY, STRING_SERIALIZER.serialize(graphId));
+    }
+
+    public void add(String graphId) {
+        vertexRedisTemplate.opsForSet().add(IDS_KEY, graphId);
+    }
+
+    // Queues removal of the id, meant to be called inside a pipeline
+    public void remove(RedisConnection connection, String graphId) {
+        connection.sRem(RAW_IDS_KEY, STRING_SERIALIZER.serialize(graphId));
+    }
+
+    public boolean isComplete() {
+        return Boolean.TRUE.equals(vertexRedisTemplate.hasKey(COMPLETE_KEY));
+    }
+
+    // Passes ids of all stored graphs to the consumer, returns their number
+    public long forEachGraphId(Consumer<String> consumer) {
+        if (!isComplete()) {
+            LOGGER.info("Set of graph ids is not complete yet, ids are read from stored graphs");
+            return forEachStoredGraphId(consumer);
+        }
+        return vertexRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long count = 0;
+            try (Cursor<byte[]> cursor = connection.sScan(RAW_IDS_KEY, ScanOptions.scanOptions().count(SCAN_COUNT).build())) {
+                while (cursor.hasNext()) {
+                    consumer.accept(STRING_SERIALIZER.deserialize(cursor.next()));
+                    count++;
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to close the cursor over graph ids", ex);
+            }
+            return count;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private long forEachStoredGraphId(Consumer<String> consumer) {
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        RedisSerializer<String> graphIdSerializer = (RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer();
+        byte[] rawGraphKey = graphKeySerializer.serialize(GraphRepository.GRAPH_KEY);
+
+        long count = graphRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long scanned = 0;
+            try (Cursor<Map.Entry<byte[], byte[]>> cursor = connection.hScan(rawGraphKey, ScanOptions.scanOptions().count(SCAN_COUNT).build())) {
+                while (cursor.hasNext()) {
+                    consumer.accept(graphIdSerializer.deserialize(cursor.next().getKey()));
+                    scanned++;
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to close the cursor over stored graph ids", ex);
+            }
+            return scanned;
+        });
+        // graphs moved to the cold tier are not in DirectedGraph, but they still exist
+        if (coldGraphTier.isEnabled()) {
+            count += coldGraphTier.forEachGraphId(consumer);
+        }
+        return count;
+    }
+
+    /*
+        Adds ids of graphs saved before the set existed. Graphs saved in the meantime are added by GraphRepository, so
+        the set is complete once the scan is over. Only one instance backfills the set, the others keep reading ids
+        from stored graphs until it is marked as complete. Runs before the other ApplicationReadyEvent listeners.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void backfill() {
+        if (isComplete()) {
+            return;
+        }
+        Boolean locked = vertexRedisTemplate.opsForValue().setIfAbsent(BACKFILL_LOCK_KEY, "1", Duration.ofHours(1));
+        if (!Boolean.TRUE.equals(locked)) {
+            LOGGER.info("Set of graph ids is being backfilled by another instance");
+            return;
+        }
+
+        LOGGER.info("Started backfilling the set of graph ids");
+        List<String> graphIds = new ArrayList<>(SCAN_COUNT);
+        long count = forEachStoredGraphId(graphId -> {
+            graphIds.add(graphId);
+            if (graphIds.size() == SCAN_COUNT) {
+                addAll(graphIds);
+                graphIds.clear();
+            }
+        });
+        addAll(graphIds);
+        vertexRedisTemplate.opsForValue().set(COMPLETE_KEY, "1");
+        vertexRedisTemplate.delete(BACKFILL_LOCK_KEY);
+        LOGGER.info(String.format("Finished backfilling the set of graph ids with %d ids", count));
+    }
+
+    private void addAll(List<String> graphIds) {
+        if (!graphIds.isEmpty()) {
+            vertexRedisTemplate.opsForSet().add(IDS_KEY, graphIds.toArray(new String[0]));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Scans the keyspace of stored graphs in the background and reports how much of Redis they use (see GraphKeyspaceReport).
+
+    The scan never blocks Redis: ids of graphs are read from GraphIdSet in batches of batchSize graphs, sizes of graphs
+    (HSTRLEN), vertex sets (SCARD) and chunks (STRLEN) of a batch are read in a single pipeline, and the scanner pauses
+    for pauseMillis after every batch, so stored graphs never leave Redis. Graphs that are not in DirectedGraph (cold or
+    deleted ones) are skipped. A new scan cannot start sooner than minIntervalMillis after the previous one started.
+ */
+@Component
+public class GraphKeyspaceAnalyzer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphKeyspaceAnalyzer.class);
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+    private static final byte[] MEMORY_USAGE = STRING_SERIALIZER.serialize("USAGE");
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+    private GraphIdSet graphIdSet;
+
+    private int batchSize;
+    private long pauseMillis;
+    private long minIntervalMillis;
+    private int topGraphs;
+    private int vertexSetSampleEvery;
+
+    private ScheduledExecutorService scanExecutor;
+
+    private boolean running;
+    private long lastStartedAt;
+    private volatile long scannedGraphs;
+    private volatile GraphKeyspaceReport lastReport;
+
+    @Autowired
+    public GraphKeyspaceAnalyzer(RedisTemplate<String, String> vertexRedisTemplate,
+                                 RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                                 GraphIdSet graphIdSet,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${graphs.storage.keyspace.batchSize:500}") Integer batchSize,
+                                 @Value("${graphs.storage.keyspace.pauseMillis:50}") Long pauseMillis,
+                                 @Value("${graphs.storage.keyspace.minIntervalMillis:600000}") Long minIntervalMillis,
+                                 @Value("${graphs.storage.keyspace.scanIntervalMillis:0}") Long scanIntervalMillis,
+                                 @Value("${graphs.storage.keyspace.topGraphs:20}") Integer topGraphs,
+                                 @Value("${graphs.storage.keyspace.vertexSetSampleEvery:100}") Integer vertexSetSampleEvery) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.graphRedisTemplate = graphRedisTemplate;
+        this.graphIdSet = graphIdSet;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.minIntervalMillis = minIntervalMillis;
+        this.topGraphs = topGraphs;
+        this.vertexSetSampleEvery = vertexSetSampleEvery;
+
+        this.scanExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "graph-keyspace-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // scans that run periodically are still subject to minIntervalMillis
+        if (scanIntervalMillis > 0) {
+            scanExecutor.scheduleWithFixedDelay(this::requestScan, scanIntervalMillis, scanIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // results of the last finished scan, meant for capacity planning dashboards
+        Gauge.builder("graphs.storage.keyspace.graphs", this, analyzer -> reportValue(analyzer.lastReport, GraphKeyspaceReport::getGraphCount))
+                .description("Number of stored graphs found by the last keyspace scan")
+                .register(meterRegistry);
+        Gauge.builder("graphs.storage.keyspace.graphBytes", this, analyzer -> reportValue(analyzer.lastReport, GraphKeyspaceReport::getTotalGraphBytes))
+                .description("Bytes of stored graphs found by the last keyspace scan")
+                .register(meterRegistry);
+        Gauge.builder("graphs.storage.keyspace.vertexSetBytes", this, analyzer -> reportValue(analyzer.lastReport, GraphKeyspaceReport::getEstimatedVertexSetBytes))
+                .description("Estimated memory used by vertex sets, according to the last keyspace scan")
+                .register(meterRegistry);
+
+        LOGGER.info(String.format("Instantiated GraphKeyspaceAnalyzer (batchSize: %d, pauseMillis: %d, minIntervalMillis: %d, scanIntervalMillis: %d, topGraphs: %d, vertexSetSampleEvery: %d)",
+                batchSize, pauseMillis, minIntervalMillis, scanIntervalMillis, topGraphs, vertexSetSampleEvery));
+    }
+
+    private interface ReportValue {
+        Number get(GraphKeyspaceReport report);
+    }
+
+    private static double reportValue(GraphKeyspaceReport report, ReportValue value) {
+        Number number = report == null ? null : value.get(report);
+        return number == null ? Double.NaN : number.doubleValue();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+    }
+
+    // Returns false when a scan is already running or the previous one started less than minIntervalMillis ago
+    public synchronized boolean requestScan() {
+        long now = System.currentTimeMillis();
+        if (running || (lastStartedAt > 0 && now - lastStartedAt < minIntervalMillis)) {
+            return false;
+        }
+        running = true;
+        lastStartedAt = now;
+        scanExecutor.execute(this::scanSafely);
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public long getScannedGraphs() {
+        return scannedGraphs;
+    }
+
+    // Returns null before the first scan finishes
+    public GraphKeyspaceReport getLastReport() {
+        return lastReport;
+    }
+
+    private void scanSafely() {
+        try {
+            lastReport = scan();
+        } catch (RuntimeException ex) {
+            LOGGER.warn(String.format("Keyspace scan failed: %s", ex.getMessage()));
+        } finally {
+            synchronized (this) {
+                running = false;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    GraphKeyspaceReport scan() {
+        LOGGER.info("Started keyspace scan");
+        GraphKeyspaceReport report = new GraphKeyspaceReport(topGraphs);
+        scannedGraphs = 0;
+
+        Map<String, ChunkedGraphStore.Manifest> manifests = scanManifests();
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        RedisSerializer<String> graphIdSerializer = (RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer();
+        byte[] rawGraphKey = graphKeySerializer.serialize(GraphRepository.GRAPH_KEY);
+
+        List<String> graphIds = new ArrayList<>(batchSize);
+        graphIdSet.forEachGraphId(graphId -> {
+            graphIds.add(graphId);
+            if (graphIds.size() == batchSize) {
+                analyzeBatch(report, rawGraphKey, graphIdSerializer, graphIds, manifests);
+                graphIds.clear();
+                pause();
+            }
+        });
+        if (!graphIds.isEmpty()) {
+            analyzeBatch(report, rawGraphKey, graphIdSerializer, graphIds, manifests);
+        }
+
+        report.finish();
+        LOGGER.info(String.format("Finished keyspace scan of %d graphs (%d bytes)", report.getGraphCount(), report.getTotalGraphBytes()));
+        return report;
+    }
+
+    // Manifests are small, ids of all chunked graphs are read up front so that chunks can be measured batch by batch
+    private Map<String, ChunkedGraphStore.Manifest> scanManifests() {
+        return vertexRedisTemplate.execute((RedisCallback<Map<String, ChunkedGraphStore.Manifest>>) connection -> {
+            Map<String, ChunkedGraphStore.Manifest> manifests = new HashMap<>();
+            byte[] rawManifestKey = STRING_SERIALIZER.serialize(ChunkedGraphStore.MANIFEST_KEY);
+            try (Cursor<Map.Entry<byte[], byte[]>> cursor = connection.hScan(rawManifestKey, ScanOptions.scanOptions().count(batchSize).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<byte[], byte[]> entry = cursor.next();
+                    manifests.put(STRING_SERIALIZER.deserialize(entry.getKey()),
+                            ChunkedGraphStore.Manifest.parse(STRING_SERIALIZER.deserialize(entry.getValue())));
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to close the cursor over manifests of chunked graphs", ex);
+            }
+            return manifests;
+        });
+    }
+
+    private void analyzeBatch(GraphKeyspaceReport report, byte[] rawGraphKey, RedisSerializer<String> graphIdSerializer,
+                              List<String> graphIds, Map<String, ChunkedGraphStore.Manifest> manifests) {
+        List<Object> results = vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String graphId : graphIds) {
+                connection.hStrLen(rawGraphKey, graphIdSerializer.serialize(graphId));
+                connection.sCard(STRING_SERIALIZER.serialize(graphId));
+                ChunkedGraphStore.Manifest manifest = manifests.get(graphId);
+                if (manifest != null) {
+                    for (int chunk = 0; chunk < manifest.getChunkCount(); chunk++) {
+                        connection.strLen(STRING_SERIALIZER.serialize(ChunkedGraphStore.chunkKey(graphId, chunk)));
+                    }
+                }
+            }
+            return null;
+        });
+
+        int result = 0;
+        for (int i = 0; i < graphIds.size(); i++) {
+            String graphId = graphIds.get(i);
+            long storedBytes = (Long) results.get(result++);
+            long vertexes = (Long) results.get(result++);
+            long bytes = storedBytes;
+            ChunkedGraphStore.Manifest manifest = manifests.get(graphId);
+            if (manifest != null) {
+                for (int chunk = 0; chunk < manifest.getChunkCount(); chunk++) {
+                    bytes += (Long) results.get(result++);
+                }
+            }
+            // HSTRLEN of a missing field is 0, the graph is in the cold tier or was deleted
+            if (storedBytes == 0) {
+                continue;
+            }
+            report.addGraph(graphId, bytes, vertexes, manifest != null);
+
+            if (vertexSetSampleEvery > 0 && vertexes > 0 && scannedGraphs % vertexSetSampleEvery == 0) {
+                sampleVertexSet(report, graphId, vertexes);
+            }
+            scannedGraphs++;
+        }
+    }
+
+    // MEMORY USAGE is not available before Redis 4.0 (and can be renamed), a scan without samples still reports everything else
+    private void sampleVertexSet(GraphKeyspaceReport report, String graphId, long vertexes) {
+        try {
+            Object bytes = vertexRedisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.execute("MEMORY", MEMORY_USAGE, STRING_SERIALIZER.serialize(graphId)));
+            if (bytes instanceof Long) {
+                report.addVertexSetSample(vertexes, (Long) bytes);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.debug("Failed to sample memory usage of a vertex set of a graph with id {}", graphId);
+        }
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Keyspace scan was interrupted", ex);
+        }
+    }
+}
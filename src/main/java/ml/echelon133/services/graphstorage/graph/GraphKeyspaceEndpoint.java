@@ -0,0 +1,44 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    /actuator/graphkeyspace - GET returns the report of the last finished keyspace scan and the progress of a running one,
+    POST starts a new scan (rate-limited by GraphKeyspaceAnalyzer).
+ */
+@Component
+@Endpoint(id = "graphkeyspace")
+public class GraphKeyspaceEndpoint {
+
+    private GraphKeyspaceAnalyzer graphKeyspaceAnalyzer;
+
+    @Autowired
+    public GraphKeyspaceEndpoint(GraphKeyspaceAnalyzer graphKeyspaceAnalyzer) {
+        this.graphKeyspaceAnalyzer = graphKeyspaceAnalyzer;
+    }
+
+    @ReadOperation
+    public Map<String, Object> keyspace() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        boolean running = graphKeyspaceAnalyzer.isRunning();
+        response.put("running", running);
+        if (running) {
+            response.put("scannedGraphs", graphKeyspaceAnalyzer.getScannedGraphs());
+        }
+        response.put("lastReport", graphKeyspaceAnalyzer.getLastReport());
+        return response;
+    }
+
+    @WriteOperation
+    public Map<String, Boolean> scan() {
+        return Collections.singletonMap("started", graphKeyspaceAnalyzer.requestScan());
+    }
+}
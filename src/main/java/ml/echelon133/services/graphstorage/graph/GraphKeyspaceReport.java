@@ -0,0 +1,158 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+    Result of a single scan made by GraphKeyspaceAnalyzer. Bytes of a graph are the length of its stored JSON
+    (plus lengths of its chunks, if it is chunked), not the memory used by Redis, which also has per-key overhead.
+    Memory used by vertex sets is extrapolated from MEMORY USAGE of sampled sets.
+ */
+public class GraphKeyspaceReport {
+
+    private static final long[] SIZE_BUCKET_LIMITS = {1024L, 10 * 1024L, 100 * 1024L, 1024 * 1024L, 10 * 1024 * 1024L};
+    private static final String[] SIZE_BUCKET_NAMES = {"<1KB", "<10KB", "<100KB", "<1MB", "<10MB", ">=10MB"};
+
+    public static class GraphSize {
+        private String id;
+        private long bytes;
+        private long vertexes;
+        private boolean chunked;
+
+        GraphSize(String id, long bytes, long vertexes, boolean chunked) {
+            this.id = id;
+            this.bytes = bytes;
+            this.vertexes = vertexes;
+            this.chunked = chunked;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getVertexes() {
+            return vertexes;
+        }
+
+        public boolean isChunked() {
+            return chunked;
+        }
+    }
+
+    private int topGraphs;
+
+    private Date startedAt;
+    private Date finishedAt;
+
+    private long graphCount;
+    private long chunkedGraphCount;
+    private long totalGraphBytes;
+    private long[] sizeBuckets = new long[SIZE_BUCKET_NAMES.length];
+    // smallest of the largest graphs on top, so that it can be replaced
+    private PriorityQueue<GraphSize> largestGraphs = new PriorityQueue<>(Comparator.comparingLong(GraphSize::getBytes));
+
+    private long vertexSetMembers;
+    private long sampledVertexSetMembers;
+    private long sampledVertexSetBytes;
+    private int vertexSetSamples;
+
+    GraphKeyspaceReport(int topGraphs) {
+        this.topGraphs = topGraphs;
+        this.startedAt = new Date();
+    }
+
+    void addGraph(String id, long bytes, long vertexes, boolean chunked) {
+        graphCount++;
+        totalGraphBytes += bytes;
+        vertexSetMembers += vertexes;
+        if (chunked) {
+            chunkedGraphCount++;
+        }
+
+        int bucket = 0;
+        while (bucket < SIZE_BUCKET_LIMITS.length && bytes >= SIZE_BUCKET_LIMITS[bucket]) {
+            bucket++;
+        }
+        sizeBuckets[bucket]++;
+
+        if (topGraphs <= 0) {
+            return;
+        }
+        if (largestGraphs.size() < topGraphs) {
+            largestGraphs.add(new GraphSize(id, bytes, vertexes, chunked));
+        } else if (largestGraphs.peek().getBytes() < bytes) {
+            largestGraphs.poll();
+            largestGraphs.add(new GraphSize(id, bytes, vertexes, chunked));
+        }
+    }
+
+    void addVertexSetSample(long members, long bytes) {
+        sampledVertexSetMembers += members;
+        sampledVertexSetBytes += bytes;
+        vertexSetSamples++;
+    }
+
+    void finish() {
+        this.finishedAt = new Date();
+    }
+
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    public long getGraphCount() {
+        return graphCount;
+    }
+
+    public long getChunkedGraphCount() {
+        return chunkedGraphCount;
+    }
+
+    public long getTotalGraphBytes() {
+        return totalGraphBytes;
+    }
+
+    public Map<String, Long> getSizeDistribution() {
+        Map<String, Long> distribution = new LinkedHashMap<>();
+        for (int bucket = 0; bucket < SIZE_BUCKET_NAMES.length; bucket++) {
+            distribution.put(SIZE_BUCKET_NAMES[bucket], sizeBuckets[bucket]);
+        }
+        return distribution;
+    }
+
+    // Largest first
+    public List<GraphSize> getLargestGraphs() {
+        List<GraphSize> graphs = new ArrayList<>(largestGraphs);
+        graphs.sort(Comparator.comparingLong(GraphSize::getBytes).reversed());
+        return graphs;
+    }
+
+    public long getVertexSetMembers() {
+        return vertexSetMembers;
+    }
+
+    public int getVertexSetSamples() {
+        return vertexSetSamples;
+    }
+
+    // Returns null when no vertex set could be sampled (e.g. MEMORY USAGE is not available)
+    public Long getEstimatedVertexSetBytes() {
+        if (sampledVertexSetMembers == 0) {
+            return null;
+        }
+        return Math.round((double) sampledVertexSetBytes / sampledVertexSetMembers * vertexSetMembers);
+    }
+}
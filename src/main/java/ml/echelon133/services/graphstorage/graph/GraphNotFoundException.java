@@ -2,7 +2,8 @@ package ml.echelon133.services.graphstorage.graph;
 
 public class GraphNotFoundException extends Exception {
 
+    // Misses are an expected outcome of a lookup, so filling in the stack trace would be a waste
     public GraphNotFoundException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
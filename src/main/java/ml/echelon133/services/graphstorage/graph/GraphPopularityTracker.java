@@ -0,0 +1,136 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Read counts of graphs shared by all instances (graphs.storage.popularity.enabled), so that a freshly started
+    instance knows which graphs to preload during its warm-up.
+
+    Reads are counted locally and added to the GraphPopularity sorted set every flushMillis, so a read never waits
+    for Redis. Only the maxStoredIds most read graphs are kept in the sorted set. Counts are approximate: reads
+    that happen during a flush might not be counted.
+ */
+@Component
+public class GraphPopularityTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphPopularityTracker.class);
+
+    static final String POPULARITY_KEY = "GraphPopularity";
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    private boolean enabled;
+    private int maxPendingIds;
+    private int maxStoredIds;
+
+    private volatile Map<String, LongAdder> pendingReads = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flushExecutor;
+
+    @Autowired
+    public GraphPopularityTracker(RedisTemplate<String, String> vertexRedisTemplate,
+                                  @Value("${graphs.storage.popularity.enabled:false}") Boolean enabled,
+                                  @Value("${graphs.storage.popularity.flushMillis:60000}") Long flushMillis,
+                                  @Value("${graphs.storage.popularity.maxPendingIds:10000}") Integer maxPendingIds,
+                                  @Value("${graphs.storage.popularity.maxStoredIds:10000}") Integer maxStoredIds) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.enabled = enabled;
+        this.maxPendingIds = maxPendingIds;
+        this.maxStoredIds = maxStoredIds;
+
+        if (enabled) {
+            this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "graph-popularity-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushExecutor.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info(String.format("Instantiated GraphPopularityTracker (enabled: %s, flushMillis: %d, maxPendingIds: %d, maxStoredIds: %d)",
+                enabled, flushMillis, maxPendingIds, maxStoredIds));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+            flushSafely();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordRead(String graphId) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, LongAdder> reads = pendingReads;
+        LongAdder count = reads.get(graphId);
+        if (count == null) {
+            // ids that do not fit are not counted until the next flush, the most read ones are already in the map
+            if (reads.size() >= maxPendingIds) {
+                return;
+            }
+            count = reads.computeIfAbsent(graphId, id -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            LOGGER.warn(String.format("Failed to flush read counts of graphs: %s", ex.getMessage()));
+        }
+    }
+
+    // Adds locally counted reads to the shared sorted set and trims it, all in a single pipeline
+    @SuppressWarnings("unchecked")
+    void flush() {
+        Map<String, LongAdder> reads = pendingReads;
+        if (reads.isEmpty()) {
+            return;
+        }
+        pendingReads = new ConcurrentHashMap<>();
+
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) vertexRedisTemplate.getKeySerializer();
+        RedisSerializer<String> valueSerializer = (RedisSerializer<String>) vertexRedisTemplate.getValueSerializer();
+        byte[] rawPopularityKey = keySerializer.serialize(POPULARITY_KEY);
+
+        vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            reads.forEach((graphId, count) -> connection.zIncrBy(rawPopularityKey, count.sum(), valueSerializer.serialize(graphId)));
+            // ranks are ascending, so everything below the maxStoredIds highest scores is removed
+            connection.zRemRange(rawPopularityKey, 0, -(maxStoredIds + 1));
+            return null;
+        });
+        LOGGER.debug("Flushed read counts of {} graphs", reads.size());
+    }
+
+    // Returns ids of the most read graphs, the most read first
+    public Set<String> findMostRead(int count) {
+        if (count <= 0) {
+            return Collections.emptySet();
+        }
+        Set<String> graphIds = vertexRedisTemplate.opsForZSet().reverseRange(POPULARITY_KEY, 0, count - 1);
+        return graphIds == null ? Collections.emptySet() : graphIds;
+    }
+}
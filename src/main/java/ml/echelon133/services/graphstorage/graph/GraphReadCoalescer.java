@@ -0,0 +1,106 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+    Single-flight reads of graphs (graphs.storage.coalesceReads.enabled). When many requests ask for the same graph
+    at the same moment, only the first one reads it from Redis and deserializes it, the others wait for its result.
+    Results are not kept here (see LocalGraphCache), a read that starts after the previous one finished goes to Redis again.
+
+    Waiting requests receive the same Graph object, so returned graphs must not be modified. A request waits at most
+    timeoutMillis for the read of another request, then it reads the graph on its own, so a stuck read does not hold
+    every request for its graph.
+ */
+@Component
+public class GraphReadCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphReadCoalescer.class);
+
+    @FunctionalInterface
+    public interface GraphRead {
+        Graph<BigDecimal> read() throws GraphNotFoundException;
+    }
+
+    private boolean enabled;
+    private long timeoutMillis;
+    private Map<String, CompletableFuture<Graph<BigDecimal>>> inFlightReads = new ConcurrentHashMap<>();
+
+    private Counter coalescedCounter;
+    private Counter timeoutCounter;
+
+    @Autowired
+    public GraphReadCoalescer(MeterRegistry meterRegistry,
+                              @Value("${graphs.storage.coalesceReads.enabled:true}") Boolean enabled,
+                              @Value("${graphs.storage.coalesceReads.timeoutMillis:5000}") Long timeoutMillis) {
+        this.enabled = enabled;
+        this.timeoutMillis = timeoutMillis;
+        this.coalescedCounter = meterRegistry.counter("graphs.storage.reads.coalesced");
+        this.timeoutCounter = meterRegistry.counter("graphs.storage.reads.coalesced.timeouts");
+        LOGGER.info(String.format("Instantiated GraphReadCoalescer (enabled: %s, timeoutMillis: %d)", enabled, timeoutMillis));
+    }
+
+    public Graph<BigDecimal> read(String graphId, GraphRead read) throws GraphNotFoundException {
+        if (!enabled) {
+            return read.read();
+        }
+
+        CompletableFuture<Graph<BigDecimal>> ownRead = new CompletableFuture<>();
+        CompletableFuture<Graph<BigDecimal>> inFlightRead = inFlightReads.putIfAbsent(graphId, ownRead);
+        if (inFlightRead != null) {
+            coalescedCounter.increment();
+            try {
+                return await(inFlightRead, timeoutMillis);
+            } catch (TimeoutException ex) {
+                timeoutCounter.increment();
+                LOGGER.debug("Read of a graph with id {} by another request takes longer than {} ms, reading it again", graphId, timeoutMillis);
+                return read.read();
+            }
+        }
+
+        try {
+            Graph<BigDecimal> graph = read.read();
+            ownRead.complete(graph);
+            return graph;
+        } catch (GraphNotFoundException | RuntimeException | Error ex) {
+            // waiting requests fail the same way
+            ownRead.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightReads.remove(graphId, ownRead);
+        }
+    }
+
+    private static Graph<BigDecimal> await(CompletableFuture<Graph<BigDecimal>> inFlightRead, long timeoutMillis)
+            throws GraphNotFoundException, TimeoutException {
+        try {
+            return inFlightRead.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a graph read by another request", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof GraphNotFoundException) {
+                throw (GraphNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.services.graphstorage.jfr.GraphOperationEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+    Hedged reads of graphs (graphs.storage.hedge.enabled). A read that does not finish within the hedge delay
+    (latencyPercentile of the last latencyWindow reads, at least minDelayMillis) is repeated against the replica
+    (graphs.storage.hedge.replicaHost, or the primary on another connection when no replica is set) and the graph
+    that arrives first is returned. Reads are not hedged until a quarter of the window was measured. The slower read
+    is never cancelled (a blocking Redis call cannot be), so a primary read always finishes and fills LocalGraphCache.
+
+    A replica can lag behind the primary, so a hedged read never decides that a graph is missing: only a found graph
+    wins, missing graphs and failures are always reported by the primary read. For the same reason a graph deleted
+    within maxReplicaLagMillis (by this or, through GraphEventListener, another instance) never wins, see
+    mightBeDeleted. A deletion announced by another instance only after the hedged read finished is not seen, so
+    a read that races a deletion on another instance can still return the graph. When all threads are busy, reads run
+    on the calling thread without a hedge. The GraphOperationEvent of the calling thread is attached to both reads.
+
+    With graphs.storage.degraded.enabled, GraphRepository serves graphs from LocalGraphCache or the replica while
+    the primary is unavailable (see findOnReplica).
+ */
+@Component
+public class GraphReadHedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphReadHedger.class);
+
+    private static final int MAX_RECENT_DELETIONS = 10000;
+
+    private RedisTemplate<String, Graph<BigDecimal>> hedgeRedisTemplate;
+    private JedisConnectionFactory replicaConnectionFactory;
+
+    private boolean enabled;
+    private boolean degradedEnabled;
+    private double latencyPercentile;
+    private long minDelayNanos;
+    private long maxReplicaLagMillis;
+
+    private long[] latencies;
+    private int nextLatency;
+    private long recordedLatencies;
+    private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+
+    // ids of recently deleted graphs and the time until which a lagging replica could still return them
+    private Map<String, Long> recentDeletions = new ConcurrentHashMap<>();
+    private volatile long hedgesRejectedUntil;
+
+    private ExecutorService readExecutor;
+
+    private Counter readCounter;
+    private Counter hedgedCounter;
+    private Counter winCounter;
+    private Counter staleCounter;
+
+    @Autowired
+    public GraphReadHedger(RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${graphs.storage.hedge.enabled:false}") Boolean enabled,
+                           @Value("${graphs.storage.hedge.latencyPercentile:0.95}") Double latencyPercentile,
+                           @Value("${graphs.storage.hedge.minDelayMillis:5}") Long minDelayMillis,
+                           @Value("${graphs.storage.hedge.latencyWindow:1000}") Integer latencyWindow,
+                           @Value("${graphs.storage.hedge.threads:32}") Integer threads,
+                           @Value("${graphs.storage.hedge.replicaHost:}") String replicaHost,
+                           @Value("${graphs.storage.hedge.replicaPort:6379}") Integer replicaPort,
+                           @Value("${graphs.storage.hedge.maxReplicaLagMillis:5000}") Long maxReplicaLagMillis,
+                           @Value("${redis.password:}") String replicaPassword,
+                           @Value("${graphs.storage.degraded.enabled:false}") Boolean degradedEnabled) {
+        if (latencyPercentile <= 0 || latencyPercentile > 1) {
+            throw new IllegalArgumentException("graphs.storage.hedge.latencyPercentile has to be in (0, 1]");
+        }
+        if (latencyWindow < 4) {
+            throw new IllegalArgumentException("graphs.storage.hedge.latencyWindow has to be at least 4");
+        }
+        this.enabled = enabled;
+        this.degradedEnabled = degradedEnabled;
+        this.latencyPercentile = latencyPercentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxReplicaLagMillis = maxReplicaLagMillis;
+        this.latencies = new long[latencyWindow];
+
+        this.hedgeRedisTemplate = graphRedisTemplate;
+        if (!replicaHost.isEmpty()) {
+            RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(replicaHost, replicaPort);
+            config.setPassword(RedisPassword.of(replicaPassword));
+            this.replicaConnectionFactory = new JedisConnectionFactory(config);
+            this.replicaConnectionFactory.afterPropertiesSet();
+            this.hedgeRedisTemplate = replicaTemplate(replicaConnectionFactory, graphRedisTemplate);
+        }
+
+        if (enabled && replicaHost.isEmpty()) {
+            LOGGER.warn("Hedging is enabled without graphs.storage.hedge.replicaHost, hedged reads go to the primary and only help with slow connections, not with a slow primary");
+        }
+        if (enabled) {
+            this.readExecutor = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "graph-hedged-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        this.readCounter = meterRegistry.counter("graphs.storage.hedge.reads");
+        this.hedgedCounter = meterRegistry.counter("graphs.storage.hedge.hedged");
+        this.winCounter = meterRegistry.counter("graphs.storage.hedge.wins");
+        this.staleCounter = meterRegistry.counter("graphs.storage.degraded.reads");
+        Gauge.builder("graphs.storage.hedge.delayMillis", this, GraphReadHedger::getHedgeDelayMillis)
+                .register(meterRegistry);
+        LOGGER.info(String.format("Instantiated GraphReadHedger (enabled: %s, latencyPercentile: %.3f, minDelayMillis: %d, latencyWindow: %d, threads: %d, replica: %s, maxReplicaLagMillis: %d, degradedEnabled: %s)",
+                enabled, latencyPercentile, minDelayMillis, latencyWindow, threads, replicaHost.isEmpty() ? "none" : replicaHost + ":" + replicaPort, maxReplicaLagMillis, degradedEnabled));
+    }
+
+    // The replica stores graphs exactly like the primary, so it is read with the same serializers
+    private static RedisTemplate<String, Graph<BigDecimal>> replicaTemplate(JedisConnectionFactory connectionFactory,
+                                                                            RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate) {
+        RedisTemplate<String, Graph<BigDecimal>> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(graphRedisTemplate.getKeySerializer());
+        redisTemplate.setHashKeySerializer(graphRedisTemplate.getHashKeySerializer());
+        redisTemplate.setHashValueSerializer(graphRedisTemplate.getHashValueSerializer());
+        redisTemplate.afterPropertiesSet();
+        return redisTemplate;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (readExecutor != null) {
+            readExecutor.shutdownNow();
+        }
+        if (replicaConnectionFactory != null) {
+            replicaConnectionFactory.destroy();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isDegradedEnabled() {
+        return degradedEnabled;
+    }
+
+    public double getHedgeDelayMillis() {
+        long delay = hedgeDelayNanos;
+        return delay == Long.MAX_VALUE ? 0 : delay / 1_000_000.0;
+    }
+
+    public Graph<BigDecimal> read(String graphId, GraphReadCoalescer.GraphRead primaryRead, GraphReadCoalescer.GraphRead hedgedRead) throws GraphNotFoundException {
+        if (!enabled) {
+            return primaryRead.read();
+        }
+
+        readCounter.increment();
+        CompletableFuture<Graph<BigDecimal>> primary;
+        try {
+            primary = submit(primaryRead, true);
+        } catch (RejectedExecutionException ex) {
+            return primaryRead.read();
+        }
+
+        try {
+            return primary.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            LOGGER.debug("Read of a graph with id {} is slower than {} ms, hedging it", graphId, getHedgeDelayMillis());
+        } catch (InterruptedException | ExecutionException ex) {
+            return unwrap(ex);
+        }
+
+        CompletableFuture<Graph<BigDecimal>> hedge;
+        try {
+            hedge = submit(hedgedRead, false);
+        } catch (RejectedExecutionException ex) {
+            return await(primary);
+        }
+        hedgedCounter.increment();
+
+        // a hedged read without a graph leaves the answer to the primary read, a failed primary read waits for the hedged one
+        CompletableFuture<CompletableFuture<Graph<BigDecimal>>> winner = new CompletableFuture<>();
+        hedge.whenComplete((hedgedGraph, hedgeFailure) -> winner.complete(hedgedGraph != null ? hedge : primary));
+        primary.whenComplete((graph, failure) -> {
+            if (failure == null) {
+                winner.complete(primary);
+            }
+        });
+
+        CompletableFuture<Graph<BigDecimal>> firstRead;
+        try {
+            firstRead = winner.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            return unwrap(ex);
+        }
+        if (firstRead == hedge) {
+            winCounter.increment();
+        }
+        return await(firstRead);
+    }
+
+    private CompletableFuture<Graph<BigDecimal>> submit(GraphReadCoalescer.GraphRead read, boolean measured) {
+        CompletableFuture<Graph<BigDecimal>> future = new CompletableFuture<>();
+        GraphOperationEvent event = GraphOperationEvent.current();
+        readExecutor.execute(() -> {
+            long startedAt = System.nanoTime();
+            if (event != null) {
+                GraphOperationEvent.attach(event);
+            }
+            try {
+                Graph<BigDecimal> graph = read.read();
+                // only reads of found graphs are measured, lookups of missing graphs are answered much faster
+                if (measured && graph != null) {
+                    recordLatency(System.nanoTime() - startedAt);
+                }
+                future.complete(graph);
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                if (event != null) {
+                    GraphOperationEvent.detach();
+                }
+            }
+        });
+        return future;
+    }
+
+    // The percentile is recomputed every quarter of the window, sorting the window on every read would cost more than hedging saves
+    synchronized void recordLatency(long nanos) {
+        latencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % latencies.length;
+        recordedLatencies++;
+
+        if (recordedLatencies % (latencies.length / 4) == 0) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(recordedLatencies, latencies.length));
+            Arrays.sort(sorted);
+            long percentile = sorted[(int) Math.ceil(latencyPercentile * sorted.length) - 1];
+            hedgeDelayNanos = Math.max(minDelayNanos, percentile);
+        }
+    }
+
+    // Reads the graph from the target of hedged reads, returns null when it is not there
+    public Graph<BigDecimal> findOnHedgeTarget(String graphId) {
+        return hedgeRedisTemplate.<String, Graph<BigDecimal>>opsForHash().get(GraphRepository.GRAPH_KEY, graphId);
+    }
+
+    // Remembers a graph deleted on the primary, which the hedge target could still return for maxReplicaLagMillis
+    public void recordDeletion(String graphId) {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long rejectedUntil = now + maxReplicaLagMillis;
+        if (recentDeletions.size() >= MAX_RECENT_DELETIONS) {
+            recentDeletions.values().removeIf(until -> until < now);
+            // when there are too many deletions to remember, no hedged graph wins until all of them are replicated
+            if (recentDeletions.size() >= MAX_RECENT_DELETIONS) {
+                hedgesRejectedUntil = rejectedUntil;
+                return;
+            }
+        }
+        recentDeletions.put(graphId, rejectedUntil);
+    }
+
+    // Has to be checked after the hedged read, so that deletions that happened during the read are seen as well
+    public boolean mightBeDeleted(String graphId) {
+        long now = System.currentTimeMillis();
+        if (now < hedgesRejectedUntil) {
+            return true;
+        }
+        Long rejectedUntil = recentDeletions.get(graphId);
+        if (rejectedUntil == null) {
+            return false;
+        }
+        if (rejectedUntil < now) {
+            recentDeletions.remove(graphId, rejectedUntil);
+            return false;
+        }
+        return true;
+    }
+
+    // Returns null when there is no replica, the graph is not replicated yet, or the replica is unavailable as well
+    public Graph<BigDecimal> findOnReplica(String graphId) {
+        if (replicaConnectionFactory == null) {
+            return null;
+        }
+        try {
+            return findOnHedgeTarget(graphId);
+        } catch (RuntimeException ex) {
+            LOGGER.debug("Replica failed to read a graph with id {}: {}", graphId, ex.getMessage());
+            return null;
+        }
+    }
+
+    public void recordStaleRead() {
+        staleCounter.increment();
+    }
+
+    private static Graph<BigDecimal> await(CompletableFuture<Graph<BigDecimal>> read) throws GraphNotFoundException {
+        try {
+            return read.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            return unwrap(ex);
+        }
+    }
+
+    private static Graph<BigDecimal> unwrap(Exception ex) throws GraphNotFoundException {
+        if (ex instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a graph read", ex);
+        }
+        Throwable cause = ex.getCause();
+        if (cause instanceof GraphNotFoundException) {
+            throw (GraphNotFoundException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw (Error) cause;
+    }
+}
@@ -1,15 +1,25 @@
 package ml.echelon133.services.graphstorage.graph;
 
 import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.services.graphstorage.jfr.GraphOperationEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.HashOperations;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.SetOperations;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.*;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Repository
@@ -17,68 +27,435 @@ public class GraphRepository {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphRepository.class);
 
+    static final String GRAPH_KEY = "DirectedGraph";
+
     private RedisTemplate<String, String> vertexRedisTemplate;
     private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
 
     private SetOperations<String, String> vertexOpsForSet;
     private HashOperations<String, String, Graph<BigDecimal>> graphOpsForHash;
 
-    private final String GRAPH_KEY = "DirectedGraph";
+    private GraphIdFilter graphIdFilter;
+    private NegativeGraphCache negativeGraphCache;
+    private ChunkedGraphStore chunkedGraphStore;
+    private GraphSizeEstimates graphSizeEstimates;
+    private GraphReadCoalescer graphReadCoalescer;
+    private LocalGraphCache localGraphCache;
+    private ColdGraphTier coldGraphTier;
+    private ReachabilityIndexStore reachabilityIndexStore;
+    private GraphReadHedger graphReadHedger;
+    private GraphIdSet graphIdSet;
 
     @Autowired
     public GraphRepository(RedisTemplate<String, String> vertexRedisTemplate,
-                           RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate) {
+                           RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate,
+                           GraphIdFilter graphIdFilter,
+                           NegativeGraphCache negativeGraphCache,
+                           ChunkedGraphStore chunkedGraphStore,
+                           GraphSizeEstimates graphSizeEstimates,
+                           GraphReadCoalescer graphReadCoalescer,
+                           LocalGraphCache localGraphCache,
+                           ColdGraphTier coldGraphTier,
+                           ReachabilityIndexStore reachabilityIndexStore,
+                           GraphReadHedger graphReadHedger,
+                           GraphIdSet graphIdSet) {
 
         this.vertexRedisTemplate = vertexRedisTemplate;
         this.vertexOpsForSet = vertexRedisTemplate.opsForSet();
 
         this.graphRedisTemplate = graphRedisTemplate;
         this.graphOpsForHash = graphRedisTemplate.opsForHash();
+
+        this.graphIdFilter = graphIdFilter;
+        this.negativeGraphCache = negativeGraphCache;
+        this.chunkedGraphStore = chunkedGraphStore;
+        this.graphSizeEstimates = graphSizeEstimates;
+        this.graphReadCoalescer = graphReadCoalescer;
+        this.localGraphCache = localGraphCache;
+        this.coldGraphTier = coldGraphTier;
+        this.reachabilityIndexStore = reachabilityIndexStore;
+        this.graphReadHedger = graphReadHedger;
+        this.graphIdSet = graphIdSet;
         LOGGER.info("Instantiated GraphRepository");
     }
 
-    public Boolean graphHasVertex(String graphId, String vertexName) throws GraphNotFoundException {
-        if (!graphOpsForHash.hasKey(GRAPH_KEY, graphId)) {
-            String msg = String.format("Graph with id %s not found", graphId);
-            LOGGER.debug(msg);
-            throw new GraphNotFoundException(msg);
+    // Fills GraphIdFilter with ids of all stored graphs, which are read from GraphIdSet so that graphs never leave Redis
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void loadGraphIdFilter() {
+        if (!graphIdFilter.isEnabled()) {
+            return;
         }
 
-        Boolean contains = vertexOpsForSet.isMember(graphId, vertexName);
-        LOGGER.debug(String.format("Method graphHasVertex returns %s for graph with id %s and vertexName %s", contains, graphId, vertexName));
-        return contains;
+        LOGGER.info("Started loading ids of stored graphs into GraphIdFilter");
+        long loadedIds = graphIdSet.forEachGraphId(graphIdFilter::put);
+
+        // ids saved during the scan were already added by GraphEventListener, so the filter is complete
+        graphIdFilter.markReady();
+        LOGGER.info(String.format("Finished loading %d ids of stored graphs into GraphIdFilter", loadedIds));
+    }
+
+    // Checks the cheap local structures first, so that most lookups of missing graphs never reach Redis
+    private void checkIfGraphExists(String graphId) throws GraphNotFoundException {
+        if (graphIdFilter.mightContain(graphId) && !negativeGraphCache.contains(graphId)) {
+            long removalCountBeforeLookup = negativeGraphCache.getRemovalCount();
+            if (graphOpsForHash.hasKey(GRAPH_KEY, graphId)) {
+                if (coldGraphTier.isEnabled()) {
+                    coldGraphTier.recordRedisRead(graphId);
+                }
+                return;
+            }
+            // a cold graph is moved back to Redis before it is used, so that callers never have to know about the tier
+            if (coldGraphTier.isEnabled() && coldGraphTier.promote(graphId)) {
+                return;
+            }
+            negativeGraphCache.add(graphId, removalCountBeforeLookup);
+        }
+
+        LOGGER.debug("Graph with id {} not found", graphId);
+        throw new GraphNotFoundException("Graph with id " + graphId + " not found");
+    }
+
+    private boolean announcesSaves() {
+        return graphIdFilter.isEnabled() || negativeGraphCache.isEnabled();
+    }
+
+    private void rememberSavedGraph(String graphId) {
+        graphIdFilter.put(graphId);
+        negativeGraphCache.remove(graphId);
+    }
+
+    public Boolean graphHasVertex(String graphId, String vertexName) throws GraphNotFoundException {
+        GraphOperationEvent event = GraphOperationEvent.start("graphHasVertex", graphId);
+        try {
+            Boolean contains;
+            try {
+                checkIfGraphExists(graphId);
+                contains = vertexOpsForSet.isMember(graphId, vertexName);
+            } catch (RedisConnectionFailureException ex) {
+                contains = findStaleCopy(graphId, ex).getVertexes().stream().anyMatch(vertex -> vertex.getName().equals(vertexName));
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Method graphHasVertex returns {} for graph with id {} and vertexName {}", contains, graphId, vertexName);
+            }
+            return contains;
+        } finally {
+            if (event != null) {
+                event.finish(null);
+            }
+        }
     }
 
     public String save(Graph<BigDecimal> graph) {
         String graphId = UUID.randomUUID().toString();
+        GraphOperationEvent event = GraphOperationEvent.start("save", graphId);
+        try {
+            return save(graphId, graph);
+        } finally {
+            if (event != null) {
+                event.finish(graph);
+            }
+        }
+    }
 
-        // save a set of vertex names needed for vertex membership testing
-        LOGGER.debug(String.format("Method save() tries to save a set of vertex names of a graph %s with id %s", graph, graphId));
-        graph.getVertexes().forEach(
-                vertex -> vertexOpsForSet.add(graphId, vertex.getName())
-        );
+    private String save(String graphId, Graph<BigDecimal> graph) {
 
-        LOGGER.debug(String.format("Method save() tries to save graph %s with id %s", graph, graphId));
-        graphOpsForHash.put(GRAPH_KEY, graphId, graph);
+        // save a set of vertex names needed for vertex membership testing (a single SADD instead of one per vertex)
+        LOGGER.debug("Method save() tries to save a set of vertex names of a graph with id {}", graphId);
+        String[] vertexNames = graph.getVertexes()
+                .stream()
+                .map(Vertex::getName)
+                .toArray(String[]::new);
+        if (vertexNames.length > 0) {
+            vertexOpsForSet.add(graphId, vertexNames);
+        }
+
+        // chunks, the reachability index and the id are written first, so that a graph visible in GRAPH_KEY is always complete
+        if (reachabilityIndexStore.isEnabled()) {
+            reachabilityIndexStore.saveIndex(graphId, graph);
+        }
+        graphIdSet.add(graphId);
+        LOGGER.debug("Method save() tries to save graph with id {}", graphId);
+        if (chunkedGraphStore.shouldChunk(graph)) {
+            chunkedGraphStore.saveChunks(graphId, graph);
+            graphOpsForHash.put(GRAPH_KEY, graphId, chunkedGraphStore.withoutEdges(graph));
+        } else {
+            graphOpsForHash.put(GRAPH_KEY, graphId, graph);
+        }
 
         if (graphOpsForHash.hasKey(GRAPH_KEY, graphId)) {
-            LOGGER.debug(String.format("Graph %s was correctly saved with id %s", graph, graphId));
+            LOGGER.debug("Graph was correctly saved with id {}", graphId);
+            rememberSavedGraph(graphId);
+            graphSizeEstimates.record(graphId, graph.getEdges().size());
+            if (coldGraphTier.isEnabled()) {
+                coldGraphTier.touch(graphId);
+            }
+            // other instances have to learn about the graph, otherwise their filters or caches would report it as missing
+            if (announcesSaves()) {
+                vertexRedisTemplate.convertAndSend(GraphEventListener.GRAPH_SAVED_CHANNEL, graphId);
+            }
             return graphId;
         }
 
-        LOGGER.debug(String.format("Graph %s was not saved correctly", graph));
+        LOGGER.debug("Graph with id {} was not saved correctly", graphId);
         return null;
     }
 
+    // Writes all graphs (and their vertex sets) in a single pipeline, graphs are saved under the ids that are map keys
+    @SuppressWarnings("unchecked")
+    public void saveAll(Map<String, Graph<BigDecimal>> graphs) {
+        RedisSerializer<String> vertexKeySerializer = (RedisSerializer<String>) vertexRedisTemplate.getKeySerializer();
+        RedisSerializer<String> vertexValueSerializer = (RedisSerializer<String>) vertexRedisTemplate.getValueSerializer();
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        RedisSerializer<String> graphIdSerializer = (RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer();
+        RedisSerializer<Graph<BigDecimal>> graphSerializer = (RedisSerializer<Graph<BigDecimal>>) graphRedisTemplate.getHashValueSerializer();
+
+        byte[] rawGraphKey = graphKeySerializer.serialize(GRAPH_KEY);
+        byte[] rawSavedChannel = vertexKeySerializer.serialize(GraphEventListener.GRAPH_SAVED_CHANNEL);
+
+        long savedAt = System.currentTimeMillis();
+
+        LOGGER.debug("Method saveAll() tries to save {} graphs in a pipeline", graphs.size());
+        graphRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            graphs.forEach((graphId, graph) -> {
+                byte[][] rawVertexNames = graph.getVertexes()
+                        .stream()
+                        .map(vertex -> vertexValueSerializer.serialize(vertex.getName()))
+                        .toArray(byte[][]::new);
+
+                // redis does not accept SADD without members
+                if (rawVertexNames.length > 0) {
+                    connection.sAdd(vertexKeySerializer.serialize(graphId), rawVertexNames);
+                }
+                if (reachabilityIndexStore.isEnabled()) {
+                    reachabilityIndexStore.writeIndex(connection, graphId, ReachabilityIndex.build(graph));
+                }
+                Graph<BigDecimal> storedGraph = graph;
+                if (chunkedGraphStore.shouldChunk(graph)) {
+                    chunkedGraphStore.writeChunks(connection, graphId, graph);
+                    storedGraph = chunkedGraphStore.withoutEdges(graph);
+                }
+                graphIdSet.add(connection, graphId);
+                connection.hSet(rawGraphKey, graphIdSerializer.serialize(graphId), graphSerializer.serialize(storedGraph));
+                if (coldGraphTier.isEnabled()) {
+                    coldGraphTier.touch(connection, graphId, savedAt);
+                }
+                if (announcesSaves()) {
+                    connection.publish(rawSavedChannel, vertexValueSerializer.serialize(graphId));
+                }
+            });
+            return null;
+        });
+        graphs.forEach((graphId, graph) -> {
+            rememberSavedGraph(graphId);
+            graphSizeEstimates.record(graphId, graph.getEdges().size());
+        });
+    }
+
+    public Boolean exists(String id) {
+        if (coldGraphTier.isEnabled() && coldGraphTier.contains(id)) {
+            return true;
+        }
+        return graphOpsForHash.hasKey(GRAPH_KEY, id);
+    }
+
+    // Concurrent reads of the same graph share a single existence check, fetch and deserialization
     public Graph<BigDecimal> findById(String id) throws GraphNotFoundException {
-        if (!graphOpsForHash.hasKey(GRAPH_KEY, id)) {
-            String msg = String.format("Graph with id %s not found", id);
-            LOGGER.debug(msg);
-            throw new GraphNotFoundException(msg);
+        GraphOperationEvent event = GraphOperationEvent.start("findById", id);
+        Graph<BigDecimal> graph = null;
+        try {
+            graph = localGraphCache.get(id);
+            if (graph != null && coldGraphTier.isEnabled()) {
+                coldGraphTier.recordAccess(id);
+            }
+            if (graph == null) {
+                try {
+                    graph = graphReadCoalescer.read(id, () -> readGraphHedged(id));
+                } catch (RedisConnectionFailureException ex) {
+                    graph = findStaleCopy(id, ex);
+                }
+            }
+            return graph;
+        } finally {
+            if (event != null) {
+                event.finish(graph);
+            }
+        }
+    }
+
+    private Graph<BigDecimal> readGraph(String id) throws GraphNotFoundException {
+        long invalidationCount = localGraphCache.getInvalidationCount();
+        checkIfGraphExists(id);
+
+        LOGGER.debug("Graph with id {} found", id);
+        Graph<BigDecimal> graph = graphOpsForHash.get(GRAPH_KEY, id);
+        // the graph can be migrated to the cold tier or deleted between the check and the read
+        if (graph == null && coldGraphTier.isEnabled() && coldGraphTier.promote(id)) {
+            graph = graphOpsForHash.get(GRAPH_KEY, id);
         }
+        if (graph == null) {
+            LOGGER.debug("Graph with id {} disappeared before it was read", id);
+            throw new GraphNotFoundException("Graph with id " + id + " not found");
+        }
+
+        // only graphs stored without edges need the additional lookup of a manifest
+        if (chunkedGraphStore.mightBeChunked(graph)) {
+            ChunkedGraphStore.Manifest manifest = chunkedGraphStore.findManifest(id);
+            if (manifest != null) {
+                try {
+                    chunkedGraphStore.readChunks(id, manifest, graph);
+                } catch (IOException ex) {
+                    throw new SerializationException("Failed to read edges of graph with id " + id, ex);
+                }
+            }
+        }
+        graphSizeEstimates.record(id, graph.getEdges().size());
+        localGraphCache.put(id, graph, invalidationCount);
+        return graph;
+    }
+
+    // Reads without hedging do not allocate the reads for GraphReadHedger
+    private Graph<BigDecimal> readGraphHedged(String id) throws GraphNotFoundException {
+        if (!graphReadHedger.isEnabled()) {
+            return readGraph(id);
+        }
+        return graphReadHedger.read(id, () -> readGraph(id), () -> readHedgedGraph(id));
+    }
+
+    // Chunked graphs would need more reads from the hedge target, so they are left to the primary read. So are graphs
+    // deleted recently, which a lagging replica could still return
+    private Graph<BigDecimal> readHedgedGraph(String id) {
+        Graph<BigDecimal> graph = graphReadHedger.findOnHedgeTarget(id);
+        if (graph == null || chunkedGraphStore.mightBeChunked(graph) || graphReadHedger.mightBeDeleted(id)) {
+            return null;
+        }
+        return graph;
+    }
 
-        LOGGER.debug(String.format("Graph with id %s found", id));
-        return graphOpsForHash.get(GRAPH_KEY, id);
+    /*
+        Serves a copy of the graph from the local cache or the replica while Redis is unavailable (graphs.storage.degraded.enabled).
+        Graphs never change after they are saved, so a copy can only be stale by still existing after the graph was deleted.
+     */
+    private Graph<BigDecimal> findStaleCopy(String id, RedisConnectionFailureException failure) {
+        if (!graphReadHedger.isDegradedEnabled()) {
+            throw failure;
+        }
+        Graph<BigDecimal> graph = localGraphCache.get(id);
+        // cached graphs are complete, a replicated one could be missing the edges stored in chunks
+        if (graph == null) {
+            graph = graphReadHedger.findOnReplica(id);
+            if (graph != null && chunkedGraphStore.mightBeChunked(graph)) {
+                graph = null;
+            }
+        }
+        if (graph == null) {
+            throw failure;
+        }
+        graphReadHedger.recordStaleRead();
+        LOGGER.debug("Redis is unavailable, serving a stale copy of a graph with id {}", id);
+        return graph;
+    }
+
+    // Answers from the reachability index when the graph has one, otherwise the loaded graph is searched from the source
+    public boolean isReachable(String id, String from, String to) throws GraphNotFoundException {
+        try {
+            checkIfGraphExists(id);
+
+            if (reachabilityIndexStore.isEnabled()) {
+                Boolean reachable = reachabilityIndexStore.isReachable(id, from, to);
+                if (reachable != null) {
+                    return reachable;
+                }
+            }
+        } catch (RedisConnectionFailureException ex) {
+            return ReachabilityIndex.searchGraph(findStaleCopy(id, ex), from, to);
+        }
+        LOGGER.debug("Graph with id {} has no reachability index", id);
+        return ReachabilityIndex.searchGraph(findById(id), from, to);
+    }
+
+    /*
+        Removes the graph, its vertex set and its chunks in a single pipeline. The graph disappears from DirectedGraph
+        first, other values are reclaimed by UNLINK in the background, so that removing a large graph does not block
+        Redis. Other instances drop the graph from their local structures when they receive the invalidation.
+     */
+    @SuppressWarnings("unchecked")
+    public void deleteById(String id) throws GraphNotFoundException {
+        // a cold graph is only removed from the index of the tier, promoting it would copy it back to Redis first
+        boolean cold = coldGraphTier.isEnabled() && coldGraphTier.contains(id);
+        if (!cold) {
+            checkIfGraphExists(id);
+        }
+
+        RedisSerializer<String> vertexKeySerializer = (RedisSerializer<String>) vertexRedisTemplate.getKeySerializer();
+        RedisSerializer<String> vertexValueSerializer = (RedisSerializer<String>) vertexRedisTemplate.getValueSerializer();
+        RedisSerializer<Object> graphKeySerializer = (RedisSerializer<Object>) graphRedisTemplate.getKeySerializer();
+        RedisSerializer<String> graphIdSerializer = (RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer();
+
+        byte[] rawGraphKey = graphKeySerializer.serialize(GRAPH_KEY);
+        byte[] rawInvalidatedChannel = vertexKeySerializer.serialize(GraphEventListener.GRAPH_INVALIDATED_CHANNEL);
+        ChunkedGraphStore.Manifest manifest = chunkedGraphStore.findManifest(id);
+
+        LOGGER.debug("Method deleteById() tries to delete graph with id {}", id);
+        List<Object> results = graphRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // HDEL from DirectedGraph comes first and HDEL from the index second, their results are checked below
+            connection.hDel(rawGraphKey, graphIdSerializer.serialize(id));
+            if (coldGraphTier.isEnabled()) {
+                coldGraphTier.forget(connection, id);
+            }
+            connection.unlink(vertexKeySerializer.serialize(id));
+            if (manifest != null) {
+                chunkedGraphStore.unlinkChunks(connection, id, manifest);
+            }
+            // the index could have been written while indexes were enabled
+            reachabilityIndexStore.unlinkIndex(connection, id);
+            connection.publish(rawInvalidatedChannel, vertexValueSerializer.serialize(id));
+            graphIdSet.remove(connection, id);
+            return null;
+        });
+        forgetDeletedGraph(id);
+
+        // the graph could have been removed by another request after the existence check. It is deleted when it was
+        // in DirectedGraph or in the index of the tier (it could have been promoted or migrated in the meantime)
+        boolean deleted = Long.valueOf(1L).equals(results.get(0))
+                || (coldGraphTier.isEnabled() && Long.valueOf(1L).equals(results.get(1)));
+        if (!deleted) {
+            LOGGER.debug("Graph with id {} was already deleted", id);
+            throw new GraphNotFoundException("Graph with id " + id + " not found");
+        }
+        LOGGER.debug("Graph with id {} deleted", id);
+    }
+
+    // Ids are never reused, so a deleted graph can be remembered as missing
+    private void forgetDeletedGraph(String graphId) {
+        localGraphCache.invalidate(graphId);
+        graphReadHedger.recordDeletion(graphId);
+        graphSizeEstimates.remove(graphId);
+        negativeGraphCache.add(graphId);
+    }
+
+    // Returns the graph as it is stored in Redis, without deserializing it
+    @SuppressWarnings("unchecked")
+    public byte[] findSerializedById(String id) throws GraphNotFoundException {
+        checkIfGraphExists(id);
+
+        byte[] rawGraphKey = ((RedisSerializer<Object>) graphRedisTemplate.getKeySerializer()).serialize(GRAPH_KEY);
+        byte[] rawId = ((RedisSerializer<String>) graphRedisTemplate.getHashKeySerializer()).serialize(id);
+        byte[] serializedGraph = graphRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.hGet(rawGraphKey, rawId));
+
+        // the graph could have been removed after the existence check
+        if (serializedGraph == null) {
+            throw new GraphNotFoundException("Graph with id " + id + " not found");
+        }
+        return serializedGraph;
+    }
+
+    // Passes serialized chunks of edges of a chunked graph to the consumer, does nothing if the graph is not chunked
+    public void forEachSerializedEdgeChunk(String id, ChunkedGraphStore.ChunkConsumer consumer) throws IOException {
+        ChunkedGraphStore.Manifest manifest = chunkedGraphStore.findManifest(id);
+        if (manifest != null) {
+            chunkedGraphStore.forEachChunk(id, manifest, consumer);
+        }
     }
 
 
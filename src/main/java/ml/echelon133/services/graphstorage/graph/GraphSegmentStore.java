@@ -0,0 +1,270 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+    Append-only segment files of the cold tier (see ColdGraphTier). Every record is a 4 byte length followed by
+    a serialized graph, records are never modified or removed. A segment is closed when the next record would make it
+    larger than maxSegmentBytes. Appends hold an exclusive file lock on the segment and take the offset from its current
+    size, so records of two writers never overlap.
+
+    Segments are read through memory mappings, a read returns a view of the mapped file instead of a copy.
+
+    Records of promoted and deleted graphs are dead. ColdGraphMigrator copies live records of mostly dead segments
+    to the active segment and marks the old segment with a "segment-N.compacted" file. Marked segments are deleted
+    by a later cycle (see deleteCompacted), instances drop their mappings of deleted segments in dropDeletedMappings.
+ */
+@Component
+public class GraphSegmentStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphSegmentStore.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    static final int HEADER_BYTES = 4;
+
+    // Position of a serialized graph, stored as "segment:offset:length"
+    public static class Location {
+        private int segment;
+        private long offset;
+        private int length;
+
+        public Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static Location parse(String value) {
+            String[] parts = value.split(":");
+            return new Location(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+        }
+
+        String format() {
+            return segment + ":" + offset + ":" + length;
+        }
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private Path directory;
+    private long maxSegmentBytes;
+
+    private FileChannel activeChannel;
+    private int activeSegment;
+    private long activeSize;
+
+    private Map<Integer, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+
+    @Autowired
+    public GraphSegmentStore(@Value("${graphs.storage.tier.directory:cold-graphs}") String directory,
+                             @Value("${graphs.storage.tier.maxSegmentBytes:268435456}") Long maxSegmentBytes) {
+        // a single mapping cannot be larger than 2GB
+        if (maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("graphs.storage.tier.maxSegmentBytes cannot be larger than " + Integer.MAX_VALUE);
+        }
+        this.directory = Paths.get(directory);
+        this.maxSegmentBytes = maxSegmentBytes;
+        LOGGER.info(String.format("Instantiated GraphSegmentStore (directory: %s, maxSegmentBytes: %d)", directory, maxSegmentBytes));
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        release();
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private Path compactedPath(int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, COMPACTED_SUFFIX));
+    }
+
+    private static boolean hasSuffix(Path path, String suffix) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix);
+    }
+
+    private static int segmentNumber(Path path, String suffix) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length()));
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> hasSuffix(path, suffix)).collect(Collectors.toList());
+        }
+    }
+
+    public synchronized Location append(byte[] serializedGraph) throws IOException {
+        if (activeChannel == null) {
+            openLastSegment();
+        }
+        while (true) {
+            // the lock keeps records of another instance from overlapping with this one, whatever happens to the lock in Redis
+            try (FileLock lock = activeChannel.lock()) {
+                activeSize = activeChannel.size();
+                if (activeSize == 0 || activeSize + HEADER_BYTES + serializedGraph.length <= maxSegmentBytes) {
+                    long offset = activeSize;
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(serializedGraph.length);
+                    header.flip();
+                    writeFully(header, offset);
+                    writeFully(ByteBuffer.wrap(serializedGraph), offset + HEADER_BYTES);
+                    activeSize += HEADER_BYTES + serializedGraph.length;
+                    return new Location(activeSegment, offset + HEADER_BYTES, serializedGraph.length);
+                }
+            }
+            openSegment(activeSegment + 1);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += activeChannel.write(buffer, position);
+        }
+    }
+
+    // Makes appended records durable, has to be called before graphs are removed from Redis
+    public synchronized void sync() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.force(false);
+        }
+    }
+
+    // Closes the active segment. The next append continues in the last segment of the directory, which could have been
+    // written by another instance in the meantime
+    public synchronized void release() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+            activeChannel = null;
+        }
+    }
+
+    private void openLastSegment() throws IOException {
+        Files.createDirectories(directory);
+        int lastSegment = list(SEGMENT_SUFFIX).stream()
+                .mapToInt(path -> segmentNumber(path, SEGMENT_SUFFIX))
+                .max()
+                .orElse(0);
+        openSegment(lastSegment);
+    }
+
+    private void openSegment(int segment) throws IOException {
+        release();
+        activeChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSegment = segment;
+        activeSize = activeChannel.size();
+        LOGGER.debug("Appending to segment {} of size {}", segment, activeSize);
+    }
+
+    // Returns a read-only view of the serialized graph, backed by the mapped segment
+    public ByteBuffer read(Location location) throws IOException {
+        MappedByteBuffer mapped = mappedSegments.get(location.getSegment());
+        // the last segment grows, it is mapped again when a record lies past the end of the current mapping
+        if (mapped == null || mapped.capacity() < location.getOffset() + location.getLength()) {
+            mapped = map(location.getSegment());
+        }
+
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) location.getOffset());
+        view.limit((int) location.getOffset() + location.getLength());
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mappedSegments.put(segment, mapped);
+            return mapped;
+        }
+    }
+
+    // Sizes of all segments in bytes, by segment number
+    public SortedMap<Integer, Long> segmentSizes() throws IOException {
+        SortedMap<Integer, Long> sizes = new TreeMap<>();
+        for (Path path : list(SEGMENT_SUFFIX)) {
+            sizes.put(segmentNumber(path, SEGMENT_SUFFIX), Files.size(path));
+        }
+        return sizes;
+    }
+
+    public boolean isCompacted(int segment) {
+        return Files.exists(compactedPath(segment));
+    }
+
+    // Marks a segment whose live records were copied to another segment, it is deleted by a later deleteCompacted
+    public void markCompacted(int segment) throws IOException {
+        if (!isCompacted(segment)) {
+            Files.createFile(compactedPath(segment));
+        }
+    }
+
+    /*
+        Deletes segments that were marked at least graceMillis ago and returns the number of reclaimed bytes.
+        A request that read a location from the index just before its record was copied can still read the old
+        segment until then.
+     */
+    public long deleteCompacted(long graceMillis) throws IOException {
+        long deleteBefore = System.currentTimeMillis() - graceMillis;
+        long reclaimed = 0;
+        for (Path marker : list(COMPACTED_SUFFIX)) {
+            if (Files.getLastModifiedTime(marker).toMillis() > deleteBefore) {
+                continue;
+            }
+            int segment = segmentNumber(marker, COMPACTED_SUFFIX);
+            Path segmentPath = segmentPath(segment);
+            if (Files.exists(segmentPath)) {
+                reclaimed += Files.size(segmentPath);
+                Files.delete(segmentPath);
+            }
+            mappedSegments.remove(segment);
+            Files.delete(marker);
+            LOGGER.debug("Deleted compacted segment {}", segment);
+        }
+        return reclaimed;
+    }
+
+    // Mappings keep disk space of deleted segments allocated, they are dropped so that it can be reclaimed
+    public void dropDeletedMappings() {
+        mappedSegments.keySet().removeIf(segment -> !Files.exists(segmentPath(segment)));
+    }
+}
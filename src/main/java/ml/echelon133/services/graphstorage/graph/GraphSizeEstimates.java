@@ -0,0 +1,63 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Edge counts of recently saved or read graphs. AdmissionController uses them to estimate the cost of reading
+    a graph before it is read, without asking Redis.
+
+    Every read and save records an edge count, so the estimates are kept in a ConcurrentHashMap instead of a
+    synchronized LRU map. The bound is approximate: once maxSize is reached, arbitrary graphs are forgotten to make
+    room for new ones, a forgotten graph only loses its estimate until it is read again.
+ */
+@Component
+public class GraphSizeEstimates {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphSizeEstimates.class);
+
+    private Map<String, Integer> edgeCounts = new ConcurrentHashMap<>();
+    private int maxSize;
+
+    @Autowired
+    public GraphSizeEstimates(@Value("${graphs.storage.admission.sizeEstimates:100000}") Integer maxSize) {
+        this.maxSize = maxSize;
+        LOGGER.info(String.format("Instantiated GraphSizeEstimates (maxSize: %d)", maxSize));
+    }
+
+    // Graphs never change after they are saved (they can only be deleted), so a known edge count is never replaced
+    public void record(String graphId, int edgeCount) {
+        // most calls are for graphs that are already known, a plain lookup does not lock anything
+        if (edgeCounts.containsKey(graphId)) {
+            return;
+        }
+        if (edgeCounts.putIfAbsent(graphId, edgeCount) == null && edgeCounts.size() > maxSize) {
+            evict();
+        }
+    }
+
+    // Concurrent writers can evict at the same time, so the map can briefly hold a few graphs more than maxSize
+    private void evict() {
+        Iterator<String> graphIds = edgeCounts.keySet().iterator();
+        while (edgeCounts.size() > maxSize && graphIds.hasNext()) {
+            graphIds.next();
+            graphIds.remove();
+        }
+    }
+
+    public void remove(String graphId) {
+        edgeCounts.remove(graphId);
+    }
+
+    // Returns null when the size of the graph is not known
+    public Integer getEdgeCount(String graphId) {
+        return edgeCounts.get(graphId);
+    }
+}
@@ -0,0 +1,222 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.config.RedisGraphSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Warm-up that runs before the instance starts receiving traffic (graphs.storage.warmup.enabled):
+        SERIALIZATION - (de)serializes synthetic graphs, so that the JIT compiles the hot paths of graph serialization
+        CONNECTIONS   - opens pooled Redis connections, so that first requests do not pay for connecting
+        PRELOAD       - reads the most read graphs (see GraphPopularityTracker) into LocalGraphCache
+
+    The instance registers in Eureka as STARTING (eureka.instance.initial-status in bootstrap.yml) and is switched
+    to UP only after the warm-up ends. A failed warm-up is logged and the instance is switched to UP anyway.
+ */
+@Component
+public class GraphStorageWarmUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphStorageWarmUp.class);
+
+    public enum Phase {
+        PENDING, SERIALIZATION, CONNECTIONS, PRELOAD, DONE
+    }
+
+    private ObjectMapper oMapper;
+    private RedisConnectionFactory redisConnectionFactory;
+    private GraphRepository graphRepository;
+    private GraphPopularityTracker graphPopularityTracker;
+    private ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+
+    private boolean enabled;
+    private int serializationRounds;
+    private int syntheticEdges;
+    private int connections;
+    private int preloadGraphs;
+
+    private volatile Phase phase = Phase.PENDING;
+    private volatile int completedRounds;
+    private volatile int openedConnections;
+    private volatile int preloadedGraphs;
+    private volatile String failure;
+
+    @Autowired
+    public GraphStorageWarmUp(ObjectMapper oMapper,
+                              RedisConnectionFactory redisConnectionFactory,
+                              GraphRepository graphRepository,
+                              GraphPopularityTracker graphPopularityTracker,
+                              ObjectProvider<ApplicationInfoManager> applicationInfoManager,
+                              @Value("${graphs.storage.warmup.enabled:true}") Boolean enabled,
+                              @Value("${graphs.storage.warmup.serializationRounds:200}") Integer serializationRounds,
+                              @Value("${graphs.storage.warmup.syntheticEdges:1000}") Integer syntheticEdges,
+                              @Value("${graphs.storage.warmup.connections:4}") Integer connections,
+                              @Value("${graphs.storage.warmup.preloadGraphs:0}") Integer preloadGraphs) {
+        this.oMapper = oMapper;
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.graphRepository = graphRepository;
+        this.graphPopularityTracker = graphPopularityTracker;
+        this.applicationInfoManager = applicationInfoManager;
+        this.enabled = enabled;
+        this.serializationRounds = serializationRounds;
+        this.syntheticEdges = syntheticEdges;
+        this.connections = connections;
+        this.preloadGraphs = preloadGraphs;
+        LOGGER.info(String.format("Instantiated GraphStorageWarmUp (enabled: %s, serializationRounds: %d, syntheticEdges: %d, connections: %d, preloadGraphs: %d)",
+                enabled, serializationRounds, syntheticEdges, connections, preloadGraphs));
+    }
+
+    // Runs after the listeners that fill GraphIdSet and GraphIdFilter, which have a higher precedence than the default
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            if (enabled) {
+                LOGGER.info("Started warm-up");
+                exerciseSerialization();
+                openConnections();
+                preloadGraphs();
+            }
+        } catch (RuntimeException ex) {
+            failure = ex.getMessage();
+            LOGGER.warn(String.format("Warm-up failed in phase %s: %s", phase, ex.getMessage()));
+        } finally {
+            phase = Phase.DONE;
+            LOGGER.info(String.format("Finished warm-up in %d ms", System.currentTimeMillis() - start));
+            // there is no ApplicationInfoManager when the Eureka client is disabled
+            ApplicationInfoManager manager = applicationInfoManager.getIfAvailable();
+            if (manager != null) {
+                manager.setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+            }
+        }
+    }
+
+    private void exerciseSerialization() {
+        phase = Phase.SERIALIZATION;
+        RedisGraphSerializer serializer = new RedisGraphSerializer(oMapper);
+        Graph<BigDecimal> graph = syntheticGraph(syntheticEdges);
+
+        for (int i = 0; i < serializationRounds; i++) {
+            Graph<BigDecimal> deserialized = serializer.deserialize(serializer.serialize(graph));
+            if (deserialized.getEdges().size() != syntheticEdges) {
+                throw new IllegalStateException("Synthetic graph was not deserialized correctly");
+            }
+            completedRounds = i + 1;
+        }
+    }
+
+    static Graph<BigDecimal> syntheticGraph(int edgeCount) {
+        int vertexCount = Math.max(1, edgeCount / 10);
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        List<Vertex<BigDecimal>> vertexes = new ArrayList<>(vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            Vertex<BigDecimal> vertex = new Vertex<>("vertex" + i);
+            graph.addVertex(vertex);
+            vertexes.add(vertex);
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(vertexes.get(i % vertexCount), vertexes.get((i * 7 + 1) % vertexCount), new BigDecimal(i).movePointLeft(2));
+        }
+        return graph;
+    }
+
+    // Connections are held at the same time, otherwise the pool would hand out the same connection every time
+    private void openConnections() {
+        phase = Phase.CONNECTIONS;
+        int connectionsToOpen = maxConnectionsToOpen();
+        List<RedisConnection> opened = new ArrayList<>(connectionsToOpen);
+        try {
+            for (int i = 0; i < connectionsToOpen; i++) {
+                RedisConnection connection = redisConnectionFactory.getConnection();
+                opened.add(connection);
+                connection.ping();
+                openedConnections = i + 1;
+            }
+        } finally {
+            opened.forEach(RedisConnection::close);
+        }
+    }
+
+    /*
+        Borrowing more connections than the pool allows would block forever. One connection of the pool is
+        held by RedisMessageListenerContainer, and connections above maxIdle would be closed when returned.
+     */
+    private int maxConnectionsToOpen() {
+        if (redisConnectionFactory instanceof JedisConnectionFactory) {
+            JedisConnectionFactory jedisConnectionFactory = (JedisConnectionFactory) redisConnectionFactory;
+            if (jedisConnectionFactory.getUsePool() && jedisConnectionFactory.getPoolConfig() != null) {
+                int poolLimit = Math.min(jedisConnectionFactory.getPoolConfig().getMaxTotal() - 1,
+                        jedisConnectionFactory.getPoolConfig().getMaxIdle());
+                return Math.max(0, Math.min(connections, poolLimit));
+            }
+        }
+        return connections;
+    }
+
+    private void preloadGraphs() {
+        phase = Phase.PRELOAD;
+        if (preloadGraphs <= 0 || !graphPopularityTracker.isEnabled()) {
+            return;
+        }
+
+        Set<String> graphIds = graphPopularityTracker.findMostRead(preloadGraphs);
+        for (String graphId : graphIds) {
+            try {
+                graphRepository.findById(graphId);
+                preloadedGraphs++;
+            } catch (GraphNotFoundException ex) {
+                LOGGER.debug("Graph with id {} was not preloaded, because it no longer exists", graphId);
+            }
+        }
+    }
+
+    public boolean isDone() {
+        return phase == Phase.DONE;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getCompletedRounds() {
+        return completedRounds;
+    }
+
+    public int getSerializationRounds() {
+        return serializationRounds;
+    }
+
+    public int getOpenedConnections() {
+        return openedConnections;
+    }
+
+    public int getPreloadedGraphs() {
+        return preloadedGraphs;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,121 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+    Writes a stored graph as NDJSON, every vertex and every edge in a separate line:
+        {"type":"vertex","name":"v1"}
+        {"type":"edge","source":"v1","destination":"v2","weight":5}
+
+    Lines are copied token by token from the JSON stored in Redis, so no Graph object is built and memory
+    used per request does not depend on the number of vertexes and edges. Weights are copied as text,
+    which keeps the precision of BigDecimal values.
+ */
+public class GraphStreamWriter {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonGenerator generator;
+
+    private long vertexCount;
+    private long edgeCount;
+
+    public GraphStreamWriter(OutputStream outputStream) throws IOException {
+        this.generator = JSON_FACTORY.createGenerator(outputStream);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // lines are separated by the writer itself
+        this.generator.setRootValueSeparator(null);
+    }
+
+    // Writes vertexes and edges of a graph serialized by GraphSerializer
+    public void writeStoredGraph(byte[] storedGraph) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(storedGraph)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Stored graph is not an object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "vertexes":
+                        writeVertexes(parser);
+                        break;
+                    case "edges":
+                        writeEdges(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        flush();
+    }
+
+    // Writes edges of a chunk stored by ChunkedGraphStore
+    public void writeEdgeChunk(byte[] chunk) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(chunk)) {
+            parser.nextToken();
+            writeEdges(parser);
+        }
+        flush();
+    }
+
+    private void writeVertexes(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "vertex");
+            generator.writeStringField("name", parser.getText());
+            endLine();
+            vertexCount++;
+        }
+    }
+
+    private void writeEdges(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Edges are not stored as an array");
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "edge");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                generator.writeFieldName(parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (value.isNumeric()) {
+                    generator.writeNumber(parser.getText());
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            endLine();
+            edgeCount++;
+        }
+    }
+
+    private void endLine() throws IOException {
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    // Sends everything written so far to the client, so that it does not wait for the whole graph
+    private void flush() throws IOException {
+        generator.flush();
+    }
+
+    public long getVertexCount() {
+        return vertexCount;
+    }
+
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+}
@@ -0,0 +1,8 @@
+package ml.echelon133.services.graphstorage.graph;
+
+public class GraphWritePendingException extends Exception {
+
+    public GraphWritePendingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,219 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Write-behind queue used when async ingestion is enabled (graphs.storage.async.enabled).
+    Graphs that passed validation get their id immediately and are saved later by a pool of workers,
+    which drain the queue in batches and write each batch with a single Redis pipeline.
+
+    Ids of queued and in-flight writes are kept until they are written, there are never more of them than the capacity
+    of the queue plus a batch per worker. Only the most recent failures are remembered.
+ */
+@Component
+public class GraphWriteQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphWriteQueue.class);
+
+    public enum WriteStatus {
+        PENDING, FAILED, STORED
+    }
+
+    private static class PendingWrite {
+        private String id;
+        private Graph<BigDecimal> graph;
+
+        PendingWrite(String id, Graph<BigDecimal> graph) {
+            this.id = id;
+            this.graph = graph;
+        }
+    }
+
+    private GraphRepository graphRepository;
+
+    private boolean enabled;
+    private int workerCount;
+    private int batchSize;
+
+    private BlockingQueue<PendingWrite> queue;
+    private Set<String> pendingWrites = ConcurrentHashMap.newKeySet();
+    private Set<String> failedWrites;
+    private ExecutorService workers;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    private Counter acceptedCounter;
+    private Counter rejectedCounter;
+    private Counter writtenCounter;
+    private Counter failedCounter;
+    private Timer batchTimer;
+
+    @Autowired
+    public GraphWriteQueue(GraphRepository graphRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${graphs.storage.async.enabled:false}") Boolean enabled,
+                           @Value("${graphs.storage.async.queueCapacity:1000}") Integer queueCapacity,
+                           @Value("${graphs.storage.async.workers:2}") Integer workerCount,
+                           @Value("${graphs.storage.async.batchSize:50}") Integer batchSize) {
+
+        this.graphRepository = graphRepository;
+        this.enabled = enabled;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        // failed writes are never retried, so only the most recent ones are kept
+        this.failedWrites = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > queueCapacity * 2;
+            }
+        }));
+
+        Gauge.builder("graphs.storage.async.queue.depth", queue, BlockingQueue::size)
+                .description("Number of graphs waiting to be written to Redis")
+                .register(meterRegistry);
+        this.acceptedCounter = meterRegistry.counter("graphs.storage.async.accepted");
+        this.rejectedCounter = meterRegistry.counter("graphs.storage.async.rejected");
+        this.writtenCounter = meterRegistry.counter("graphs.storage.async.written");
+        this.failedCounter = meterRegistry.counter("graphs.storage.async.failed");
+        this.batchTimer = meterRegistry.timer("graphs.storage.async.batch");
+
+        LOGGER.info(String.format("Instantiated GraphWriteQueue (enabled: %s, capacity: %d, workers: %d, batchSize: %d)",
+                enabled, queueCapacity, workerCount, batchSize));
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    void start() {
+        running = true;
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "graph-write-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            workers.submit(this::drain);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        stopped = true;
+        running = false;
+        if (workers != null) {
+            workers.shutdown();
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn(String.format("GraphWriteQueue stopped with %d graphs still waiting to be written", queue.size()));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String submit(Graph<BigDecimal> graph) throws WriteQueueFullException {
+        if (stopped) {
+            rejectedCounter.increment();
+            throw new WriteQueueFullException("The service is shutting down. Try again later");
+        }
+        String graphId = UUID.randomUUID().toString();
+
+        // the status has to be visible before any worker can take the write from the queue
+        pendingWrites.add(graphId);
+        PendingWrite pendingWrite = new PendingWrite(graphId, graph);
+        if (!queue.offer(pendingWrite)) {
+            pendingWrites.remove(graphId);
+            rejectedCounter.increment();
+            throw new WriteQueueFullException("Too many graphs are waiting to be saved. Try again later");
+        }
+        // workers that stopped after the check above would never write the graph
+        if (stopped && queue.remove(pendingWrite)) {
+            pendingWrites.remove(graphId);
+            rejectedCounter.increment();
+            throw new WriteQueueFullException("The service is shutting down. Try again later");
+        }
+
+        acceptedCounter.increment();
+        LOGGER.debug("Graph with id {} queued for saving", graphId);
+        return graphId;
+    }
+
+    // Returns null when the write of the graph is not tracked by the queue (it was saved, never submitted or failed long ago)
+    public WriteStatus getWriteStatus(String graphId) {
+        if (pendingWrites.contains(graphId)) {
+            return WriteStatus.PENDING;
+        }
+        return failedWrites.contains(graphId) ? WriteStatus.FAILED : null;
+    }
+
+    // Removes a write that no worker has taken yet, returns false when the graph is not queued (e.g. it is being written)
+    public boolean cancel(String graphId) {
+        if (queue.removeIf(pendingWrite -> pendingWrite.id.equals(graphId))) {
+            pendingWrites.remove(graphId);
+            LOGGER.debug("Write of a graph with id {} cancelled", graphId);
+            return true;
+        }
+        return false;
+    }
+
+    private void drain() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+
+        // after stop() workers keep draining until the queue is empty
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        Map<String, Graph<BigDecimal>> graphs = new LinkedHashMap<>();
+        batch.forEach(pendingWrite -> graphs.put(pendingWrite.id, pendingWrite.graph));
+
+        try {
+            batchTimer.record(() -> graphRepository.saveAll(graphs));
+            graphs.keySet().forEach(pendingWrites::remove);
+            writtenCounter.increment(graphs.size());
+            LOGGER.debug("Saved a batch of {} graphs", graphs.size());
+        } catch (RuntimeException ex) {
+            // a failure is recorded before the write stops being pending, so that its status never reads as saved
+            failedWrites.addAll(graphs.keySet());
+            graphs.keySet().forEach(pendingWrites::remove);
+            failedCounter.increment(graphs.size());
+            LOGGER.error(String.format("Failed to save a batch of %d graphs", graphs.size()), ex);
+        }
+    }
+}
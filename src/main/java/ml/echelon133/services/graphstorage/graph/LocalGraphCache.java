@@ -0,0 +1,148 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    In-process cache of recently read graphs (graphs.storage.localCache.maxGraphs, disabled when 0).
+    Graphs never change after they are saved, so a cached graph only has to be dropped when the graph is deleted
+    (locally or by another instance, see GraphEventListener). Only graphs with at most maxEdgesPerGraph edges are
+    cached, so that a few huge graphs cannot take over the heap.
+
+    Cached graphs are shared by all requests, so returned graphs must not be modified.
+
+    Reads do not take a lock, they only stamp the entry with the time of its access. When the cache is full, a put
+    evicts the least recently used of EVICTION_SAMPLES entries taken by a cursor that sweeps the whole map, so that
+    eviction is close to LRU without ordering entries on every read. Caches of fewer than EVICTION_SAMPLES graphs
+    are exact LRU.
+ */
+@Component
+public class LocalGraphCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalGraphCache.class);
+
+    private static final int EVICTION_SAMPLES = 8;
+
+    private static class CachedGraph {
+        private Graph<BigDecimal> graph;
+        private volatile long lastAccess;
+
+        CachedGraph(Graph<BigDecimal> graph, long lastAccess) {
+            this.graph = graph;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private int maxGraphs;
+    private int maxEdgesPerGraph;
+    private Map<String, CachedGraph> graphs = new ConcurrentHashMap<>();
+    private AtomicLong accessClock = new AtomicLong();
+    // incremented by every invalidation, so that a read that started before an invalidation does not cache its graph
+    private AtomicLong invalidationCount = new AtomicLong();
+    // guarded by this, only puts into a full cache take the lock
+    private Iterator<Map.Entry<String, CachedGraph>> evictionCursor;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @Autowired
+    public LocalGraphCache(MeterRegistry meterRegistry,
+                           @Value("${graphs.storage.localCache.maxGraphs:0}") Integer maxGraphs,
+                           @Value("${graphs.storage.localCache.maxEdgesPerGraph:10000}") Integer maxEdgesPerGraph) {
+        this.maxGraphs = maxGraphs;
+        this.maxEdgesPerGraph = maxEdgesPerGraph;
+        this.hitCounter = meterRegistry.counter("graphs.storage.localCache.hits");
+        this.missCounter = meterRegistry.counter("graphs.storage.localCache.misses");
+        LOGGER.info(String.format("Instantiated LocalGraphCache (maxGraphs: %d, maxEdgesPerGraph: %d)", maxGraphs, maxEdgesPerGraph));
+    }
+
+    public boolean isEnabled() {
+        return maxGraphs > 0;
+    }
+
+    // Returns null when the graph is not cached
+    public Graph<BigDecimal> get(String graphId) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        CachedGraph cachedGraph = graphs.get(graphId);
+        if (cachedGraph == null) {
+            missCounter.increment();
+            return null;
+        }
+        cachedGraph.lastAccess = accessClock.incrementAndGet();
+        hitCounter.increment();
+        return cachedGraph.graph;
+    }
+
+    public void put(String graphId, Graph<BigDecimal> graph) {
+        put(graphId, graph, invalidationCount.get());
+    }
+
+    // The graph is not cached if any graph was invalidated after invalidationCountBeforeRead was taken
+    public void put(String graphId, Graph<BigDecimal> graph, long invalidationCountBeforeRead) {
+        if (!isEnabled() || graph.getEdges().size() > maxEdgesPerGraph || invalidationCount.get() != invalidationCountBeforeRead) {
+            return;
+        }
+
+        CachedGraph cachedGraph = new CachedGraph(graph, accessClock.incrementAndGet());
+        graphs.put(graphId, cachedGraph);
+        // an invalidation between the check above and the put would otherwise leave the graph cached
+        if (invalidationCount.get() != invalidationCountBeforeRead) {
+            graphs.remove(graphId, cachedGraph);
+            return;
+        }
+        if (graphs.size() > maxGraphs) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        while (graphs.size() > maxGraphs) {
+            Map.Entry<String, CachedGraph> oldest = null;
+            int samples = Math.min(EVICTION_SAMPLES, graphs.size());
+            for (int i = 0; i < samples; i++) {
+                if (evictionCursor == null || !evictionCursor.hasNext()) {
+                    evictionCursor = graphs.entrySet().iterator();
+                    if (!evictionCursor.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, CachedGraph> sampled = evictionCursor.next();
+                if (oldest == null || sampled.getValue().lastAccess < oldest.getValue().lastAccess) {
+                    oldest = sampled;
+                }
+            }
+            graphs.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public void invalidate(String graphId) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidationCount.incrementAndGet();
+        graphs.remove(graphId);
+    }
+
+    public int size() {
+        return graphs.size();
+    }
+}
@@ -0,0 +1,87 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Short-lived cache of ids that were recently looked up in Redis and not found.
+    Clients that poll for a graph that does not exist are answered without a round trip until the entry expires.
+ */
+@Component
+public class NegativeGraphCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegativeGraphCache.class);
+
+    private long ttlMillis;
+    private int maxSize;
+
+    private Map<String, Long> expirationTimes = new ConcurrentHashMap<>();
+    // incremented by every removal, so that a lookup that started before a graph was saved does not cache its miss
+    private AtomicLong removalCount = new AtomicLong();
+
+    @Autowired
+    public NegativeGraphCache(@Value("${graphs.storage.negativeCache.ttlMillis:0}") Long ttlMillis,
+                              @Value("${graphs.storage.negativeCache.maxSize:10000}") Integer maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        LOGGER.info(String.format("Instantiated NegativeGraphCache (ttl: %d ms, maxSize: %d)", ttlMillis, maxSize));
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    public boolean contains(String graphId) {
+        Long expirationTime = expirationTimes.get(graphId);
+        if (expirationTime == null) {
+            return false;
+        }
+        if (expirationTime < System.currentTimeMillis()) {
+            expirationTimes.remove(graphId, expirationTime);
+            return false;
+        }
+        return true;
+    }
+
+    public void add(String graphId) {
+        add(graphId, removalCount.get());
+    }
+
+    // The miss is not cached if any graph was saved after removalCountBeforeLookup was taken
+    public void add(String graphId, long removalCountBeforeLookup) {
+        if (ttlMillis <= 0 || removalCount.get() != removalCountBeforeLookup) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (expirationTimes.size() >= maxSize) {
+            expirationTimes.values().removeIf(expirationTime -> expirationTime < now);
+            // when everything is still fresh, new entries are not cached at all
+            if (expirationTimes.size() >= maxSize) {
+                return;
+            }
+        }
+        Long expirationTime = now + ttlMillis;
+        expirationTimes.put(graphId, expirationTime);
+        // a save between the check above and the put would otherwise leave the miss cached
+        if (removalCount.get() != removalCountBeforeLookup) {
+            expirationTimes.remove(graphId, expirationTime);
+        }
+    }
+
+    public long getRemovalCount() {
+        return removalCount.get();
+    }
+
+    public void remove(String graphId) {
+        removalCount.incrementAndGet();
+        expirationTimes.remove(graphId);
+    }
+}
@@ -0,0 +1,413 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Edge;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Reachability index of a graph: its strongly connected components and labels of the condensation DAG
+    (the graph of components).
+
+    Components are numbered in the order in which Tarjan's algorithm finishes them, so a component can only reach
+    components with lower numbers. Every component is labeled by a depth-first traversal of the DAG:
+        post     - its post-order number
+        treeLow  - the lowest post-order number in its subtree of the traversal, components with post in
+                   [treeLow, post] are certainly reachable
+        reachLow - the lowest post-order number among all its descendants, a component with post outside of
+                   [reachLow, post] (or with a lower reachLow) is certainly not reachable
+    Most queries are answered by these labels alone, the others search the DAG from the source component, skipping
+    components that the labels rule out.
+ */
+public class ReachabilityIndex {
+
+    public static class ComponentLabel {
+        private int component;
+        private int treeLow;
+        private int post;
+        private int reachLow;
+        private int[] successors;
+
+        public ComponentLabel(int component, int treeLow, int post, int reachLow, int[] successors) {
+            this.component = component;
+            this.treeLow = treeLow;
+            this.post = post;
+            this.reachLow = reachLow;
+            this.successors = successors;
+        }
+
+        // "treeLow:post:reachLow:successor,successor"
+        static ComponentLabel parse(int component, String value) {
+            String[] parts = value.split(":", -1);
+            int[] successors = parts[3].isEmpty()
+                    ? new int[0]
+                    : Arrays.stream(parts[3].split(",")).mapToInt(Integer::parseInt).toArray();
+            return new ComponentLabel(component, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), successors);
+        }
+
+        String format() {
+            StringBuilder value = new StringBuilder()
+                    .append(treeLow).append(':')
+                    .append(post).append(':')
+                    .append(reachLow).append(':');
+            for (int i = 0; i < successors.length; i++) {
+                if (i > 0) {
+                    value.append(',');
+                }
+                value.append(successors[i]);
+            }
+            return value.toString();
+        }
+
+        public int getComponent() {
+            return component;
+        }
+
+        public int getTreeLow() {
+            return treeLow;
+        }
+
+        public int getPost() {
+            return post;
+        }
+
+        public int getReachLow() {
+            return reachLow;
+        }
+
+        public int[] getSuccessors() {
+            return successors;
+        }
+    }
+
+    // Finds labels of components, components that are missing from the result are treated as an error
+    @FunctionalInterface
+    public interface LabelLookup {
+        Map<Integer, ComponentLabel> find(Collection<Integer> components);
+    }
+
+    private Map<String, Integer> vertexComponents;
+    private ComponentLabel[] labels;
+
+    private ReachabilityIndex(Map<String, Integer> vertexComponents, ComponentLabel[] labels) {
+        this.vertexComponents = vertexComponents;
+        this.labels = labels;
+    }
+
+    public Map<String, Integer> getVertexComponents() {
+        return vertexComponents;
+    }
+
+    public ComponentLabel[] getLabels() {
+        return labels;
+    }
+
+    // Returns false when any of the vertexes is not in the graph
+    public boolean isReachable(String from, String to) {
+        Integer fromComponent = vertexComponents.get(from);
+        Integer toComponent = vertexComponents.get(to);
+        if (fromComponent == null || toComponent == null) {
+            return false;
+        }
+        return isReachable(labels[fromComponent], labels[toComponent], components -> {
+            Map<Integer, ComponentLabel> found = new HashMap<>();
+            components.forEach(component -> found.put(component, labels[component]));
+            return found;
+        });
+    }
+
+    // Returns null when labels alone do not decide whether the target is reachable
+    static Boolean decide(ComponentLabel from, ComponentLabel to) {
+        if (from.component == to.component) {
+            return true;
+        }
+        if (to.component > from.component) {
+            return false;
+        }
+        if (from.treeLow <= to.post && to.post <= from.post) {
+            return true;
+        }
+        if (to.post > from.post || to.reachLow < from.reachLow) {
+            return false;
+        }
+        return null;
+    }
+
+    // Breadth-first search of the DAG, labels of all components of a level are looked up at once
+    public static boolean isReachable(ComponentLabel from, ComponentLabel to, LabelLookup lookup) {
+        Boolean decided = decide(from, to);
+        if (decided != null) {
+            return decided;
+        }
+
+        Set<Integer> visited = new HashSet<>();
+        List<Integer> level = new ArrayList<>();
+        for (int successor : from.successors) {
+            if (visited.add(successor)) {
+                level.add(successor);
+            }
+        }
+
+        while (!level.isEmpty()) {
+            Map<Integer, ComponentLabel> levelLabels = lookup.find(level);
+            List<Integer> nextLevel = new ArrayList<>();
+            for (Integer component : level) {
+                ComponentLabel label = levelLabels.get(component);
+                if (label == null) {
+                    throw new IllegalStateException("Label of component " + component + " is missing");
+                }
+                decided = decide(label, to);
+                if (Boolean.TRUE.equals(decided)) {
+                    return true;
+                }
+                if (decided == null) {
+                    for (int successor : label.successors) {
+                        if (visited.add(successor)) {
+                            nextLevel.add(successor);
+                        }
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return false;
+    }
+
+    /*
+        Answers a single query without building an index: breadth-first search from the source that stops as soon as
+        the target is found. Building the index (components and labels) only pays off when it is stored and reused.
+     */
+    public static boolean searchGraph(Graph<BigDecimal> graph, String from, String to) {
+        if (graph.findVertex(from) == null || graph.findVertex(to) == null) {
+            return false;
+        }
+        if (from.equals(to)) {
+            return true;
+        }
+
+        Map<String, List<String>> successors = new HashMap<>();
+        for (Edge<BigDecimal> edge : graph.getEdges()) {
+            successors.computeIfAbsent(edge.getSource().getName(), name -> new ArrayList<>()).add(edge.getDestination().getName());
+        }
+
+        Set<String> visited = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        visited.add(from);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            for (String next : successors.getOrDefault(queue.poll(), Collections.emptyList())) {
+                if (next.equals(to)) {
+                    return true;
+                }
+                if (visited.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    public static ReachabilityIndex build(Graph<BigDecimal> graph) {
+        List<Vertex<BigDecimal>> vertexes = graph.getVertexes();
+        int vertexCount = vertexes.size();
+        Map<String, Integer> vertexIndexes = new HashMap<>(vertexCount * 2);
+        for (int i = 0; i < vertexCount; i++) {
+            vertexIndexes.put(vertexes.get(i).getName(), i);
+        }
+
+        int[][] adjacency = adjacency(graph, vertexIndexes, vertexCount);
+        int[] components = new int[vertexCount];
+        int componentCount = findComponents(adjacency, components);
+        int[][] successors = condense(adjacency, components, componentCount);
+
+        Map<String, Integer> vertexComponents = new HashMap<>(vertexCount * 2);
+        vertexIndexes.forEach((name, index) -> vertexComponents.put(name, components[index]));
+        return new ReachabilityIndex(vertexComponents, label(successors));
+    }
+
+    private static int[][] adjacency(Graph<BigDecimal> graph, Map<String, Integer> vertexIndexes, int vertexCount) {
+        int[] degrees = new int[vertexCount];
+        List<Edge<BigDecimal>> edges = graph.getEdges();
+        int[] sources = new int[edges.size()];
+        int[] destinations = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            sources[i] = vertexIndexes.get(edges.get(i).getSource().getName());
+            destinations[i] = vertexIndexes.get(edges.get(i).getDestination().getName());
+            degrees[sources[i]]++;
+        }
+
+        int[][] adjacency = new int[vertexCount][];
+        for (int i = 0; i < vertexCount; i++) {
+            adjacency[i] = new int[degrees[i]];
+            degrees[i] = 0;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            adjacency[sources[i]][degrees[sources[i]]++] = destinations[i];
+        }
+        return adjacency;
+    }
+
+    // Iterative Tarjan's algorithm (large graphs would overflow the stack of a recursive one), returns the number of components
+    private static int findComponents(int[][] adjacency, int[] components) {
+        int vertexCount = adjacency.length;
+        int[] index = new int[vertexCount];
+        int[] low = new int[vertexCount];
+        int[] nextEdge = new int[vertexCount];
+        boolean[] onStack = new boolean[vertexCount];
+        int[] stack = new int[vertexCount];
+        int[] callStack = new int[vertexCount];
+        Arrays.fill(index, -1);
+
+        int nextIndex = 0;
+        int componentCount = 0;
+        int stackSize = 0;
+        for (int start = 0; start < vertexCount; start++) {
+            if (index[start] != -1) {
+                continue;
+            }
+            int callDepth = 0;
+            index[start] = low[start] = nextIndex++;
+            stack[stackSize++] = start;
+            onStack[start] = true;
+            callStack[callDepth++] = start;
+
+            while (callDepth > 0) {
+                int vertex = callStack[callDepth - 1];
+                if (nextEdge[vertex] < adjacency[vertex].length) {
+                    int next = adjacency[vertex][nextEdge[vertex]++];
+                    if (index[next] == -1) {
+                        index[next] = low[next] = nextIndex++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[callDepth++] = next;
+                    } else if (onStack[next]) {
+                        low[vertex] = Math.min(low[vertex], index[next]);
+                    }
+                    continue;
+                }
+
+                callDepth--;
+                if (low[vertex] == index[vertex]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        components[member] = componentCount;
+                    } while (member != vertex);
+                    componentCount++;
+                }
+                if (callDepth > 0) {
+                    int parent = callStack[callDepth - 1];
+                    low[parent] = Math.min(low[parent], low[vertex]);
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    // Successors of every component in the condensation DAG, without duplicates
+    private static int[][] condense(int[][] adjacency, int[] components, int componentCount) {
+        List<List<Integer>> successors = new ArrayList<>(componentCount);
+        int[][] members = new int[componentCount][];
+        int[] sizes = new int[componentCount];
+        for (int component : components) {
+            sizes[component]++;
+        }
+        for (int component = 0; component < componentCount; component++) {
+            members[component] = new int[sizes[component]];
+            sizes[component] = 0;
+            successors.add(new ArrayList<>());
+        }
+        for (int vertex = 0; vertex < components.length; vertex++) {
+            members[components[vertex]][sizes[components[vertex]]++] = vertex;
+        }
+
+        // lastSeenFrom[x] == c + 1 when x was already added as a successor of c
+        int[] lastSeenFrom = new int[componentCount];
+        for (int component = 0; component < componentCount; component++) {
+            for (int vertex : members[component]) {
+                for (int next : adjacency[vertex]) {
+                    int nextComponent = components[next];
+                    if (nextComponent != component && lastSeenFrom[nextComponent] != component + 1) {
+                        lastSeenFrom[nextComponent] = component + 1;
+                        successors.get(component).add(nextComponent);
+                    }
+                }
+            }
+        }
+
+        int[][] condensed = new int[componentCount][];
+        for (int component = 0; component < componentCount; component++) {
+            condensed[component] = successors.get(component).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return condensed;
+    }
+
+    // Iterative depth-first traversal of the DAG from components without predecessors
+    private static ComponentLabel[] label(int[][] successors) {
+        int componentCount = successors.length;
+        boolean[] hasPredecessor = new boolean[componentCount];
+        for (int[] componentSuccessors : successors) {
+            for (int successor : componentSuccessors) {
+                hasPredecessor[successor] = true;
+            }
+        }
+
+        int[] treeLow = new int[componentCount];
+        int[] post = new int[componentCount];
+        int[] reachLow = new int[componentCount];
+        int[] nextSuccessor = new int[componentCount];
+        boolean[] visited = new boolean[componentCount];
+        int[] callStack = new int[componentCount];
+
+        int counter = 0;
+        // components finished last by Tarjan's algorithm are the closest to the roots of the DAG
+        for (int root = componentCount - 1; root >= 0; root--) {
+            if (hasPredecessor[root]) {
+                continue;
+            }
+            int callDepth = 0;
+            visited[root] = true;
+            treeLow[root] = counter;
+            callStack[callDepth++] = root;
+
+            while (callDepth > 0) {
+                int component = callStack[callDepth - 1];
+                if (nextSuccessor[component] < successors[component].length) {
+                    int successor = successors[component][nextSuccessor[component]++];
+                    if (!visited[successor]) {
+                        visited[successor] = true;
+                        treeLow[successor] = counter;
+                        callStack[callDepth++] = successor;
+                    }
+                    continue;
+                }
+
+                callDepth--;
+                post[component] = counter++;
+                // in a DAG all successors are finished before the component itself
+                reachLow[component] = post[component];
+                for (int successor : successors[component]) {
+                    reachLow[component] = Math.min(reachLow[component], reachLow[successor]);
+                }
+            }
+        }
+
+        ComponentLabel[] labels = new ComponentLabel[componentCount];
+        for (int component = 0; component < componentCount; component++) {
+            labels[component] = new ComponentLabel(component, treeLow[component], post[component], reachLow[component], successors[component]);
+        }
+        return labels;
+    }
+}
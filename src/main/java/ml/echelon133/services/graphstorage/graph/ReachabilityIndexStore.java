@@ -0,0 +1,162 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Reachability indexes of graphs (graphs.storage.reachability.enabled), see ReachabilityIndex.
+
+    The index of a graph with id X is stored in the GraphReachability:X hash:
+        vertexes        - number of vertexes, marks a complete index
+        v:<name>        - "component:treeLow:post:reachLow" of the component of the vertex
+        c:<component>   - "treeLow:post:reachLow:successor,successor" of the component
+    A query reads labels of both vertexes with a single HMGET, components are only read when the labels
+    do not decide the answer. Fields are written in batches of writeBatchFields, so that a large index never
+    becomes a single blocking command.
+ */
+@Component
+public class ReachabilityIndexStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReachabilityIndexStore.class);
+
+    static final String INDEX_KEY_PREFIX = "GraphReachability:";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+    private static final byte[] VERTEXES_FIELD = STRING_SERIALIZER.serialize("vertexes");
+
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    private boolean enabled;
+    private int writeBatchFields;
+
+    @Autowired
+    public ReachabilityIndexStore(RedisTemplate<String, String> vertexRedisTemplate,
+                                  @Value("${graphs.storage.reachability.enabled:false}") Boolean enabled,
+                                  @Value("${graphs.storage.reachability.writeBatchFields:1000}") Integer writeBatchFields) {
+        this.vertexRedisTemplate = vertexRedisTemplate;
+        this.enabled = enabled;
+        this.writeBatchFields = writeBatchFields;
+        LOGGER.info(String.format("Instantiated ReachabilityIndexStore (enabled: %s, writeBatchFields: %d)", enabled, writeBatchFields));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    static String indexKey(String graphId) {
+        return INDEX_KEY_PREFIX + graphId;
+    }
+
+    private static byte[] vertexField(String vertexName) {
+        return STRING_SERIALIZER.serialize("v:" + vertexName);
+    }
+
+    private static byte[] componentField(int component) {
+        return STRING_SERIALIZER.serialize("c:" + component);
+    }
+
+    public void saveIndex(String graphId, Graph<BigDecimal> graph) {
+        ReachabilityIndex index = ReachabilityIndex.build(graph);
+        vertexRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeIndex(connection, graphId, index);
+            return null;
+        });
+    }
+
+    // Queues writes of the whole index, meant to be called inside a pipeline. The marker field is written last
+    public void writeIndex(RedisConnection connection, String graphId, ReachabilityIndex index) {
+        byte[] rawKey = STRING_SERIALIZER.serialize(indexKey(graphId));
+        Map<byte[], byte[]> fields = new HashMap<>();
+
+        ReachabilityIndex.ComponentLabel[] labels = index.getLabels();
+        for (ReachabilityIndex.ComponentLabel label : labels) {
+            fields.put(componentField(label.getComponent()), STRING_SERIALIZER.serialize(label.format()));
+            fields = flushIfFull(connection, rawKey, fields);
+        }
+        for (Map.Entry<String, Integer> vertex : index.getVertexComponents().entrySet()) {
+            ReachabilityIndex.ComponentLabel label = labels[vertex.getValue()];
+            String vertexLabel = label.getComponent() + ":" + label.getTreeLow() + ":" + label.getPost() + ":" + label.getReachLow();
+            fields.put(vertexField(vertex.getKey()), STRING_SERIALIZER.serialize(vertexLabel));
+            fields = flushIfFull(connection, rawKey, fields);
+        }
+        fields.put(VERTEXES_FIELD, STRING_SERIALIZER.serialize(String.valueOf(index.getVertexComponents().size())));
+        connection.hMSet(rawKey, fields);
+        LOGGER.debug("Queued reachability index of a graph with id {} ({} components)", graphId, labels.length);
+    }
+
+    private Map<byte[], byte[]> flushIfFull(RedisConnection connection, byte[] rawKey, Map<byte[], byte[]> fields) {
+        if (fields.size() < writeBatchFields) {
+            return fields;
+        }
+        connection.hMSet(rawKey, fields);
+        return new HashMap<>();
+    }
+
+    // Queues removal of the index, meant to be called inside a pipeline
+    public void unlinkIndex(RedisConnection connection, String graphId) {
+        connection.unlink(STRING_SERIALIZER.serialize(indexKey(graphId)));
+    }
+
+    // Returns null when the graph has no index (e.g. it was saved before indexes were enabled)
+    public Boolean isReachable(String graphId, String from, String to) {
+        byte[] rawKey = STRING_SERIALIZER.serialize(indexKey(graphId));
+        List<byte[]> values = vertexRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.hMGet(rawKey, VERTEXES_FIELD, vertexField(from), vertexField(to)));
+
+        if (values == null || values.get(0) == null) {
+            return null;
+        }
+        // vertexes that are not in the graph are not reachable
+        if (values.get(1) == null || values.get(2) == null) {
+            return false;
+        }
+
+        ReachabilityIndex.ComponentLabel fromLabel = parseVertexLabel(STRING_SERIALIZER.deserialize(values.get(1)));
+        ReachabilityIndex.ComponentLabel toLabel = parseVertexLabel(STRING_SERIALIZER.deserialize(values.get(2)));
+        Boolean decided = ReachabilityIndex.decide(fromLabel, toLabel);
+        if (decided != null) {
+            return decided;
+        }
+
+        // successors of the source are only stored with its component
+        ReachabilityIndex.ComponentLabel fromComponent = findLabels(rawKey, new int[]{fromLabel.getComponent()}).get(fromLabel.getComponent());
+        return ReachabilityIndex.isReachable(fromComponent, toLabel, components ->
+                findLabels(rawKey, components.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    private static ReachabilityIndex.ComponentLabel parseVertexLabel(String value) {
+        String[] parts = value.split(":");
+        return new ReachabilityIndex.ComponentLabel(Integer.parseInt(parts[0]),
+                Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), new int[0]);
+    }
+
+    private Map<Integer, ReachabilityIndex.ComponentLabel> findLabels(byte[] rawKey, int[] components) {
+        byte[][] fields = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            fields[i] = componentField(components[i]);
+        }
+        List<byte[]> values = vertexRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hMGet(rawKey, fields));
+
+        Map<Integer, ReachabilityIndex.ComponentLabel> labels = new HashMap<>();
+        for (int i = 0; i < components.length; i++) {
+            byte[] value = values == null ? null : values.get(i);
+            if (value != null) {
+                labels.put(components[i], ReachabilityIndex.ComponentLabel.parse(components[i], STRING_SERIALIZER.deserialize(value)));
+            }
+        }
+        return labels;
+    }
+}
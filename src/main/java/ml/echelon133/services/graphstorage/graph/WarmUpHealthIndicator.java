@@ -0,0 +1,31 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// Reports the instance as OUT_OF_SERVICE until GraphStorageWarmUp ends, details show the progress of the warm-up
+@Component
+public class WarmUpHealthIndicator implements HealthIndicator {
+
+    private GraphStorageWarmUp graphStorageWarmUp;
+
+    @Autowired
+    public WarmUpHealthIndicator(GraphStorageWarmUp graphStorageWarmUp) {
+        this.graphStorageWarmUp = graphStorageWarmUp;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = graphStorageWarmUp.isDone() ? Health.up() : Health.outOfService();
+        builder.withDetail("phase", graphStorageWarmUp.getPhase().name())
+                .withDetail("serializationRounds", graphStorageWarmUp.getCompletedRounds() + "/" + graphStorageWarmUp.getSerializationRounds())
+                .withDetail("openedConnections", graphStorageWarmUp.getOpenedConnections())
+                .withDetail("preloadedGraphs", graphStorageWarmUp.getPreloadedGraphs());
+        if (graphStorageWarmUp.getFailure() != null) {
+            builder.withDetail("failure", graphStorageWarmUp.getFailure());
+        }
+        return builder.build();
+    }
+}
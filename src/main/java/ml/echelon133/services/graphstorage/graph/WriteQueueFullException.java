@@ -0,0 +1,8 @@
+package ml.echelon133.services.graphstorage.graph;
+
+public class WriteQueueFullException extends Exception {
+
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,122 @@
+package ml.echelon133.services.graphstorage.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import ml.echelon133.graph.Graph;
+
+/*
+    Flight Recorder event of a single save, findById or graphHasVertex call of GraphRepository.
+
+    Graphs (de)serialized by RedisGraphSerializer on the thread of the operation add their bytes and time to it
+    (see GraphSerializationEvent), everything else is counted as Redis time. Bytes of chunks of chunked graphs are
+    not included. An event is only created when it is enabled in a running recording, so the cost of a disabled event
+    is a single check. Only operations longer than the threshold (10 ms unless set otherwise by the recording) are
+    written to the recording.
+
+    An operation that reads on other threads (see GraphReadHedger) attaches its event to them, so their
+    (de)serializations are added to it as well.
+ */
+@Name("ml.echelon133.graphstorage.GraphOperation")
+@Label("Graph Operation")
+@Category("Graph Storage")
+@Description("Save or read of a graph by GraphRepository")
+@StackTrace(false)
+@Threshold("10 ms")
+public class GraphOperationEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(GraphOperationEvent.class);
+    private static final ThreadLocal<GraphOperationEvent> CURRENT = new ThreadLocal<>();
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Graph Id")
+    private String graphId;
+
+    @Label("Vertexes")
+    private int vertexCount;
+
+    @Label("Edges")
+    private int edgeCount;
+
+    @Label("Payload")
+    @DataAmount
+    private long payloadBytes;
+
+    @Label("Redis Time")
+    @Description("Time of the operation that was not spent on (de)serialization of graphs")
+    @Timespan
+    private long redisTime;
+
+    @Label("Serialization Time")
+    @Timespan
+    private long serializationTime;
+
+    private transient long startedAt;
+
+    static boolean isRecording() {
+        return EVENT_TYPE.isEnabled();
+    }
+
+    // Returns null when the event is disabled
+    public static GraphOperationEvent start(String operation, String graphId) {
+        if (!EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        GraphOperationEvent event = new GraphOperationEvent();
+        event.operation = operation;
+        event.graphId = graphId;
+        event.startedAt = System.nanoTime();
+        event.begin();
+        CURRENT.set(event);
+        return event;
+    }
+
+    // Returns null when no operation is recorded on the current thread
+    public static GraphOperationEvent current() {
+        return CURRENT.get();
+    }
+
+    // Makes (de)serializations on the current thread count towards the event of an operation started on another thread
+    public static void attach(GraphOperationEvent event) {
+        CURRENT.set(event);
+    }
+
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    // Adds a (de)serialization to the operation running on the current thread
+    static void recordSerialization(long nanos, int bytes) {
+        GraphOperationEvent event = CURRENT.get();
+        if (event != null) {
+            event.addSerialization(nanos, bytes);
+        }
+    }
+
+    // Attached threads can add their (de)serializations at the same time
+    private synchronized void addSerialization(long nanos, int bytes) {
+        serializationTime += nanos;
+        payloadBytes += bytes;
+    }
+
+    // The graph is null when the operation did not save or read a whole graph
+    public synchronized void finish(Graph<?> graph) {
+        CURRENT.remove();
+        end();
+        if (graph != null) {
+            vertexCount = graph.getVertexes().size();
+            edgeCount = graph.getEdges().size();
+        }
+        redisTime = Math.max(0, System.nanoTime() - startedAt - serializationTime);
+        commit();
+    }
+}
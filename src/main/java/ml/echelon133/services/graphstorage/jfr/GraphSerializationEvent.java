@@ -0,0 +1,62 @@
+package ml.echelon133.services.graphstorage.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import ml.echelon133.graph.Graph;
+
+// Flight Recorder event of a graph (de)serialized by RedisGraphSerializer, its duration is the (de)serialization time
+@Name("ml.echelon133.graphstorage.GraphSerialization")
+@Label("Graph Serialization")
+@Category("Graph Storage")
+@Description("Serialization or deserialization of a graph stored in Redis")
+@StackTrace(false)
+@Threshold("5 ms")
+public class GraphSerializationEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(GraphSerializationEvent.class);
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Vertexes")
+    private int vertexCount;
+
+    @Label("Edges")
+    private int edgeCount;
+
+    @Label("Payload")
+    @DataAmount
+    private long payloadBytes;
+
+    private transient long startedAt;
+
+    // Returns null when neither this event nor GraphOperationEvent is enabled
+    public static GraphSerializationEvent start(String operation) {
+        if (!EVENT_TYPE.isEnabled() && !GraphOperationEvent.isRecording()) {
+            return null;
+        }
+        GraphSerializationEvent event = new GraphSerializationEvent();
+        event.operation = operation;
+        event.startedAt = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    public void finish(Graph<?> graph, int bytes) {
+        end();
+        GraphOperationEvent.recordSerialization(System.nanoTime() - startedAt, bytes);
+        if (graph != null) {
+            vertexCount = graph.getVertexes().size();
+            edgeCount = graph.getEdges().size();
+        }
+        payloadBytes = bytes;
+        commit();
+    }
+}
@@ -0,0 +1,145 @@
+package ml.echelon133.services.graphstorage.config;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import ml.echelon133.graph.Edge;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.json.EdgeSerializer;
+import ml.echelon133.graph.json.GraphDeserializer;
+import ml.echelon133.graph.json.GraphSerializer;
+import ml.echelon133.graph.json.VertexSerializer;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.function.Function;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+/*
+    ParallelGraphDeserializer has to accept and reject exactly the same payloads as GraphDeserializer,
+    with the same exception type and message. Large payloads are used so that edges are split between many tasks.
+ */
+public class ParallelGraphDeserializerTest {
+
+    private static final int MAX_EDGES_COUNT = 15000;
+    private static final int LARGE_EDGE_COUNT = 12000;
+
+    private ObjectMapper sequentialMapper = mapper(type -> new GraphDeserializer(type, MAX_EDGES_COUNT));
+    private ObjectMapper parallelMapper = mapper(type -> new ParallelGraphDeserializer(type, MAX_EDGES_COUNT, 1));
+
+    private static ObjectMapper mapper(Function<JavaType, com.fasterxml.jackson.databind.JsonDeserializer<Graph<BigDecimal>>> deserializer) {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new VertexSerializer(mapper.constructType(Vertex.class)));
+        module.addSerializer(new EdgeSerializer(mapper.constructType(Edge.class)));
+        module.addSerializer(new GraphSerializer(mapper.constructType(Graph.class)));
+        JavaType graphBigDecimalType = mapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
+        module.addDeserializer(Graph.class, deserializer.apply(graphBigDecimalType));
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    private static String edge(int i) {
+        return String.format("{\"source\":\"v%d\",\"destination\":\"v%d\",\"weight\":%d.5}", i % 100, (i * 7) % 100, i);
+    }
+
+    // builds a payload with edgeCount edges, where edges with given indexes are replaced by given invalid edges
+    private static String payload(int edgeCount, int[] invalidIndexes, String[] invalidEdges) {
+        StringBuilder payload = new StringBuilder("{\"vertexes\":[");
+        for (int i = 0; i < 100; i++) {
+            payload.append(i == 0 ? "" : ",").append("\"v").append(i).append("\"");
+        }
+        payload.append("],\"edges\":[");
+        for (int i = 0; i < edgeCount; i++) {
+            String edge = edge(i);
+            for (int j = 0; j < invalidIndexes.length; j++) {
+                if (invalidIndexes[j] == i) {
+                    edge = invalidEdges[j];
+                }
+            }
+            payload.append(i == 0 ? "" : ",").append(edge);
+        }
+        return payload.append("]}").toString();
+    }
+
+    private String read(ObjectMapper mapper, String payload) {
+        try {
+            Graph<BigDecimal> graph = mapper.readValue(payload, mapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class));
+            return parallelMapper.writeValueAsString(graph);
+        } catch (Exception ex) {
+            return ex.getClass().getName() + ": " + ex.getMessage().split("\n")[0];
+        }
+    }
+
+    private void assertSameResult(String payload) {
+        // When
+        String sequentialResult = read(sequentialMapper, payload);
+        String parallelResult = read(parallelMapper, payload);
+
+        // Then
+        assertThat(parallelResult).isEqualTo(sequentialResult);
+    }
+
+    @Test
+    public void validLargeGraphIsDeserializedLikeSequentially() {
+        assertSameResult(payload(LARGE_EDGE_COUNT, new int[0], new String[0]));
+    }
+
+    @Test
+    public void invalidVertexesAreReportedLikeSequentially() {
+        assertSameResult("{\"edges\":[]}");
+        assertSameResult("{\"vertexes\":[]}");
+        assertSameResult("{\"vertexes\":{},\"edges\":[]}");
+        assertSameResult("{\"vertexes\":[],\"edges\":{}}");
+        assertSameResult("{\"vertexes\":[1],\"edges\":[]}");
+        assertSameResult("{\"vertexes\":[\"v1\",\"v1\"],\"edges\":[]}");
+        assertSameResult(payload(LARGE_EDGE_COUNT, new int[0], new String[0]).replace("[\"v0\",", "[\"v0\",\"v0\","));
+    }
+
+    @Test
+    public void everyKindOfInvalidEdgeIsReportedLikeSequentially() {
+        String[] invalidEdges = {
+                "[]",
+                "{\"destination\":\"v1\",\"weight\":1}",
+                "{\"source\":\"v1\",\"weight\":1}",
+                "{\"source\":\"v1\",\"destination\":\"v1\"}",
+                "{\"source\":1,\"destination\":\"v1\",\"weight\":1}",
+                "{\"source\":\"v1\",\"destination\":1,\"weight\":1}",
+                "{\"source\":\"v1\",\"destination\":\"v1\",\"weight\":\"1\"}",
+                "{\"source\":\"missing\",\"destination\":\"v1\",\"weight\":1}",
+                "{\"source\":\"v1\",\"destination\":\"v1\",\"weight\":-1}"
+        };
+
+        for (String invalidEdge : invalidEdges) {
+            assertSameResult(payload(LARGE_EDGE_COUNT, new int[]{7777}, new String[]{invalidEdge}));
+        }
+    }
+
+    @Test
+    public void errorOfEdgeWithLowestIndexIsReported() {
+        String[] invalidEdges = {
+                "{\"source\":\"v1\",\"destination\":\"v1\",\"weight\":-1}",
+                "{\"source\":\"missing\",\"destination\":\"v1\",\"weight\":1}"
+        };
+
+        // the edge with a lower index is in a task that finishes later
+        assertSameResult(payload(LARGE_EDGE_COUNT, new int[]{11000, 50}, invalidEdges));
+        assertSameResult(payload(LARGE_EDGE_COUNT, new int[]{50, 11000}, invalidEdges));
+    }
+
+    @Test
+    public void maxEdgesCountIsReportedLikeSequentially() {
+        String[] invalidEdges = {"{\"source\":\"v1\",\"destination\":\"v1\",\"weight\":-1}"};
+
+        // too many edges, all valid
+        assertSameResult(payload(MAX_EDGES_COUNT + 1, new int[0], new String[0]));
+        // invalid edges before the limit, at the limit and after it
+        assertSameResult(payload(MAX_EDGES_COUNT + 100, new int[]{MAX_EDGES_COUNT - 1}, invalidEdges));
+        assertSameResult(payload(MAX_EDGES_COUNT + 100, new int[]{MAX_EDGES_COUNT}, invalidEdges));
+        assertSameResult(payload(MAX_EDGES_COUNT + 100, new int[]{MAX_EDGES_COUNT + 1}, invalidEdges));
+        // exactly at the limit
+        assertSameResult(payload(MAX_EDGES_COUNT, new int[0], new String[0]));
+    }
+}
@@ -0,0 +1,94 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class AdmissionControllerTest {
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private GraphSizeEstimates graphSizeEstimates = new GraphSizeEstimates(100);
+
+    // budgets: write 10, read 20, lookup 30; 1000 bytes or 100 edges per cost unit
+    private AdmissionController admissionController = new AdmissionController(
+            graphSizeEstimates, meterRegistry, true, 10, 20, 30, 1000L, 100);
+
+    @Test
+    public void requestsAreClassifiedByMethodAndPath() {
+        // Then
+        assertThat(admissionController.classify("POST", "/api/graphs/")).isEqualTo(AdmissionController.RequestClass.WRITE);
+        assertThat(admissionController.classify("GET", "/api/graphs/asdf")).isEqualTo(AdmissionController.RequestClass.READ);
+        assertThat(admissionController.classify("GET", "/api/graphs/asdf/vertexes")).isEqualTo(AdmissionController.RequestClass.LOOKUP);
+        assertThat(admissionController.classify("GET", "/api/graphs/asdf/status")).isEqualTo(AdmissionController.RequestClass.LOOKUP);
+    }
+
+    @Test
+    public void writeCostDependsOnContentLength() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/graphs/");
+
+        // When
+        request.setContent(new byte[4500]);
+        int cost = admissionController.estimateCost(AdmissionController.RequestClass.WRITE, request, "/api/graphs/");
+
+        // Then
+        assertThat(cost).isEqualTo(5);
+    }
+
+    @Test
+    public void writeOfUnknownLengthCostsWholeBudget() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/graphs/");
+
+        // When
+        int cost = admissionController.estimateCost(AdmissionController.RequestClass.WRITE, request, "/api/graphs/");
+
+        // Then
+        assertThat(cost).isEqualTo(10);
+    }
+
+    @Test
+    public void readCostDependsOnKnownEdgeCount() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/graphs/asdf");
+
+        // Given
+        graphSizeEstimates.record("asdf", 1250);
+
+        // When
+        int knownGraphCost = admissionController.estimateCost(AdmissionController.RequestClass.READ, request, "/api/graphs/asdf");
+        int unknownGraphCost = admissionController.estimateCost(AdmissionController.RequestClass.READ, request, "/api/graphs/qwerty");
+
+        // Then
+        assertThat(knownGraphCost).isEqualTo(13);
+        assertThat(unknownGraphCost).isEqualTo(1);
+    }
+
+    @Test
+    public void requestsAreShedWhenBudgetOfTheirClassIsUsed() {
+        // When
+        boolean firstWrite = admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 8);
+        boolean secondWrite = admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 3);
+        boolean read = admissionController.tryAdmit(AdmissionController.RequestClass.READ, 3);
+
+        // Then
+        assertThat(firstWrite).isTrue();
+        assertThat(secondWrite).isFalse();
+        assertThat(read).isTrue();
+        assertThat(meterRegistry.get("graphs.storage.admission.cost.admitted").tag("class", "write").counter().count()).isEqualTo(8.0);
+        assertThat(meterRegistry.get("graphs.storage.admission.cost.shed").tag("class", "write").counter().count()).isEqualTo(3.0);
+        assertThat(meterRegistry.get("graphs.storage.admission.cost.inUse").tag("class", "write").gauge().value()).isEqualTo(8.0);
+    }
+
+    @Test
+    public void releasedCostCanBeUsedAgain() {
+        // When
+        admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 10);
+        admissionController.release(AdmissionController.RequestClass.WRITE, 10);
+        boolean admitted = admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 10);
+
+        // Then
+        assertThat(admitted).isTrue();
+    }
+}
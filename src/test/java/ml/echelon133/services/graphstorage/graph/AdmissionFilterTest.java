@@ -0,0 +1,71 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class AdmissionFilterTest {
+
+    // a budget of 10 units for writes, every 1000 bytes of a body cost a unit
+    private AdmissionController admissionController = new AdmissionController(
+            new GraphSizeEstimates(100), new SimpleMeterRegistry(), true, 10, 20, 30, 1000L, 100);
+
+    private AdmissionFilter admissionFilter = new AdmissionFilter(admissionController, GraphStorageApp.objectMapper(1000, 0));
+
+    private static MockHttpServletRequest postWithBodyOf(int bytes) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/graphs/");
+        request.setContent(new byte[bytes]);
+        return request;
+    }
+
+    @Test
+    public void admittedRequestReleasesItsCostAfterwards() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        // When
+        admissionFilter.doFilter(postWithBodyOf(9000), new MockHttpServletResponse(), chain);
+
+        // Then
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 10)).isTrue();
+    }
+
+    @Test
+    public void requestOverBudgetIsShedWithRetryAfter() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Given
+        admissionController.tryAdmit(AdmissionController.RequestClass.WRITE, 5);
+
+        // When
+        admissionFilter.doFilter(postWithBodyOf(9000), response, chain);
+
+        // Then
+        assertThat(chain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(response.getContentAsString()).contains("Service is overloaded. Try again later");
+    }
+
+    @Test
+    public void requestsOutsideOfGraphsApiAreNotCounted() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        // Given
+        admissionController.tryAdmit(AdmissionController.RequestClass.LOOKUP, 30);
+
+        // When
+        admissionFilter.doFilter(new MockHttpServletRequest("GET", "/actuator/health"), new MockHttpServletResponse(), chain);
+
+        // Then
+        assertThat(chain.getRequest()).isNotNull();
+    }
+}
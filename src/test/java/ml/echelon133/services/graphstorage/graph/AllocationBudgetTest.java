@@ -0,0 +1,202 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+import ml.echelon133.services.graphstorage.config.RedisGraphSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+/*
+    Allocation-per-request budgets of hot paths. A test fails when a change makes a path allocate more than its budget,
+    e.g. because a debug message is built eagerly. If a change legitimately needs more memory per request, the budget
+    should be raised in the same change.
+
+    The budgets are estimates, not measurements: a few small objects per lookup, the exception of a miss, the response
+    entity of the controller, and for the serializer the output buffer or the graph that is built. They are upper
+    bounds that catch a path which starts building strings or copying graphs. They should be lowered to about 25%
+    above the measured values on the JVM the service runs on, a failed test reports the measured value.
+
+    Measurements depend on the JVM and its JIT, so these tests are not part of the test task. They run with
+    ./gradlew allocationTest.
+
+    Redis operations are replaced with plain proxies, because Mockito records every invocation and would dominate
+    the measurement.
+ */
+public class AllocationBudgetTest {
+
+    // per request budgets in bytes, estimated (see above)
+    private static final long FIND_BY_ID_BUDGET = 256;
+    private static final long GRAPH_HAS_VERTEX_BUDGET = 256;
+    private static final long GRAPH_MISS_BUDGET = 512;
+    private static final long GET_GRAPH_BUDGET = 1024;
+    private static final long SERIALIZE_100_EDGES_BUDGET = 32 * 1024;
+    private static final long DESERIALIZE_100_EDGES_BUDGET = 160 * 1024;
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 5000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface HotPath {
+        void run() throws Exception;
+    }
+
+    private ch.qos.logback.classic.Logger repositoryLogger =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(GraphRepository.class);
+    private ch.qos.logback.classic.Logger controllerLogger =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(GraphController.class);
+    private Level previousRepositoryLevel;
+    private Level previousControllerLevel;
+
+    private GraphRepository graphRepository;
+    private GraphController graphController;
+    private Graph<BigDecimal> graph = graphWithEdges(100);
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() {
+        assumeTrue(THREAD_MX_BEAN.isThreadAllocatedMemorySupported());
+        THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+
+        // budgets are meant for production settings, where debug logging is disabled
+        previousRepositoryLevel = repositoryLogger.getLevel();
+        previousControllerLevel = controllerLogger.getLevel();
+        repositoryLogger.setLevel(Level.INFO);
+        controllerLogger.setLevel(Level.INFO);
+
+        ColdGraphTier coldGraphTier = new ColdGraphTier(mock(RedisTemplate.class), mock(RedisTemplate.class), new GraphSegmentStore("cold-graphs", 1024L),
+                GraphStorageApp.objectMapper(1000, 0), new SimpleMeterRegistry(), false, 60000L, 10000);
+        graphRepository = new GraphRepository(
+                mock(RedisTemplate.class),
+                mock(RedisTemplate.class),
+                new GraphIdFilter(false, 1000, 0.01),
+                new NegativeGraphCache(0L, 100),
+                new ChunkedGraphStore(mock(RedisTemplate.class), GraphStorageApp.objectMapper(1000, 0), 0, 5000, 8, 4),
+                new GraphSizeEstimates(100),
+                new GraphReadCoalescer(new SimpleMeterRegistry(), true, 5000L),
+                new LocalGraphCache(new SimpleMeterRegistry(), 0, 10000),
+                coldGraphTier,
+                new ReachabilityIndexStore(mock(RedisTemplate.class), false, 1000),
+                new GraphReadHedger(mock(RedisTemplate.class), new SimpleMeterRegistry(), false, 0.95, 5L, 1000, 32, "", 6379, 5000L, "", false),
+                new GraphIdSet(mock(RedisTemplate.class), mock(RedisTemplate.class), coldGraphTier)
+        );
+
+        graphController = new GraphController(graphRepository, mock(GraphWriteQueue.class),
+                new GraphPopularityTracker(mock(RedisTemplate.class), false, 60000L, 10000, 10000));
+
+        Map<String, Object> hashResults = new HashMap<>();
+        hashResults.put("hasKey", Boolean.TRUE);
+        hashResults.put("get", graph);
+        graphRepository.setGraphOpsForHash(proxy(HashOperations.class, hashResults));
+
+        Map<String, Object> setResults = new HashMap<>();
+        setResults.put("isMember", Boolean.TRUE);
+        graphRepository.setVertexOpsForSet(proxy(SetOperations.class, setResults));
+    }
+
+    @After
+    public void after() {
+        repositoryLogger.setLevel(previousRepositoryLevel);
+        controllerLogger.setLevel(previousControllerLevel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Map<String, Object> results) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> results.get(method.getName()));
+    }
+
+    private static Graph<BigDecimal> graphWithEdges(int edgeCount) {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < 50; i++) {
+            graph.addVertex(new Vertex<>("vertex" + i));
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(graph.findVertex("vertex" + (i % 50)), graph.findVertex("vertex" + ((i * 7) % 50)), new BigDecimal(i));
+        }
+        return graph;
+    }
+
+    private static long allocatedBytesPerCall(HotPath hotPath) throws Exception {
+        long threadId = Thread.currentThread().getId();
+
+        // let the JIT compile the path first, interpreted code allocates things that compiled code does not
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            hotPath.run();
+        }
+
+        long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            hotPath.run();
+        }
+        long after = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        return (after - before) / MEASURED_ITERATIONS;
+    }
+
+    private static void assertWithinBudget(String path, long budget, HotPath hotPath) throws Exception {
+        long allocated = allocatedBytesPerCall(hotPath);
+        assertThat(allocated).as("%s allocates %d bytes per call", path, allocated).isLessThanOrEqualTo(budget);
+    }
+
+    @Test
+    public void findByIdStaysWithinAllocationBudget() throws Exception {
+        assertWithinBudget("findById", FIND_BY_ID_BUDGET,
+                () -> graphRepository.findById("0b9a4f6e-8a5c-4d8e-9d5e-1f2a3b4c5d6e"));
+    }
+
+    // the controller adds only the response entity to the read of the graph
+    @Test
+    public void getGraphStaysWithinAllocationBudget() throws Exception {
+        assertWithinBudget("GraphController.getGraph", GET_GRAPH_BUDGET,
+                () -> graphController.getGraph("0b9a4f6e-8a5c-4d8e-9d5e-1f2a3b4c5d6e"));
+    }
+
+    @Test
+    public void graphHasVertexStaysWithinAllocationBudget() throws Exception {
+        assertWithinBudget("graphHasVertex", GRAPH_HAS_VERTEX_BUDGET,
+                () -> graphRepository.graphHasVertex("0b9a4f6e-8a5c-4d8e-9d5e-1f2a3b4c5d6e", "vertex1"));
+    }
+
+    @Test
+    public void missingGraphStaysWithinAllocationBudget() throws Exception {
+        Map<String, Object> hashResults = new HashMap<>();
+        hashResults.put("hasKey", Boolean.FALSE);
+        graphRepository.setGraphOpsForHash(proxy(HashOperations.class, hashResults));
+
+        assertWithinBudget("findById of a missing graph", GRAPH_MISS_BUDGET, () -> {
+            try {
+                graphRepository.findById("0b9a4f6e-8a5c-4d8e-9d5e-1f2a3b4c5d6e");
+            } catch (GraphNotFoundException ignored) {
+            }
+        });
+    }
+
+    @Test
+    public void redisGraphSerializerStaysWithinAllocationBudget() throws Exception {
+        RedisGraphSerializer serializer = new RedisGraphSerializer(GraphStorageApp.objectMapper(1000, 0));
+        byte[] serializedGraph = serializer.serialize(graph);
+
+        assertWithinBudget("serialize", SERIALIZE_100_EDGES_BUDGET, () -> serializer.serialize(graph));
+        assertWithinBudget("deserialize", DESERIALIZE_100_EDGES_BUDGET, () -> serializer.deserialize(serializedGraph));
+    }
+}
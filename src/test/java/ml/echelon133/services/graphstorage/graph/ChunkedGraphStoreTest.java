@@ -0,0 +1,115 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Edge;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ChunkedGraphStoreTest {
+
+    @SuppressWarnings("unchecked")
+    private ChunkedGraphStore chunkedGraphStore = new ChunkedGraphStore(
+            mock(RedisTemplate.class), GraphStorageApp.objectMapper(1000, 0), 10, 4, 8, 4);
+
+    private static Graph<BigDecimal> graphWithEdges(int edgeCount) {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < 5; i++) {
+            graph.addVertex(new Vertex<>("v" + i));
+        }
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(graph.findVertex("v" + (i % 5)), graph.findVertex("v" + ((i + 1) % 5)), new BigDecimal("1.5").add(new BigDecimal(i)));
+        }
+        return graph;
+    }
+
+    @Test
+    public void shouldChunkOnlyGraphsAboveThreshold() {
+        // Then
+        assertThat(chunkedGraphStore.shouldChunk(graphWithEdges(10))).isFalse();
+        assertThat(chunkedGraphStore.shouldChunk(graphWithEdges(11))).isTrue();
+    }
+
+    @Test
+    public void shouldChunkReturnsFalseWhenChunkingIsDisabled() {
+        @SuppressWarnings("unchecked")
+        ChunkedGraphStore disabledStore = new ChunkedGraphStore(
+                mock(RedisTemplate.class), GraphStorageApp.objectMapper(1000, 0), 0, 4, 8, 4);
+
+        // Then
+        assertThat(disabledStore.shouldChunk(graphWithEdges(100))).isFalse();
+    }
+
+    @Test
+    public void withoutEdgesKeepsAllVertexes() {
+        Graph<BigDecimal> graph = graphWithEdges(20);
+
+        // When
+        Graph<BigDecimal> base = chunkedGraphStore.withoutEdges(graph);
+
+        // Then
+        assertThat(base.getEdges().size()).isEqualTo(0);
+        assertThat(base.getVertexes().size()).isEqualTo(5);
+        assertThat(chunkedGraphStore.mightBeChunked(base)).isTrue();
+        assertThat(chunkedGraphStore.mightBeChunked(graph)).isFalse();
+    }
+
+    @Test
+    public void decodedChunksRestoreAllEdges() throws Exception {
+        Graph<BigDecimal> graph = graphWithEdges(10);
+        Graph<BigDecimal> base = chunkedGraphStore.withoutEdges(graph);
+        List<Edge<BigDecimal>> edges = graph.getEdges();
+
+        // When
+        chunkedGraphStore.decodeChunk(chunkedGraphStore.encodeChunk(edges.subList(0, 4)), base);
+        chunkedGraphStore.decodeChunk(chunkedGraphStore.encodeChunk(edges.subList(4, 8)), base);
+        chunkedGraphStore.decodeChunk(chunkedGraphStore.encodeChunk(edges.subList(8, 10)), base);
+
+        // Then
+        assertThat(base.getEdges().size()).isEqualTo(10);
+        for (int i = 0; i < 10; i++) {
+            Edge<BigDecimal> expected = edges.get(i);
+            Edge<BigDecimal> decoded = base.getEdges().get(i);
+            assertThat(decoded.getSource().getName()).isEqualTo(expected.getSource().getName());
+            assertThat(decoded.getDestination().getName()).isEqualTo(expected.getDestination().getName());
+            assertThat(decoded.getWeight()).isEqualByComparingTo(expected.getWeight());
+        }
+    }
+
+    @Test
+    public void manifestIsParsedFromItsStoredForm() {
+        // When
+        ChunkedGraphStore.Manifest manifest = ChunkedGraphStore.Manifest.parse(new ChunkedGraphStore.Manifest(3, 12).format());
+
+        // Then
+        assertThat(manifest.getChunkCount()).isEqualTo(3);
+        assertThat(manifest.getEdgeCount()).isEqualTo(12);
+    }
+
+    @Test
+    public void unlinkChunksRemovesEveryChunkAndManifest() {
+        RedisConnection connection = mock(RedisConnection.class);
+
+        // When
+        chunkedGraphStore.unlinkChunks(connection, "asdf", new ChunkedGraphStore.Manifest(3, 12));
+
+        // Then
+        verify(connection).unlink(
+                aryEq("DirectedGraphChunk:asdf:0".getBytes(StandardCharsets.UTF_8)),
+                aryEq("DirectedGraphChunk:asdf:1".getBytes(StandardCharsets.UTF_8)),
+                aryEq("DirectedGraphChunk:asdf:2".getBytes(StandardCharsets.UTF_8)));
+        verify(connection).hDel(aryEq("DirectedGraphManifest".getBytes(StandardCharsets.UTF_8)), aryEq("asdf".getBytes(StandardCharsets.UTF_8)));
+    }
+}
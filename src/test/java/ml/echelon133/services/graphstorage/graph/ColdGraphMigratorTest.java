@@ -0,0 +1,263 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ColdGraphMigratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    @Mock
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @Mock
+    private RedisConnection connection;
+
+    @Mock
+    private ColdGraphTier coldGraphTier;
+
+    @Mock
+    private GraphIdSet graphIdSet;
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private GraphSegmentStore segmentStore;
+
+    private ColdGraphMigrator migrator() {
+        return migrator(false);
+    }
+
+    // an enabled migrator schedules cycles only after intervalMillis, so tests run them manually
+    private ColdGraphMigrator migrator(boolean enabled) {
+        segmentStore = new GraphSegmentStore(folder.getRoot().getAbsolutePath(), 1024L);
+        return new ColdGraphMigrator(vertexRedisTemplate, graphRedisTemplate, segmentStore, coldGraphTier, graphIdSet, meterRegistry,
+                enabled, 3600000L, 300000L, 2, 10, 0L, 0.6);
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void migrateSkipsCycleWhenAnotherInstanceHoldsLock() {
+        ColdGraphMigrator migrator = migrator();
+
+        // Given
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("ColdGraphMigrationLock"), anyString(), any(Duration.class))).willReturn(false);
+
+        // When
+        int migrated = migrator.migrate();
+
+        // Then
+        assertThat(migrated).isEqualTo(-1);
+        verify(vertexRedisTemplate, never()).opsForZSet();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migrateMovesColdGraphsAndSkipsChunkedOnes() {
+        ColdGraphMigrator migrator = migrator();
+        List<Object> storedGraphs = Arrays.asList(raw("{\"vertexes\":[]}"), false, raw("{\"vertexes\":[\"v1\"]}"), true);
+
+        // Given
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("ColdGraphMigrationLock"), anyString(), any(Duration.class))).willReturn(true);
+        given(vertexRedisTemplate.opsForZSet()).willReturn(zSetOperations);
+        given(zSetOperations.rangeByScore(eq("GraphLastAccess"), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .willReturn(new LinkedHashSet<>(Arrays.asList("cold", "chunked")), Collections.emptySet());
+
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getHashKeySerializer();
+        given(graphRedisTemplate.executePipelined(any(RedisCallback.class), isNull())).willReturn(storedGraphs);
+        willAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            // HSET, HDEL, UNLINK and ZREM of the migrated graph, ZREM of the skipped one
+            return Arrays.asList(true, 1L, 1L, 1L, 1L);
+        }).given(graphRedisTemplate).executePipelined(any(RedisCallback.class));
+        willReturn(1L).given(vertexRedisTemplate).execute(any(RedisScript.class), anyList(), any());
+
+        // When
+        int migrated = migrator.migrate();
+
+        // Then
+        assertThat(migrated).isEqualTo(1);
+        verify(connection).hSet(aryEq(raw("DirectedGraphColdIndex")), aryEq(raw("cold")), aryEq(raw("0:4:15")));
+        verify(connection).hDel(aryEq(raw("DirectedGraph")), aryEq(raw("cold")));
+        verify(connection).unlink(aryEq(raw("cold")));
+        verify(connection).zRem(aryEq(raw("GraphLastAccess")), aryEq(raw("chunked")));
+        verify(connection, never()).hDel(aryEq(raw("DirectedGraph")), aryEq(raw("chunked")));
+        assertThat(meterRegistry.get("graphs.storage.tier.migrated").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("graphs.storage.tier.migratedBytes").counter().count()).isEqualTo(15.0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migrateAbortsCycleWhenLockExpired() {
+        ColdGraphMigrator migrator = migrator();
+        List<Object> storedGraphs = Arrays.asList(raw("{\"vertexes\":[]}"), false, raw("{\"vertexes\":[]}"), false);
+
+        // Given
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("ColdGraphMigrationLock"), anyString(), any(Duration.class))).willReturn(true);
+        given(vertexRedisTemplate.opsForZSet()).willReturn(zSetOperations);
+        given(zSetOperations.rangeByScore(eq("GraphLastAccess"), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .willReturn(new LinkedHashSet<>(Arrays.asList("cold1", "cold2")));
+
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getHashKeySerializer();
+        given(graphRedisTemplate.executePipelined(any(RedisCallback.class), isNull())).willReturn(storedGraphs);
+        willReturn(Arrays.asList(true, 1L, 1L, 1L, true, 1L, 1L, 1L)).given(graphRedisTemplate).executePipelined(any(RedisCallback.class));
+        // the lock is held by another instance when the first batch is done
+        willReturn(0L).given(vertexRedisTemplate).execute(any(RedisScript.class), anyList(), any());
+
+        // When
+        int migrated = migrator.migrate();
+
+        // Then
+        assertThat(migrated).isEqualTo(2);
+        verify(zSetOperations, times(1)).rangeByScore(eq("GraphLastAccess"), anyDouble(), anyDouble(), anyLong(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migrateCompactsSegmentWithFewLiveRecords() throws Exception {
+        ColdGraphMigrator migrator = migrator();
+        byte[] record = new byte[400];
+        Arrays.fill(record, (byte) 'a');
+        GraphSegmentStore.Location live = segmentStore.append(record);
+        segmentStore.append(record);
+        segmentStore.append(record);
+
+        // Given
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("ColdGraphMigrationLock"), anyString(), any(Duration.class))).willReturn(true);
+        given(vertexRedisTemplate.opsForZSet()).willReturn(zSetOperations);
+        given(zSetOperations.rangeByScore(eq("GraphLastAccess"), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .willReturn(Collections.emptySet());
+        // half of segment 0 is dead, segment 1 is the active one
+        willAnswer(invocation -> {
+            invocation.<BiConsumer<String, GraphSegmentStore.Location>>getArgument(0).accept("live", live);
+            return null;
+        }).given(coldGraphTier).forEachLocation(any());
+        given(coldGraphTier.relocate(anyList(), anyList(), anyList())).willReturn(1L);
+        willReturn(1L).given(vertexRedisTemplate).execute(any(RedisScript.class), anyList(), any());
+
+        // When
+        migrator.migrate();
+
+        // Then
+        ArgumentCaptor<List<GraphSegmentStore.Location>> copies = ArgumentCaptor.forClass(List.class);
+        verify(coldGraphTier).relocate(eq(Collections.singletonList("live")), anyList(), copies.capture());
+        GraphSegmentStore.Location copy = copies.getValue().get(0);
+        assertThat(copy.getSegment()).isEqualTo(1);
+        assertThat(copy.getOffset()).isEqualTo(408L);
+        assertThat(segmentStore.read(copy).get(0)).isEqualTo((byte) 'a');
+        assertThat(segmentStore.isCompacted(0)).isTrue();
+        assertThat(segmentStore.isCompacted(1)).isFalse();
+        assertThat(meterRegistry.get("graphs.storage.tier.compactedSegments").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void seedLastAccessAddsGraphsSavedBeforeTierWasEnabled() {
+        ColdGraphMigrator migrator = migrator(true);
+
+        // Given
+        given(vertexRedisTemplate.hasKey("GraphLastAccessSeeded")).willReturn(false);
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("GraphLastAccessSeeding"), anyString(), any(Duration.class))).willReturn(true);
+        willAnswer(invocation -> {
+            invocation.<Consumer<String>>getArgument(0).accept("asdf");
+            invocation.<Consumer<String>>getArgument(0).accept("qwer");
+            return 2L;
+        }).given(graphIdSet).forEachGraphId(any());
+
+        // When
+        migrator.seedLastAccess();
+        migrator.shutdown();
+
+        // Then
+        verify(vertexRedisTemplate).execute(any(RedisScript.class), eq(Collections.singletonList("GraphLastAccess")), eq("asdf"), eq("qwer"));
+        verify(valueOperations).set("GraphLastAccessSeeded", "1");
+    }
+
+    @Test
+    public void seedLastAccessIsSkippedWhenGraphsWereAlreadySeeded() {
+        ColdGraphMigrator migrator = migrator(true);
+
+        // Given
+        given(vertexRedisTemplate.hasKey("GraphLastAccessSeeded")).willReturn(true);
+
+        // When
+        migrator.seedLastAccess();
+        migrator.shutdown();
+
+        // Then
+        verify(graphIdSet, never()).forEachGraphId(any());
+    }
+
+    @Test
+    public void seedLastAccessIsSkippedWhenTierIsDisabled() {
+        ColdGraphMigrator migrator = migrator();
+
+        // When
+        migrator.seedLastAccess();
+
+        // Then
+        verify(vertexRedisTemplate, never()).hasKey(anyString());
+        verify(graphIdSet, never()).forEachGraphId(any());
+    }
+}
@@ -0,0 +1,195 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ColdGraphTierTest {
+
+    private static final String STORED_GRAPH =
+            "{\"vertexes\":[\"v1\",\"v2\"],\"edges\":[{\"source\":\"v1\",\"destination\":\"v2\",\"weight\":1.5}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    @Mock
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+
+    @Mock
+    private RedisConnection connection;
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private GraphSegmentStore segmentStore() {
+        return new GraphSegmentStore(folder.getRoot().getAbsolutePath(), 1024L);
+    }
+
+    // accesses are only ever flushed manually in these tests
+    private ColdGraphTier tier(GraphSegmentStore segmentStore) {
+        return new ColdGraphTier(vertexRedisTemplate, graphRedisTemplate, segmentStore, new ObjectMapper(), meterRegistry, true, 3600000L, 2);
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenCallbacksRunOnConnection() {
+        willAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection))
+                .given(vertexRedisTemplate).execute(any(RedisCallback.class));
+    }
+
+    // Runs the promotion script on the connection, returns the keys and arguments that were passed to it
+    @SuppressWarnings("unchecked")
+    private List<String> givenPromotionReturns(long result) {
+        List<String> keysAndArgs = new ArrayList<>();
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getKeySerializer();
+        willAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection))
+                .given(graphRedisTemplate).execute(any(RedisCallback.class));
+        willAnswer(invocation -> {
+            for (byte[] value : (byte[][]) invocation.getRawArguments()[3]) {
+                keysAndArgs.add(new String(value, StandardCharsets.UTF_8));
+            }
+            return result;
+        }).given(connection).eval(any(byte[].class), eq(ReturnType.INTEGER), eq(5), any());
+        return keysAndArgs;
+    }
+
+    @Test
+    public void promoteMovesGraphBackToRedis() throws Exception {
+        GraphSegmentStore segmentStore = segmentStore();
+        GraphSegmentStore.Location location = segmentStore.append(raw(STORED_GRAPH));
+        ColdGraphTier tier = tier(segmentStore);
+
+        // Given
+        givenCallbacksRunOnConnection();
+        List<String> keysAndArgs = givenPromotionReturns(1L);
+        given(connection.hGet(aryEq(raw("DirectedGraphColdIndex")), aryEq(raw("asdf")))).willReturn(raw(location.format()));
+
+        // When
+        boolean promoted = tier.promote("asdf");
+
+        // Then
+        assertThat(promoted).isTrue();
+        assertThat(keysAndArgs.subList(0, 7).toString())
+                .isEqualTo("[DirectedGraphColdIndex, DirectedGraph, GraphLastAccess, asdf, DirectedGraphIds, asdf, " + STORED_GRAPH + "]");
+        assertThat(keysAndArgs.subList(8, keysAndArgs.size()).toString()).isEqualTo("[v1, v2]");
+        assertThat(meterRegistry.get("graphs.storage.tier.reads").tag("tier", "cold").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void promoteReturnsFalseWhenGraphWasDeletedDuringPromotion() throws Exception {
+        GraphSegmentStore segmentStore = segmentStore();
+        GraphSegmentStore.Location location = segmentStore.append(raw(STORED_GRAPH));
+        ColdGraphTier tier = tier(segmentStore);
+
+        // Given
+        givenCallbacksRunOnConnection();
+        givenPromotionReturns(0L);
+        given(connection.hGet(aryEq(raw("DirectedGraphColdIndex")), aryEq(raw("asdf")))).willReturn(raw(location.format()));
+
+        // When
+        boolean promoted = tier.promote("asdf");
+
+        // Then
+        assertThat(promoted).isFalse();
+        assertThat(meterRegistry.get("graphs.storage.tier.reads").tag("tier", "cold").counter().count()).isEqualTo(0.0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void promoteReturnsFalseWhenGraphIsNotCold() {
+        ColdGraphTier tier = tier(segmentStore());
+
+        // Given
+        givenCallbacksRunOnConnection();
+
+        // When
+        boolean promoted = tier.promote("asdf");
+
+        // Then
+        assertThat(promoted).isFalse();
+        verify(graphRedisTemplate, never()).execute(any(RedisCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushAccessesUpdatesLastAccessOfReadGraphs() {
+        ColdGraphTier tier = tier(segmentStore());
+
+        // Given
+        willAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return null;
+        }).given(vertexRedisTemplate).executePipelined(any(RedisCallback.class));
+
+        // When
+        tier.recordRedisRead("asdf");
+        tier.recordAccess("qwer");
+        // only 2 pending accesses fit
+        tier.recordAccess("zxcv");
+        tier.flushAccesses();
+
+        // Then
+        verify(connection).zAdd(aryEq(raw("GraphLastAccess")), anyDouble(), aryEq(raw("asdf")));
+        verify(connection).zAdd(aryEq(raw("GraphLastAccess")), anyDouble(), aryEq(raw("qwer")));
+        verify(connection, never()).zAdd(aryEq(raw("GraphLastAccess")), anyDouble(), aryEq(raw("zxcv")));
+        assertThat(meterRegistry.get("graphs.storage.tier.reads").tag("tier", "redis").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushAccessesDoesNotReachRedisWhenNothingWasRead() {
+        ColdGraphTier tier = tier(segmentStore());
+
+        // When
+        tier.flushAccesses();
+
+        // Then
+        verify(vertexRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void forgetRemovesGraphFromIndexAndLastAccess() {
+        ColdGraphTier tier = tier(segmentStore());
+
+        // When
+        tier.forget(connection, "asdf");
+
+        // Then
+        verify(connection).hDel(aryEq(raw("DirectedGraphColdIndex")), aryEq(raw("asdf")));
+        verify(connection).zRem(aryEq(raw("GraphLastAccess")), aryEq(raw("asdf")));
+    }
+}
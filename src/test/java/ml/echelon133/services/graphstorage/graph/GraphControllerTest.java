@@ -1,5 +1,8 @@
 package ml.echelon133.services.graphstorage.graph;
 
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import ml.echelon133.graph.Graph;
 import ml.echelon133.graph.Vertex;
 import ml.echelon133.graph.WeightedGraph;
@@ -7,24 +10,37 @@ import ml.echelon133.services.graphstorage.GraphStorageApp;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.json.JsonContent;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 
@@ -38,6 +54,12 @@ public class GraphControllerTest {
     @Mock
     private GraphRepository graphRepository;
 
+    @Mock
+    private GraphWriteQueue graphWriteQueue;
+
+    @Mock
+    private GraphPopularityTracker graphPopularityTracker;
+
     @InjectMocks
     private GraphController graphController;
 
@@ -46,19 +68,32 @@ public class GraphControllerTest {
 
     private JacksonTester<Graph<BigDecimal>> jsonGraph;
 
+    private MappingJackson2SmileHttpMessageConverter smileConverter;
+
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    private static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    private static final MediaType APPLICATION_CBOR = MediaType.valueOf("application/cbor");
+
+    private static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
     @Before
     public void before() {
-        JacksonTester.initFields(this, GraphStorageApp.objectMapper(maxEdgesCount));
+        JacksonTester.initFields(this, GraphStorageApp.objectMapper(maxEdgesCount, 0));
 
         // Our mock controller does not use our custom ObjectMapper setup by default
         // We need to set up a message converter
         MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter();
-        converter.setObjectMapper(GraphStorageApp.objectMapper(maxEdgesCount));
+        converter.setObjectMapper(GraphStorageApp.objectMapper(maxEdgesCount, 0));
+
+        smileConverter = GraphStorageApp.smileHttpMessageConverter(maxEdgesCount, 0);
+        cborConverter = GraphStorageApp.cborHttpMessageConverter(maxEdgesCount, 0);
 
         mockMvc = MockMvcBuilders
                 .standaloneSetup(graphController)
                 .setControllerAdvice(exceptionHandler)
-                .setMessageConverters(converter)
+                .setMessageConverters(converter, smileConverter, cborConverter)
                 .build();
     }
 
@@ -77,6 +112,24 @@ public class GraphControllerTest {
         // Then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
         assertThat(response.getContentAsString()).contains(exceptionMsg);
+        verify(graphPopularityTracker, never()).recordRead(searchedId);
+    }
+
+    @Test
+    public void getGraphRespondsWithServiceUnavailableWhenRedisIsUnavailable() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(graphRepository.findById(searchedId)).willThrow(new RedisConnectionFailureException("Cannot get Jedis connection"));
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(response.getContentAsString()).contains("Graph storage is temporarily unavailable");
     }
 
     @Test
@@ -104,6 +157,7 @@ public class GraphControllerTest {
         // Then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
         assertThat(response.getContentAsString()).isEqualTo(expectedGraphJsonContent.getJson());
+        verify(graphPopularityTracker).recordRead(searchedId);
     }
 
     @Test
@@ -473,4 +527,448 @@ public class GraphControllerTest {
         assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
         assertThat(response.getContentAsString()).contains("{\"contains\":false}");
     }
+
+    private Graph<BigDecimal> binaryFormatTestGraph() {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        graph.addVertex(new Vertex<>("v2"));
+        graph.addVertex(new Vertex<>("v3"));
+        graph.addEdge(graph.findVertex("v1"), graph.findVertex("v2"), new BigDecimal(5));
+        graph.addEdge(graph.findVertex("v1"), graph.findVertex("v3"), new BigDecimal(15));
+        graph.addEdge(graph.findVertex("v2"), graph.findVertex("v3"), new BigDecimal(25));
+        return graph;
+    }
+
+    @Test
+    public void getGraphRespondsWithSmileWhenRequested() throws Exception {
+        String searchedId = "asdf";
+        Graph<BigDecimal> graph = binaryFormatTestGraph();
+
+        ObjectMapper smileMapper = smileConverter.getObjectMapper();
+        JavaType graphBigDecimalType = smileMapper.getTypeFactory().constructParametricType(Graph.class, BigDecimal.class);
+
+        // Given
+        given(graphRepository.findById(eq(searchedId))).willReturn(graph);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_SMILE)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).contains(APPLICATION_SMILE.toString());
+
+        Graph<BigDecimal> receivedGraph = smileMapper.readValue(response.getContentAsByteArray(), graphBigDecimalType);
+        assertThat(jsonGraph.write(receivedGraph).getJson()).isEqualTo(jsonGraph.write(graph).getJson());
+    }
+
+    @Test
+    public void getGraphRespondsWithCborWhenRequested() throws Exception {
+        String searchedId = "asdf";
+        Graph<BigDecimal> graph = binaryFormatTestGraph();
+
+        // Given
+        given(graphRepository.findById(eq(searchedId))).willReturn(graph);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_CBOR)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).contains(APPLICATION_CBOR.toString());
+        assertThat(response.getContentAsByteArray()).isNotEmpty();
+    }
+
+    @Test
+    public void addGraphAcceptsSmilePayload() throws Exception {
+        String graphId = "asdf-asdf-asdf-asdf";
+        byte[] graphPayload = smileConverter.getObjectMapper().writeValueAsBytes(binaryFormatTestGraph());
+
+        // Given
+        given(graphRepository.save(any())).willReturn(graphId);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload)
+                .contentType(APPLICATION_SMILE)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(response.getContentAsString()).contains(graphId);
+    }
+
+    @Test
+    public void addGraphAcceptsCborPayload() throws Exception {
+        String graphId = "asdf-asdf-asdf-asdf";
+
+        // Encode a plain JSON tree, so that the weights are sent as CBOR integers
+        JsonNode graphTree = new ObjectMapper().readTree(jsonGraph.write(binaryFormatTestGraph()).getJson());
+        byte[] graphPayload = cborConverter.getObjectMapper().writeValueAsBytes(graphTree);
+
+        // Given
+        given(graphRepository.save(any())).willReturn(graphId);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload)
+                .contentType(APPLICATION_CBOR)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(response.getContentAsString()).contains(graphId);
+    }
+
+    @Test
+    public void graphReceivedAsCborCanBeSentBack() throws Exception {
+        String searchedId = "asdf";
+        String graphId = "asdf-asdf-asdf-asdf";
+        Graph<BigDecimal> graph = binaryFormatTestGraph();
+        graph.addEdge(graph.findVertex("v3"), graph.findVertex("v1"), new BigDecimal("2.5"));
+        ArgumentCaptor<Graph<BigDecimal>> savedGraph = ArgumentCaptor.forClass(Graph.class);
+
+        // Given
+        given(graphRepository.findById(eq(searchedId))).willReturn(graph);
+        given(graphRepository.save(any())).willReturn(graphId);
+
+        // When
+        byte[] graphPayload = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_CBOR)).andReturn().getResponse().getContentAsByteArray();
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload)
+                .contentType(APPLICATION_CBOR)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        verify(graphRepository).save(savedGraph.capture());
+        assertThat(jsonGraph.write(savedGraph.getValue()).getJson()).isEqualTo(jsonGraph.write(graph).getJson());
+    }
+
+    @Test
+    public void addGraphSmilePayloadNegativeEdgeWeightHandledCorrectly() throws Exception {
+        String expectedMessage = "Edge weight cannot be negative";
+
+        String jsonPayload = "{\"vertexes\": [\"v1\", \"v2\"], \"edges\": [{\"source\" : \"v1\", \"destination\" : \"v2\", \"weight\" : -20}]}";
+        JsonNode graphTree = new ObjectMapper().readTree(jsonPayload);
+        byte[] graphPayload = smileConverter.getObjectMapper().writeValueAsBytes(graphTree);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload)
+                .contentType(APPLICATION_SMILE)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        assertThat(response.getContentAsString()).contains(expectedMessage);
+    }
+
+    @Test
+    public void addGraphSmilePayloadNumberOfEdgesExceedsMaxEdgesCountHandledCorrectly() throws Exception {
+        String expectedMessage = String.format("Cannot accept graphs that contain more than %d edges", maxEdgesCount);
+
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        graph.addVertex(new Vertex<>("v2"));
+
+        for (int i = 0; i <= maxEdgesCount; i++) {
+            graph.addEdge(graph.findVertex("v1"), graph.findVertex("v2"), new BigDecimal(5));
+        }
+
+        byte[] graphPayload = smileConverter.getObjectMapper().writeValueAsBytes(graph);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload)
+                .contentType(APPLICATION_SMILE)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        assertThat(response.getContentAsString()).contains(expectedMessage);
+    }
+
+    @Test
+    public void binaryFormatsAreSmallerThanJson() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < 50; i++) {
+            graph.addVertex(new Vertex<>("vertex" + i));
+        }
+        for (int i = 0; i < 49; i++) {
+            graph.addEdge(graph.findVertex("vertex" + i), graph.findVertex("vertex" + (i + 1)), new BigDecimal(i * 10));
+        }
+
+        // When
+        int jsonSize = jsonGraph.write(graph).getJson().getBytes().length;
+        int smileSize = smileConverter.getObjectMapper().writeValueAsBytes(graph).length;
+        int cborSize = cborConverter.getObjectMapper().writeValueAsBytes(graph).length;
+
+        // Then
+        assertThat(smileSize).isLessThan(jsonSize);
+        assertThat(cborSize).isLessThan(jsonSize);
+    }
+
+    @Test
+    public void addGraphRespondsWithAcceptedWhenAsyncModeEnabled() throws Exception {
+        String graphId = "asdf-asdf-asdf-asdf";
+        JsonContent<Graph<BigDecimal>> graphPayload = jsonGraph.write(binaryFormatTestGraph());
+
+        // Given
+        given(graphWriteQueue.isEnabled()).willReturn(true);
+        given(graphWriteQueue.submit(any())).willReturn(graphId);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload.getJson())
+                .contentType(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.ACCEPTED.value());
+        assertThat(response.getContentAsString()).contains(graphId);
+    }
+
+    @Test
+    public void addGraphRespondsWithTooManyRequestsWhenWriteQueueFull() throws Exception {
+        String exceptionMsg = "Too many graphs are waiting to be saved. Try again later";
+        JsonContent<Graph<BigDecimal>> graphPayload = jsonGraph.write(binaryFormatTestGraph());
+
+        // Given
+        given(graphWriteQueue.isEnabled()).willReturn(true);
+        given(graphWriteQueue.submit(any())).willThrow(new WriteQueueFullException(exceptionMsg));
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(post("/api/graphs/")
+                .accept(MediaType.APPLICATION_JSON)
+                .content(graphPayload.getJson())
+                .contentType(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+    }
+
+    @Test
+    public void getGraphStatusRespondsCorrectlyWhenWriteIsPending() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(graphWriteQueue.getWriteStatus(eq(searchedId))).willReturn(GraphWriteQueue.WriteStatus.PENDING);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId + "/status")
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentAsString()).isEqualTo("{\"status\":\"PENDING\"}");
+    }
+
+    @Test
+    public void getGraphStatusRespondsCorrectlyWhenGraphStored() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(graphRepository.exists(eq(searchedId))).willReturn(true);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId + "/status")
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentAsString()).isEqualTo("{\"status\":\"STORED\"}");
+    }
+
+    @Test
+    public void getGraphStatusRespondsCorrectlyWhenGraphNotFound() throws Exception {
+        String searchedId = "asdf";
+        String exceptionMsg = String.format("Graph with id %s not found", searchedId);
+
+        // Given
+        given(graphRepository.exists(eq(searchedId))).willReturn(false);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId + "/status")
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+    }
+
+    @Test
+    public void checkVertexReachabilityRespondsCorrectlyWhenVertexReachable() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(graphRepository.isReachable(eq(searchedId), eq("v1"), eq("v3"))).willReturn(true);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId + "/reachable")
+                .param("from", "v1")
+                .param("to", "v3")
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentAsString()).isEqualTo("{\"reachable\":true}");
+    }
+
+    @Test
+    public void checkVertexReachabilityRespondsCorrectlyWhenGraphNotFound() throws Exception {
+        String searchedId = "asdf";
+        String exceptionMsg = String.format("Graph with id %s not found", searchedId);
+
+        // Given
+        given(graphRepository.isReachable(eq(searchedId), eq("v1"), eq("v3"))).willThrow(new GraphNotFoundException(exceptionMsg));
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId + "/reachable")
+                .param("from", "v1")
+                .param("to", "v3")
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+    }
+
+    @Test
+    public void deleteGraphRespondsWithNoContentWhenGraphDeleted() throws Exception {
+        String searchedId = "asdf";
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(delete("/api/graphs/" + searchedId)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        assertThat(response.getContentAsString()).isEmpty();
+        verify(graphRepository).deleteById(searchedId);
+    }
+
+    @Test
+    public void deleteGraphCancelsQueuedWrite() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(graphWriteQueue.getWriteStatus(eq(searchedId))).willReturn(GraphWriteQueue.WriteStatus.PENDING);
+        given(graphWriteQueue.cancel(searchedId)).willReturn(true);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(delete("/api/graphs/" + searchedId)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        verify(graphRepository, never()).deleteById(anyString());
+    }
+
+    @Test
+    public void deleteGraphRespondsWithConflictWhenGraphIsBeingWritten() throws Exception {
+        String searchedId = "asdf";
+        String exceptionMsg = String.format("Graph with id %s is being saved. Try again later", searchedId);
+
+        // Given
+        given(graphWriteQueue.getWriteStatus(eq(searchedId))).willReturn(GraphWriteQueue.WriteStatus.PENDING);
+        given(graphWriteQueue.cancel(searchedId)).willReturn(false);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(delete("/api/graphs/" + searchedId)
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+        verify(graphRepository, never()).deleteById(anyString());
+    }
+
+    @Test
+    public void deleteGraphRespondsCorrectlyWhenGraphNotFound() throws Exception {
+        String searchedId = "asdf";
+        String exceptionMsg = String.format("Graph with id %s not found", searchedId);
+
+        // Given
+        willThrow(new GraphNotFoundException(exceptionMsg)).given(graphRepository).deleteById(searchedId);
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(delete("/api/graphs/" + searchedId)
+                .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+    }
+
+    @Test
+    public void streamGraphWritesVertexesAndEdgesAsLines() throws Exception {
+        String searchedId = "asdf";
+        String storedGraph = "{\"vertexes\":[\"v1\",\"v2\"],\"edges\":[{\"source\":\"v1\",\"destination\":\"v2\",\"weight\":1.25}]}";
+
+        // Given
+        given(graphRepository.findSerializedById(eq(searchedId))).willReturn(storedGraph.getBytes(StandardCharsets.UTF_8));
+
+        // When
+        MvcResult result = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_NDJSON)).andReturn();
+        MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).isEqualTo(APPLICATION_NDJSON.toString());
+        assertThat(response.getContentAsString()).isEqualTo(
+                "{\"type\":\"vertex\",\"name\":\"v1\"}\n" +
+                "{\"type\":\"vertex\",\"name\":\"v2\"}\n" +
+                "{\"type\":\"edge\",\"source\":\"v1\",\"destination\":\"v2\",\"weight\":1.25}\n");
+        verify(graphRepository, never()).forEachSerializedEdgeChunk(eq(searchedId), any());
+    }
+
+    @Test
+    public void streamGraphWritesEdgesOfChunkedGraph() throws Exception {
+        String searchedId = "asdf";
+        String storedGraph = "{\"vertexes\":[\"v1\",\"v2\"],\"edges\":[]}";
+
+        // Given
+        given(graphRepository.findSerializedById(eq(searchedId))).willReturn(storedGraph.getBytes(StandardCharsets.UTF_8));
+        willAnswer(invocation -> {
+            ChunkedGraphStore.ChunkConsumer consumer = invocation.getArgument(1);
+            consumer.accept("[{\"source\":\"v1\",\"destination\":\"v2\",\"weight\":5}]".getBytes(StandardCharsets.UTF_8));
+            consumer.accept("[{\"source\":\"v2\",\"destination\":\"v1\",\"weight\":10}]".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).given(graphRepository).forEachSerializedEdgeChunk(eq(searchedId), any());
+
+        // When
+        MvcResult result = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_NDJSON)).andReturn();
+        MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentAsString()).isEqualTo(
+                "{\"type\":\"vertex\",\"name\":\"v1\"}\n" +
+                "{\"type\":\"vertex\",\"name\":\"v2\"}\n" +
+                "{\"type\":\"edge\",\"source\":\"v1\",\"destination\":\"v2\",\"weight\":5}\n" +
+                "{\"type\":\"edge\",\"source\":\"v2\",\"destination\":\"v1\",\"weight\":10}\n");
+    }
+
+    @Test
+    public void streamGraphRespondsCorrectlyWhenGraphNotFound() throws Exception {
+        String searchedId = "asdf";
+        String exceptionMsg = String.format("Graph with id %s not found", searchedId);
+
+        // Given
+        given(graphRepository.findSerializedById(searchedId)).willThrow(new GraphNotFoundException(exceptionMsg));
+
+        // When
+        MockHttpServletResponse response = mockMvc.perform(get("/api/graphs/" + searchedId)
+                .accept(APPLICATION_NDJSON, MediaType.APPLICATION_JSON)).andReturn().getResponse();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(response.getContentAsString()).contains(exceptionMsg);
+    }
 }
@@ -0,0 +1,76 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class GraphEventListenerTest {
+
+    private GraphIdFilter graphIdFilter = new GraphIdFilter(true, 1000, 0.01);
+    private NegativeGraphCache negativeGraphCache = new NegativeGraphCache(60000L, 100);
+    private LocalGraphCache localGraphCache = new LocalGraphCache(new SimpleMeterRegistry(), 100, 10000);
+    private GraphSizeEstimates graphSizeEstimates = new GraphSizeEstimates(100);
+    private GraphReadHedger graphReadHedger = new GraphReadHedger(new RedisTemplate<>(), new SimpleMeterRegistry(),
+            true, 0.95, 5L, 1000, 1, "", 6379, 5000L, "", false);
+
+    private GraphEventListener listener = new GraphEventListener(mock(RedisMessageListenerContainer.class),
+            graphIdFilter, negativeGraphCache, localGraphCache, graphSizeEstimates, graphReadHedger);
+
+    private static DefaultMessage message(String channel, String graphId) {
+        return new DefaultMessage(channel.getBytes(StandardCharsets.UTF_8), graphId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void savedGraphIsNoLongerReportedAsMissing() {
+        // Given
+        graphIdFilter.markReady();
+        negativeGraphCache.add("asdf");
+
+        // When
+        listener.onMessage(message(GraphEventListener.GRAPH_SAVED_CHANNEL, "asdf"), null);
+
+        // Then
+        assertThat(graphIdFilter.mightContain("asdf")).isTrue();
+        assertThat(negativeGraphCache.contains("asdf")).isFalse();
+    }
+
+    @Test
+    public void savedGraphsAreReceivedWhenOnlyNegativeCacheIsEnabled() {
+        RedisMessageListenerContainer listenerContainer = mock(RedisMessageListenerContainer.class);
+
+        // When
+        new GraphEventListener(listenerContainer, new GraphIdFilter(false, 1000, 0.01), negativeGraphCache,
+                localGraphCache, graphSizeEstimates, graphReadHedger);
+
+        // Then
+        verify(listenerContainer).addMessageListener(any(GraphEventListener.class), eq(new ChannelTopic(GraphEventListener.GRAPH_SAVED_CHANNEL)));
+    }
+
+    @Test
+    public void invalidatedGraphIsDroppedFromLocalCaches() {
+        // Given
+        localGraphCache.put("asdf", new WeightedGraph<>());
+        graphSizeEstimates.record("asdf", 10);
+
+        // When
+        listener.onMessage(message(GraphEventListener.GRAPH_INVALIDATED_CHANNEL, "asdf"), null);
+
+        // Then
+        assertThat(localGraphCache.get("asdf")).isNull();
+        assertThat(graphSizeEstimates.getEdgeCount("asdf")).isNull();
+        assertThat(negativeGraphCache.contains("asdf")).isTrue();
+        assertThat(graphReadHedger.mightBeDeleted("asdf")).isTrue();
+    }
+}
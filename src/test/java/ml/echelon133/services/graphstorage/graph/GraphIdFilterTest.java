@@ -0,0 +1,70 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphIdFilterTest {
+
+    @Test
+    public void filterContainsEveryIdWhenNotReady() {
+        GraphIdFilter filter = new GraphIdFilter(true, 1000, 0.01);
+
+        // Then
+        assertThat(filter.mightContain("asdf")).isTrue();
+    }
+
+    @Test
+    public void filterContainsEveryIdWhenDisabled() {
+        GraphIdFilter filter = new GraphIdFilter(false, 1000, 0.01);
+
+        // When
+        filter.markReady();
+
+        // Then
+        assertThat(filter.mightContain("asdf")).isTrue();
+    }
+
+    @Test
+    public void filterHasNoFalseNegatives() {
+        GraphIdFilter filter = new GraphIdFilter(true, 1000, 0.01);
+        List<String> ids = new ArrayList<>();
+
+        // Given
+        for (int i = 0; i < 1000; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            filter.put(id);
+        }
+        filter.markReady();
+
+        // Then
+        ids.forEach(id -> assertThat(filter.mightContain(id)).isTrue());
+    }
+
+    @Test
+    public void filterRejectsMostUnknownIds() {
+        GraphIdFilter filter = new GraphIdFilter(true, 1000, 0.01);
+
+        // Given
+        for (int i = 0; i < 1000; i++) {
+            filter.put(UUID.randomUUID().toString());
+        }
+        filter.markReady();
+
+        // When
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(UUID.randomUUID().toString())) {
+                falsePositives++;
+            }
+        }
+
+        // Then (expected false positive rate is 1%, the assertion leaves a lot of room for randomness)
+        assertThat(falsePositives).isLessThan(500);
+    }
+}
@@ -0,0 +1,171 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Graph;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphIdSetTest {
+
+    @Mock
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    @Mock
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+
+    @Mock
+    private ColdGraphTier coldGraphTier;
+
+    @Mock
+    private RedisConnection connection;
+
+    @Mock
+    private Cursor<byte[]> idCursor;
+
+    @Mock
+    private Cursor<Map.Entry<byte[], byte[]>> graphCursor;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private GraphIdSet graphIdSet() {
+        return new GraphIdSet(vertexRedisTemplate, graphRedisTemplate, coldGraphTier);
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenStoredGraphs(String... graphIds) {
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getHashKeySerializer();
+        willAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection))
+                .given(graphRedisTemplate).execute(any(RedisCallback.class));
+        given(connection.hScan(aryEq(raw("DirectedGraph")), any(ScanOptions.class))).willReturn(graphCursor);
+
+        List<Boolean> hasNext = new ArrayList<>();
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>();
+        for (String graphId : graphIds) {
+            hasNext.add(true);
+            entries.add(new AbstractMap.SimpleEntry<>(raw(graphId), raw("{}")));
+        }
+        hasNext.add(false);
+        given(graphCursor.hasNext()).willReturn(hasNext.get(0), hasNext.subList(1, hasNext.size()).toArray(new Boolean[0]));
+        given(graphCursor.next()).willReturn(entries.get(0), entries.subList(1, entries.size()).toArray(new Map.Entry[0]));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void forEachGraphIdReadsIdsFromSetWhenItIsComplete() {
+        GraphIdSet graphIdSet = graphIdSet();
+        List<String> graphIds = new ArrayList<>();
+
+        // Given
+        given(vertexRedisTemplate.hasKey("DirectedGraphIdsComplete")).willReturn(true);
+        willAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection))
+                .given(vertexRedisTemplate).execute(any(RedisCallback.class));
+        given(connection.sScan(aryEq(raw("DirectedGraphIds")), any(ScanOptions.class))).willReturn(idCursor);
+        given(idCursor.hasNext()).willReturn(true, true, false);
+        given(idCursor.next()).willReturn(raw("asdf"), raw("qwer"));
+
+        // When
+        long count = graphIdSet.forEachGraphId(graphIds::add);
+
+        // Then
+        assertThat(count).isEqualTo(2L);
+        assertThat(graphIds.toString()).isEqualTo("[asdf, qwer]");
+        verify(graphRedisTemplate, never()).execute(any(RedisCallback.class));
+    }
+
+    @Test
+    public void forEachGraphIdReadsIdsFromStoredGraphsWhenSetIsNotComplete() {
+        GraphIdSet graphIdSet = graphIdSet();
+        List<String> graphIds = new ArrayList<>();
+
+        // Given
+        given(vertexRedisTemplate.hasKey("DirectedGraphIdsComplete")).willReturn(false);
+        givenStoredGraphs("asdf");
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        willAnswer(invocation -> {
+            invocation.<Consumer<String>>getArgument(0).accept("cold");
+            return 1L;
+        }).given(coldGraphTier).forEachGraphId(any());
+
+        // When
+        long count = graphIdSet.forEachGraphId(graphIds::add);
+
+        // Then
+        assertThat(count).isEqualTo(2L);
+        assertThat(graphIds.toString()).isEqualTo("[asdf, cold]");
+    }
+
+    @Test
+    public void backfillAddsIdsOfStoredGraphsAndMarksSetAsComplete() {
+        GraphIdSet graphIdSet = graphIdSet();
+
+        // Given
+        given(vertexRedisTemplate.hasKey("DirectedGraphIdsComplete")).willReturn(false);
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("DirectedGraphIdsBackfill"), anyString(), any(Duration.class))).willReturn(true);
+        given(vertexRedisTemplate.opsForSet()).willReturn(setOperations);
+        givenStoredGraphs("asdf", "qwer");
+
+        // When
+        graphIdSet.backfill();
+
+        // Then
+        verify(setOperations).add("DirectedGraphIds", "asdf", "qwer");
+        verify(valueOperations).set("DirectedGraphIdsComplete", "1");
+    }
+
+    @Test
+    public void backfillIsSkippedWhenAnotherInstanceBackfillsSet() {
+        GraphIdSet graphIdSet = graphIdSet();
+
+        // Given
+        given(vertexRedisTemplate.hasKey("DirectedGraphIdsComplete")).willReturn(false);
+        given(vertexRedisTemplate.opsForValue()).willReturn(valueOperations);
+        given(valueOperations.setIfAbsent(eq("DirectedGraphIdsBackfill"), anyString(), any(Duration.class))).willReturn(false);
+
+        // When
+        graphIdSet.backfill();
+
+        // Then
+        verify(vertexRedisTemplate, never()).opsForSet();
+        verify(valueOperations, never()).set(anyString(), anyString());
+    }
+}
@@ -0,0 +1,136 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphKeyspaceAnalyzerTest {
+
+    @Mock
+    private RedisTemplate<String, String> vertexRedisTemplate;
+
+    @Mock
+    private RedisTemplate<String, Graph<BigDecimal>> graphRedisTemplate;
+
+    @Mock
+    private RedisConnection connection;
+
+    @Mock
+    private GraphIdSet graphIdSet;
+
+    @Mock
+    private Cursor<Map.Entry<byte[], byte[]>> manifestCursor;
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private GraphKeyspaceAnalyzer analyzer(long minIntervalMillis) {
+        return new GraphKeyspaceAnalyzer(vertexRedisTemplate, graphRedisTemplate, graphIdSet, meterRegistry,
+                2, 0L, minIntervalMillis, 0L, 10, 1);
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map.Entry<byte[], byte[]> entry(String key, byte[] value) {
+        return new AbstractMap.SimpleEntry<>(raw(key), value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenCallbacksRunOnConnection() {
+        willAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection))
+                .given(vertexRedisTemplate).execute(any(RedisCallback.class));
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(graphRedisTemplate).getHashKeySerializer();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void scanReportsSizesOfGraphsAndVertexSets() {
+        GraphKeyspaceAnalyzer analyzer = analyzer(0L);
+
+        // Given
+        givenCallbacksRunOnConnection();
+        given(connection.hScan(aryEq(raw("DirectedGraphManifest")), any(ScanOptions.class))).willReturn(manifestCursor);
+        given(manifestCursor.hasNext()).willReturn(true, false);
+        given(manifestCursor.next()).willReturn(entry("chunked", raw("2:8")));
+
+        willAnswer(invocation -> {
+            Arrays.asList("small", "chunked", "empty", "cold").forEach(invocation.<Consumer<String>>getArgument(0));
+            return 4L;
+        }).given(graphIdSet).forEachGraphId(any());
+
+        // HSTRLEN and SCARD of every graph, followed by STRLEN of every chunk of a chunked graph
+        given(vertexRedisTemplate.executePipelined(any(RedisCallback.class))).willReturn(
+                Arrays.asList(10L, 3L, 2000L, 4L, 100L, 200L),
+                Arrays.asList(5L, 0L, 0L, 0L));
+        given(connection.execute(eq("MEMORY"), any(byte[].class), any(byte[].class))).willReturn(300L);
+
+        // When
+        GraphKeyspaceReport report = analyzer.scan();
+
+        // Then
+        // the cold graph is not in DirectedGraph
+        assertThat(report.getGraphCount()).isEqualTo(3);
+        assertThat(report.getChunkedGraphCount()).isEqualTo(1);
+        assertThat(report.getTotalGraphBytes()).isEqualTo(10 + 2000 + 100 + 200 + 5);
+        assertThat(report.getSizeDistribution().get("<1KB")).isEqualTo(2L);
+        assertThat(report.getSizeDistribution().get("<10KB")).isEqualTo(1L);
+        assertThat(report.getLargestGraphs().get(0).getId()).isEqualTo("chunked");
+        assertThat(report.getLargestGraphs().get(0).getBytes()).isEqualTo(2300L);
+        assertThat(report.getVertexSetMembers()).isEqualTo(7);
+        // the empty graph has no vertex set to sample
+        assertThat(report.getVertexSetSamples()).isEqualTo(2);
+        assertThat(report.getEstimatedVertexSetBytes()).isEqualTo(600L);
+        assertThat(report.getFinishedAt()).isNotNull();
+    }
+
+    @Test
+    public void scanCannotBeStartedAgainBeforeMinInterval() {
+        GraphKeyspaceAnalyzer analyzer = analyzer(3600000L);
+
+        // When
+        boolean firstStarted = analyzer.requestScan();
+        boolean secondStarted = analyzer.requestScan();
+        analyzer.shutdown();
+
+        // Then
+        assertThat(firstStarted).isTrue();
+        assertThat(secondStarted).isFalse();
+    }
+
+    @Test
+    public void gaugesAreEmptyBeforeFirstScan() {
+        // When
+        analyzer(0L);
+
+        // Then
+        assertThat(meterRegistry.get("graphs.storage.keyspace.graphs").gauge().value()).isNaN();
+    }
+}
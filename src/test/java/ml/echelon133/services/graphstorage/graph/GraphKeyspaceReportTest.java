@@ -0,0 +1,73 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphKeyspaceReportTest {
+
+    @Test
+    public void graphsAreCountedInSizeBuckets() {
+        GraphKeyspaceReport report = new GraphKeyspaceReport(5);
+
+        // When
+        report.addGraph("a", 10, 1, false);
+        report.addGraph("b", 1023, 1, false);
+        report.addGraph("c", 1024, 1, false);
+        report.addGraph("d", 20 * 1024 * 1024, 1, true);
+
+        // Then
+        Map<String, Long> distribution = report.getSizeDistribution();
+        assertThat(distribution.get("<1KB")).isEqualTo(2L);
+        assertThat(distribution.get("<10KB")).isEqualTo(1L);
+        assertThat(distribution.get(">=10MB")).isEqualTo(1L);
+        assertThat(report.getGraphCount()).isEqualTo(4);
+        assertThat(report.getChunkedGraphCount()).isEqualTo(1);
+        assertThat(report.getTotalGraphBytes()).isEqualTo(10 + 1023 + 1024 + 20 * 1024 * 1024);
+    }
+
+    @Test
+    public void onlyLargestGraphsAreKept() {
+        GraphKeyspaceReport report = new GraphKeyspaceReport(2);
+
+        // When
+        report.addGraph("small", 10, 1, false);
+        report.addGraph("large", 1000, 1, false);
+        report.addGraph("medium", 100, 1, false);
+        report.addGraph("tiny", 1, 1, false);
+
+        // Then
+        List<GraphKeyspaceReport.GraphSize> largest = report.getLargestGraphs();
+        assertThat(largest.size()).isEqualTo(2);
+        assertThat(largest.get(0).getId()).isEqualTo("large");
+        assertThat(largest.get(1).getId()).isEqualTo("medium");
+    }
+
+    @Test
+    public void vertexSetBytesAreExtrapolatedFromSamples() {
+        GraphKeyspaceReport report = new GraphKeyspaceReport(2);
+
+        // When
+        report.addGraph("a", 10, 10, false);
+        report.addGraph("b", 10, 30, false);
+        report.addVertexSetSample(10, 500);
+
+        // Then
+        assertThat(report.getVertexSetMembers()).isEqualTo(40);
+        assertThat(report.getEstimatedVertexSetBytes()).isEqualTo(2000L);
+    }
+
+    @Test
+    public void vertexSetBytesAreUnknownWithoutSamples() {
+        GraphKeyspaceReport report = new GraphKeyspaceReport(2);
+
+        // When
+        report.addGraph("a", 10, 10, false);
+
+        // Then
+        assertThat(report.getEstimatedVertexSetBytes()).isNull();
+    }
+}
@@ -0,0 +1,160 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphPopularityTrackerTest {
+
+    private static final byte[] RAW_POPULARITY_KEY = "GraphPopularity".getBytes(StandardCharsets.UTF_8);
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private RedisConnection connection;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    // flushing is only ever started manually in these tests
+    private GraphPopularityTracker tracker(boolean enabled, int maxPendingIds) {
+        return new GraphPopularityTracker(redisTemplate, enabled, 3600000L, maxPendingIds, 100);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenPipelineRunsOnConnection() {
+        willReturn(new StringRedisSerializer()).given(redisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(redisTemplate).getValueSerializer();
+        willAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return null;
+        }).given(redisTemplate).executePipelined(any(RedisCallback.class));
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void flushAddsCountedReadsToSortedSet() {
+        GraphPopularityTracker tracker = tracker(true, 100);
+
+        // Given
+        givenPipelineRunsOnConnection();
+
+        // When
+        tracker.recordRead("asdf");
+        tracker.recordRead("asdf");
+        tracker.recordRead("qwer");
+        tracker.flush();
+
+        // Then
+        verify(connection).zIncrBy(aryEq(RAW_POPULARITY_KEY), eq(2.0), aryEq(raw("asdf")));
+        verify(connection).zIncrBy(aryEq(RAW_POPULARITY_KEY), eq(1.0), aryEq(raw("qwer")));
+        verify(connection).zRemRange(aryEq(RAW_POPULARITY_KEY), eq(0L), eq(-101L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushDoesNotReachRedisWhenNothingWasRead() {
+        GraphPopularityTracker tracker = tracker(true, 100);
+
+        // When
+        tracker.flush();
+
+        // Then
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void readsAreCountedOnlyOnceBetweenFlushes() {
+        GraphPopularityTracker tracker = tracker(true, 100);
+
+        // Given
+        givenPipelineRunsOnConnection();
+
+        // When
+        tracker.recordRead("asdf");
+        tracker.flush();
+        tracker.recordRead("asdf");
+        tracker.flush();
+
+        // Then
+        verify(connection, times(2)).zIncrBy(aryEq(RAW_POPULARITY_KEY), eq(1.0), aryEq(raw("asdf")));
+    }
+
+    @Test
+    public void readsOfNewIdsAreIgnoredWhenTooManyIdsArePending() {
+        GraphPopularityTracker tracker = tracker(true, 1);
+
+        // Given
+        givenPipelineRunsOnConnection();
+
+        // When
+        tracker.recordRead("asdf");
+        tracker.recordRead("qwer");
+        tracker.recordRead("asdf");
+        tracker.flush();
+
+        // Then
+        verify(connection).zIncrBy(aryEq(RAW_POPULARITY_KEY), eq(2.0), aryEq(raw("asdf")));
+        verify(connection, never()).zIncrBy(aryEq(RAW_POPULARITY_KEY), anyDouble(), aryEq(raw("qwer")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void disabledTrackerDoesNotCountReads() {
+        GraphPopularityTracker tracker = tracker(false, 100);
+
+        // When
+        tracker.recordRead("asdf");
+        tracker.flush();
+
+        // Then
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void findMostReadReturnsIdsWithHighestScores() {
+        GraphPopularityTracker tracker = tracker(true, 100);
+        Set<String> mostRead = new LinkedHashSet<>();
+        mostRead.add("asdf");
+        mostRead.add("qwer");
+
+        // Given
+        given(redisTemplate.opsForZSet()).willReturn(zSetOperations);
+        given(zSetOperations.reverseRange("GraphPopularity", 0, 1)).willReturn(mostRead);
+
+        // When
+        Set<String> graphIds = tracker.findMostRead(2);
+
+        // Then
+        assertThat(graphIds).isEqualTo(mostRead);
+        assertThat(tracker.findMostRead(0)).isEqualTo(Collections.emptySet());
+    }
+}
@@ -0,0 +1,157 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphReadCoalescerTest {
+
+    private static final int CONCURRENT_READS = 8;
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Starts concurrent reads of the same graph, all of them are started before the first read is allowed to finish
+    private List<Future<Object>> readConcurrently(GraphReadCoalescer coalescer, GraphReadCoalescer.GraphRead read,
+                                                  CountDownLatch readsStarted) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_READS);
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_READS; i++) {
+            results.add(executor.submit(() -> {
+                readsStarted.countDown();
+                try {
+                    return coalescer.read("asdf", read);
+                } catch (GraphNotFoundException ex) {
+                    return ex;
+                }
+            }));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        return results;
+    }
+
+    @Test
+    public void concurrentReadsOfSameGraphShareSingleRead() throws Exception {
+        GraphReadCoalescer coalescer = new GraphReadCoalescer(meterRegistry, true, 5000L);
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        AtomicInteger readCount = new AtomicInteger();
+        CountDownLatch readsStarted = new CountDownLatch(CONCURRENT_READS);
+
+        // When
+        List<Future<Object>> results = readConcurrently(coalescer, () -> {
+            readCount.incrementAndGet();
+            try {
+                // the first read lasts until every request asked for the graph
+                readsStarted.await(5, TimeUnit.SECONDS);
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            return graph;
+        }, readsStarted);
+
+        // Then
+        assertThat(readCount.get()).isEqualTo(1);
+        for (Future<Object> result : results) {
+            assertThat(result.get()).isSameAs(graph);
+        }
+        assertThat(meterRegistry.get("graphs.storage.reads.coalesced").counter().count()).isEqualTo(CONCURRENT_READS - 1.0);
+    }
+
+    @Test
+    public void waitingReadsReceiveSameException() throws Exception {
+        GraphReadCoalescer coalescer = new GraphReadCoalescer(meterRegistry, true, 5000L);
+        GraphNotFoundException notFound = new GraphNotFoundException("Graph with id asdf not found");
+        CountDownLatch readsStarted = new CountDownLatch(CONCURRENT_READS);
+
+        // When
+        List<Future<Object>> results = readConcurrently(coalescer, () -> {
+            try {
+                readsStarted.await(5, TimeUnit.SECONDS);
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            throw notFound;
+        }, readsStarted);
+
+        // Then
+        for (Future<Object> result : results) {
+            assertThat(result.get()).isSameAs(notFound);
+        }
+    }
+
+    @Test
+    public void sequentialReadsAreNotCached() throws Exception {
+        GraphReadCoalescer coalescer = new GraphReadCoalescer(meterRegistry, true, 5000L);
+        AtomicInteger readCount = new AtomicInteger();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            coalescer.read("asdf", () -> {
+                readCount.incrementAndGet();
+                return new WeightedGraph<>();
+            });
+        }
+
+        // Then
+        assertThat(readCount.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void disabledCoalescerReadsEveryTime() throws Exception {
+        GraphReadCoalescer coalescer = new GraphReadCoalescer(meterRegistry, false, 5000L);
+        AtomicInteger readCount = new AtomicInteger();
+        CountDownLatch readsStarted = new CountDownLatch(CONCURRENT_READS);
+
+        // When
+        readConcurrently(coalescer, () -> {
+            readCount.incrementAndGet();
+            return new WeightedGraph<>();
+        }, readsStarted);
+
+        // Then
+        assertThat(readCount.get()).isEqualTo(CONCURRENT_READS);
+    }
+
+    @Test
+    public void waitingReadReadsGraphItselfWhenInFlightReadTimesOut() throws Exception {
+        GraphReadCoalescer coalescer = new GraphReadCoalescer(meterRegistry, true, 50L);
+        Graph<BigDecimal> ownGraph = new WeightedGraph<>();
+        CountDownLatch stuckReadStarted = new CountDownLatch(1);
+        CountDownLatch stuckReadRelease = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // Given
+        executor.submit(() -> coalescer.read("asdf", () -> {
+            stuckReadStarted.countDown();
+            try {
+                stuckReadRelease.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return new WeightedGraph<>();
+        }));
+        stuckReadStarted.await(5, TimeUnit.SECONDS);
+
+        // When
+        Graph<BigDecimal> result = coalescer.read("asdf", () -> ownGraph);
+
+        // Then
+        stuckReadRelease.countDown();
+        executor.shutdown();
+        assertThat(result).isSameAs(ownGraph);
+        assertThat(meterRegistry.get("graphs.storage.reads.coalesced.timeouts").counter().count()).isEqualTo(1.0);
+    }
+}
@@ -0,0 +1,293 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.jfr.GraphOperationEvent;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.catchThrowable;
+
+public class GraphReadHedgerTest {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private CountDownLatch slowReadRelease = new CountDownLatch(1);
+    private GraphReadHedger hedger;
+
+    @After
+    public void after() {
+        slowReadRelease.countDown();
+        if (hedger != null) {
+            hedger.shutdown();
+        }
+    }
+
+    private GraphReadHedger hedger(boolean enabled, long minDelayMillis) {
+        hedger = new GraphReadHedger(new RedisTemplate<>(), meterRegistry, enabled, 0.5, minDelayMillis, 4, 4, "", 6379, 5000L, "", false);
+        return hedger;
+    }
+
+    // the window of 4 reads is full after 4 latencies, then the delay is known
+    private static void measureReads(GraphReadHedger hedger, long millis) {
+        for (int i = 0; i < 4; i++) {
+            hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private GraphReadCoalescer.GraphRead slowRead(Graph<BigDecimal> graph) {
+        return () -> {
+            await(slowReadRelease);
+            return graph;
+        };
+    }
+
+    private double count(String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    @Test
+    public void disabledHedgerReadsOnlyFromPrimary() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        GraphReadHedger hedger = hedger(false, 5);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", () -> graph, () -> {
+            throw new AssertionError("Hedged read of a disabled hedger");
+        });
+
+        // Then
+        assertThat(result).isEqualTo(graph);
+        assertThat(count("graphs.storage.hedge.reads")).isEqualTo(0.0);
+    }
+
+    @Test
+    public void readsAreNotHedgedBeforeLatenciesAreMeasured() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        GraphReadHedger hedger = hedger(true, 0);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", () -> {
+            sleep(20);
+            return graph;
+        }, () -> new WeightedGraph<>());
+
+        // Then
+        assertThat(result).isEqualTo(graph);
+        assertThat(count("graphs.storage.hedge.hedged")).isEqualTo(0.0);
+    }
+
+    @Test
+    public void hedgeDelayIsPercentileOfMeasuredLatencies() {
+        GraphReadHedger hedger = hedger(true, 1);
+
+        // When
+        hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(2));
+        hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(40));
+        hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(3));
+        hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+
+        // Then
+        assertThat(hedger.getHedgeDelayMillis()).isEqualTo(3.0);
+    }
+
+    @Test
+    public void hedgeDelayIsNeverShorterThanMinDelay() {
+        GraphReadHedger hedger = hedger(true, 5);
+
+        // When
+        measureReads(hedger, 1);
+
+        // Then
+        assertThat(hedger.getHedgeDelayMillis()).isEqualTo(5.0);
+    }
+
+    @Test
+    public void fastPrimaryReadIsNotHedged() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        GraphReadHedger hedger = hedger(true, 1000);
+        measureReads(hedger, 1);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", () -> graph, () -> {
+            throw new AssertionError("Hedged read of a fast read");
+        });
+
+        // Then
+        assertThat(result).isEqualTo(graph);
+        assertThat(count("graphs.storage.hedge.reads")).isEqualTo(1.0);
+        assertThat(count("graphs.storage.hedge.hedged")).isEqualTo(0.0);
+    }
+
+    @Test
+    public void hedgedReadWinsWhenPrimaryIsSlow() throws Exception {
+        Graph<BigDecimal> hedgedGraph = new WeightedGraph<>();
+        GraphReadHedger hedger = hedger(true, 1);
+        measureReads(hedger, 1);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", slowRead(new WeightedGraph<>()), () -> hedgedGraph);
+
+        // Then
+        assertThat(result).isEqualTo(hedgedGraph);
+        assertThat(count("graphs.storage.hedge.hedged")).isEqualTo(1.0);
+        assertThat(count("graphs.storage.hedge.wins")).isEqualTo(1.0);
+    }
+
+    @Test
+    public void hedgedReadWithoutGraphDoesNotWin() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        GraphReadHedger hedger = hedger(true, 1);
+        measureReads(hedger, 1);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", () -> {
+            sleep(50);
+            return graph;
+        }, () -> null);
+
+        // Then
+        assertThat(result).isEqualTo(graph);
+        assertThat(count("graphs.storage.hedge.hedged")).isEqualTo(1.0);
+        assertThat(count("graphs.storage.hedge.wins")).isEqualTo(0.0);
+    }
+
+    @Test
+    public void hedgedReadWinsWhenSlowPrimaryFails() throws Exception {
+        Graph<BigDecimal> hedgedGraph = new WeightedGraph<>();
+        CountDownLatch hedgeStarted = new CountDownLatch(1);
+        GraphReadHedger hedger = hedger(true, 1);
+        measureReads(hedger, 1);
+
+        // When
+        Graph<BigDecimal> result = hedger.read("asdf", () -> {
+            await(hedgeStarted);
+            throw new RedisConnectionFailureException("Cannot get Jedis connection");
+        }, () -> {
+            hedgeStarted.countDown();
+            sleep(20);
+            return hedgedGraph;
+        });
+
+        // Then
+        assertThat(result).isEqualTo(hedgedGraph);
+        assertThat(count("graphs.storage.hedge.wins")).isEqualTo(1.0);
+    }
+
+    @Test
+    public void primaryFailureIsThrownWhenHedgedReadHasNoGraph() {
+        GraphReadHedger hedger = hedger(true, 1);
+        measureReads(hedger, 1);
+
+        // When
+        Throwable thrown = catchThrowable(() -> hedger.read("asdf", () -> {
+            sleep(50);
+            throw new RedisConnectionFailureException("Cannot get Jedis connection");
+        }, () -> null));
+
+        // Then
+        assertThat(thrown).isInstanceOf(RedisConnectionFailureException.class);
+    }
+
+    @Test
+    public void graphNotFoundExceptionOfPrimaryIsThrown() {
+        GraphReadHedger hedger = hedger(true, 1000);
+        measureReads(hedger, 1);
+
+        // When
+        Throwable thrown = catchThrowable(() -> hedger.read("asdf", () -> {
+            throw new GraphNotFoundException("Graph with id asdf not found");
+        }, () -> null));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+    }
+
+    @Test
+    public void findOnReplicaReturnsNullWithoutReplica() {
+        GraphReadHedger hedger = hedger(true, 5);
+
+        // When
+        Graph<BigDecimal> graph = hedger.findOnReplica("asdf");
+
+        // Then
+        assertThat(graph).isNull();
+    }
+
+    @Test
+    public void recentlyDeletedGraphMightBeDeleted() {
+        GraphReadHedger hedger = hedger(true, 5);
+
+        // When
+        hedger.recordDeletion("asdf");
+
+        // Then
+        assertThat(hedger.mightBeDeleted("asdf")).isTrue();
+        assertThat(hedger.mightBeDeleted("qwer")).isFalse();
+    }
+
+    @Test
+    public void disabledHedgerDoesNotRememberDeletions() {
+        GraphReadHedger hedger = hedger(false, 5);
+
+        // When
+        hedger.recordDeletion("asdf");
+
+        // Then
+        assertThat(hedger.mightBeDeleted("asdf")).isFalse();
+    }
+
+    @Test
+    public void operationEventOfCallingThreadIsAttachedToReads() throws Exception {
+        GraphOperationEvent event = new GraphOperationEvent();
+        AtomicReference<GraphOperationEvent> primaryEvent = new AtomicReference<>();
+        AtomicReference<GraphOperationEvent> hedgedEvent = new AtomicReference<>();
+        GraphReadHedger hedger = hedger(true, 1);
+        measureReads(hedger, 1);
+
+        // Given
+        GraphOperationEvent.attach(event);
+
+        // When
+        try {
+            hedger.read("asdf", () -> {
+                primaryEvent.set(GraphOperationEvent.current());
+                sleep(50);
+                return new WeightedGraph<>();
+            }, () -> {
+                hedgedEvent.set(GraphOperationEvent.current());
+                return new WeightedGraph<>();
+            });
+        } finally {
+            GraphOperationEvent.detach();
+        }
+
+        // Then
+        assertThat(primaryEvent.get()).isSameAs(event);
+        assertThat(hedgedEvent.get()).isSameAs(event);
+    }
+}
@@ -1,22 +1,39 @@
 package ml.echelon133.services.graphstorage.graph;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
 import ml.echelon133.graph.WeightedGraph;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.assertj.core.api.AssertionsForClassTypes.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -31,6 +48,40 @@ public class GraphRepositoryTest {
     @Mock
     private HashOperations<String, String, Graph<BigDecimal>> hashOperations;
 
+    @Spy
+    private GraphIdFilter graphIdFilter = new GraphIdFilter(true, 1000, 0.01);
+
+    @Spy
+    private NegativeGraphCache negativeGraphCache = new NegativeGraphCache(60000L, 100);
+
+    @Mock
+    private ChunkedGraphStore chunkedGraphStore;
+
+    @Spy
+    private GraphSizeEstimates graphSizeEstimates = new GraphSizeEstimates(100);
+
+    @Spy
+    private GraphReadCoalescer graphReadCoalescer = new GraphReadCoalescer(new SimpleMeterRegistry(), true, 5000L);
+
+    @Spy
+    private LocalGraphCache localGraphCache = new LocalGraphCache(new SimpleMeterRegistry(), 100, 10000);
+
+    @Mock
+    private ColdGraphTier coldGraphTier;
+
+    @Mock
+    private ReachabilityIndexStore reachabilityIndexStore;
+
+    @Spy
+    private GraphReadHedger graphReadHedger = new GraphReadHedger(new RedisTemplate<>(), new SimpleMeterRegistry(),
+            false, 0.95, 5L, 1000, 32, "", 6379, 5000L, "", false);
+
+    @Mock
+    private GraphIdSet graphIdSet;
+
+    @Mock
+    private RedisConnection redisConnection;
+
     @InjectMocks
     private GraphRepository graphRepository;
 
@@ -162,4 +213,616 @@ public class GraphRepositoryTest {
         // Then
         assertThat(result).isFalse();
     }
+
+    @Test
+    public void findByIdDoesNotQueryRedisWhenIdFilterRejectsId() {
+        String searchedId = "asdf";
+        String expectedMsg = "Graph with id asdf not found";
+        String receivedMsg = "";
+
+        // Given
+        graphIdFilter.markReady();
+
+        // When
+        try {
+            graphRepository.findById(searchedId);
+        } catch (GraphNotFoundException ex) {
+            receivedMsg = ex.getMessage();
+        }
+
+        // Then
+        assertThat(receivedMsg).isEqualTo(expectedMsg);
+        verify(hashOperations, never()).hasKey(anyString(), anyString());
+    }
+
+    @Test
+    public void findByIdQueriesRedisWhenIdFilterContainsId() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        graphIdFilter.put(searchedId);
+        graphIdFilter.markReady();
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+
+        // When
+        Graph<BigDecimal> retrievedGraph = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(retrievedGraph).isEqualTo(graph);
+    }
+
+    @Test
+    public void findByIdCachesMissesOfGraphs() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(false);
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            try {
+                graphRepository.findById(searchedId);
+            } catch (GraphNotFoundException ignored) {
+            }
+        }
+
+        // Then
+        verify(hashOperations, times(1)).hasKey(eq("DirectedGraph"), eq(searchedId));
+    }
+
+    @Test
+    public void findByIdDoesNotCacheMissOfGraphSavedDuringLookup() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willAnswer(invocation -> {
+            // another instance saves the graph after it was looked up, but before the miss is cached
+            negativeGraphCache.remove(searchedId);
+            return false;
+        });
+
+        // When
+        try {
+            graphRepository.findById(searchedId);
+        } catch (GraphNotFoundException ignored) {
+        }
+
+        // Then
+        assertThat(negativeGraphCache.contains(searchedId)).isFalse();
+    }
+
+    @Test
+    public void saveAddsIdToIdFilter() {
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), anyString())).willReturn(true);
+        graphIdFilter.markReady();
+
+        // When
+        String response = graphRepository.save(new WeightedGraph<>());
+
+        // Then
+        assertThat(graphIdFilter.mightContain(response)).isTrue();
+    }
+
+    @Test
+    public void saveStoresLargeGraphInChunks() {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        Graph<BigDecimal> graphWithoutEdges = new WeightedGraph<>();
+
+        // Given
+        given(chunkedGraphStore.shouldChunk(graph)).willReturn(true);
+        given(chunkedGraphStore.withoutEdges(graph)).willReturn(graphWithoutEdges);
+        given(hashOperations.hasKey(eq("DirectedGraph"), anyString())).willReturn(true);
+
+        // When
+        String response = graphRepository.save(graph);
+
+        // Then
+        assertThat(response).isNotNull();
+        verify(chunkedGraphStore, times(1)).saveChunks(eq(response), eq(graph));
+        verify(hashOperations, times(1)).put(eq("DirectedGraph"), eq(response), eq(graphWithoutEdges));
+    }
+
+    @Test
+    public void findByIdReadsEdgesOfChunkedGraph() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        ChunkedGraphStore.Manifest manifest = new ChunkedGraphStore.Manifest(2, 10000);
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+        given(chunkedGraphStore.mightBeChunked(graph)).willReturn(true);
+        given(chunkedGraphStore.findManifest(searchedId)).willReturn(manifest);
+
+        // When
+        Graph<BigDecimal> retrievedGraph = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(retrievedGraph).isEqualTo(graph);
+        verify(chunkedGraphStore, times(1)).readChunks(eq(searchedId), eq(manifest), eq(graph));
+    }
+
+    @Test
+    public void findByIdDoesNotLookForManifestOfGraphWithEdges() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+        given(chunkedGraphStore.mightBeChunked(graph)).willReturn(false);
+
+        // When
+        graphRepository.findById(searchedId);
+
+        // Then
+        verify(chunkedGraphStore, never()).findManifest(anyString());
+    }
+
+    @Test
+    public void findByIdRecordsEdgeCountOfGraph() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        graph.addEdge(graph.findVertex("v1"), graph.findVertex("v1"), new BigDecimal(1));
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+
+        // When
+        graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(graphSizeEstimates.getEdgeCount(searchedId)).isEqualTo(1);
+    }
+
+    @Test
+    public void findByIdPutsReadGraphIntoLocalCache() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+
+        // When
+        graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(localGraphCache.get(searchedId)).isEqualTo(graph);
+    }
+
+    @Test
+    public void findByIdDoesNotQueryRedisWhenGraphIsCachedLocally() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        localGraphCache.put(searchedId, graph);
+
+        // When
+        Graph<BigDecimal> retrievedGraph = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(retrievedGraph).isEqualTo(graph);
+        verify(hashOperations, never()).hasKey(anyString(), anyString());
+        verify(hashOperations, never()).get(anyString(), anyString());
+    }
+
+    // Runs the pipelined callback on redisConnection, the pipeline returns given results
+    @SuppressWarnings("unchecked")
+    private void givenPipelineReturns(List<Object> results) {
+        willReturn(new StringRedisSerializer()).given(redisTemplate).getKeySerializer();
+        willReturn(new StringRedisSerializer()).given(redisTemplate).getValueSerializer();
+        willReturn(new StringRedisSerializer()).given(redisTemplate).getHashKeySerializer();
+        willAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(redisConnection);
+            return results;
+        }).given(redisTemplate).executePipelined(any(RedisCallback.class));
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void deleteByIdRemovesGraphAndPublishesInvalidation() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        givenPipelineReturns(Arrays.asList(1L, 1L, 1L));
+        localGraphCache.put(searchedId, new WeightedGraph<>());
+        graphSizeEstimates.record(searchedId, 10);
+
+        // When
+        graphRepository.deleteById(searchedId);
+
+        // Then
+        verify(redisConnection).hDel(aryEq(raw("DirectedGraph")), aryEq(raw(searchedId)));
+        verify(redisConnection).unlink(aryEq(raw(searchedId)));
+        verify(redisConnection).publish(aryEq(raw("graphs:invalidated")), aryEq(raw(searchedId)));
+        verify(chunkedGraphStore, never()).unlinkChunks(any(), anyString(), any());
+        assertThat(localGraphCache.get(searchedId)).isNull();
+        assertThat(graphSizeEstimates.getEdgeCount(searchedId)).isNull();
+        assertThat(negativeGraphCache.contains(searchedId)).isTrue();
+    }
+
+    @Test
+    public void deleteByIdUnlinksChunksOfChunkedGraph() throws Exception {
+        String searchedId = "asdf";
+        ChunkedGraphStore.Manifest manifest = new ChunkedGraphStore.Manifest(2, 8);
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(chunkedGraphStore.findManifest(searchedId)).willReturn(manifest);
+        givenPipelineReturns(Arrays.asList(1L, 1L, 2L, 1L, 1L));
+
+        // When
+        graphRepository.deleteById(searchedId);
+
+        // Then
+        verify(chunkedGraphStore).unlinkChunks(redisConnection, searchedId, manifest);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deleteByIdThrowsGraphNotFoundExceptionWhenGraphIsNotFound() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(false);
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.deleteById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void deleteByIdThrowsGraphNotFoundExceptionWhenGraphWasDeletedConcurrently() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        givenPipelineReturns(Arrays.asList(0L, 0L, 1L));
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.deleteById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+    }
+
+    @Test
+    public void loadGraphIdFilterReadsIdsFromGraphIdSet() {
+        // Given
+        willAnswer(invocation -> {
+            invocation.<Consumer<String>>getArgument(0).accept("asdf");
+            return 1L;
+        }).given(graphIdSet).forEachGraphId(any());
+
+        // When
+        graphRepository.loadGraphIdFilter();
+
+        // Then
+        assertThat(graphIdFilter.isReady()).isTrue();
+        assertThat(graphIdFilter.mightContain("asdf")).isTrue();
+    }
+
+    @Test
+    public void deleteByIdRemovesHotGraphWhenColdTierIsEnabled() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(coldGraphTier.contains(searchedId)).willReturn(false);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        // HDEL from DirectedGraph, HDEL from the index, ZREM, UNLINK and PUBLISH
+        givenPipelineReturns(Arrays.asList(1L, 0L, 0L, 1L, 1L));
+
+        // When
+        graphRepository.deleteById(searchedId);
+
+        // Then
+        verify(coldGraphTier).forget(redisConnection, searchedId);
+        assertThat(negativeGraphCache.contains(searchedId)).isTrue();
+    }
+
+    @Test
+    public void deleteByIdForgetsColdGraphWithoutPromotingIt() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(coldGraphTier.contains(searchedId)).willReturn(true);
+        // HDEL from DirectedGraph, HDEL from the index, ZREM, UNLINK and PUBLISH
+        givenPipelineReturns(Arrays.asList(0L, 1L, 1L, 0L, 1L));
+
+        // When
+        graphRepository.deleteById(searchedId);
+
+        // Then
+        verify(coldGraphTier).forget(redisConnection, searchedId);
+        verify(coldGraphTier, never()).promote(anyString());
+        verify(hashOperations, never()).hasKey(anyString(), anyString());
+        assertThat(negativeGraphCache.contains(searchedId)).isTrue();
+    }
+
+    @Test
+    public void findByIdRecordsAccessOfCachedGraphWhenColdTierIsEnabled() throws Exception {
+        String searchedId = "asdf";
+        localGraphCache.put(searchedId, new WeightedGraph<>());
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+
+        // When
+        graphRepository.findById(searchedId);
+
+        // Then
+        verify(coldGraphTier).recordAccess(searchedId);
+    }
+
+    @Test
+    public void findByIdDoesNotCacheGraphReadBeforeInvalidation() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willAnswer(invocation -> {
+            // the graph is deleted by another request while it is being read
+            localGraphCache.invalidate(searchedId);
+            return graph;
+        });
+
+        // When
+        graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(localGraphCache.get(searchedId)).isNull();
+    }
+
+    @Test
+    public void findByIdPromotesGraphFromColdTier() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(false);
+        given(coldGraphTier.promote(searchedId)).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+
+        // When
+        Graph<BigDecimal> response = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(response).isEqualTo(graph);
+        assertThat(negativeGraphCache.contains(searchedId)).isFalse();
+    }
+
+    @Test
+    public void findByIdPromotesGraphMigratedAfterItWasFound() throws Exception {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        // the migrator moves the graph between HEXISTS and HGET
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(null, graph);
+        given(coldGraphTier.promote(searchedId)).willReturn(true);
+
+        // When
+        Graph<BigDecimal> response = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(response).isEqualTo(graph);
+    }
+
+    @Test
+    public void findByIdThrowsGraphNotFoundExceptionWhenGraphIsDeletedAfterItWasFound() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(null);
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.findById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+    }
+
+    @Test
+    public void findByIdCachesMissOfGraphThatIsNotInColdTier() {
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(false);
+        given(coldGraphTier.promote(searchedId)).willReturn(false);
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.findById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+        assertThat(negativeGraphCache.contains(searchedId)).isTrue();
+    }
+
+    @Test
+    public void graphHasVertexRecordsReadFromRedisWhenColdTierIsEnabled() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(coldGraphTier.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(setOperations.isMember(searchedId, "v1")).willReturn(true);
+
+        // When
+        graphRepository.graphHasVertex(searchedId, "v1");
+
+        // Then
+        verify(coldGraphTier).recordRedisRead(searchedId);
+        verify(coldGraphTier, never()).promote(anyString());
+    }
+
+    @Test
+    public void saveStoresReachabilityIndexWhenEnabled() {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+
+        // Given
+        given(reachabilityIndexStore.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), anyString())).willReturn(true);
+
+        // When
+        String response = graphRepository.save(graph);
+
+        // Then
+        verify(reachabilityIndexStore).saveIndex(eq(response), eq(graph));
+    }
+
+    @Test
+    public void isReachableIsAnsweredByReachabilityIndex() throws Exception {
+        String searchedId = "asdf";
+
+        // Given
+        given(reachabilityIndexStore.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(reachabilityIndexStore.isReachable(searchedId, "v1", "v2")).willReturn(true);
+
+        // When
+        boolean reachable = graphRepository.isReachable(searchedId, "v1", "v2");
+
+        // Then
+        assertThat(reachable).isTrue();
+        verify(hashOperations, never()).get(anyString(), anyString());
+    }
+
+    @Test
+    public void isReachableReadsGraphWhenItHasNoReachabilityIndex() throws Exception {
+        String searchedId = "asdf";
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        graph.addVertex(new Vertex<>("v2"));
+        graph.addEdge(graph.findVertex("v1"), graph.findVertex("v2"), new BigDecimal(5));
+
+        // Given
+        given(reachabilityIndexStore.isEnabled()).willReturn(true);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(true);
+        given(hashOperations.get(eq("DirectedGraph"), eq(searchedId))).willReturn(graph);
+
+        // When
+        boolean forward = graphRepository.isReachable(searchedId, "v1", "v2");
+        boolean backward = graphRepository.isReachable(searchedId, "v2", "v1");
+
+        // Then
+        assertThat(forward).isTrue();
+        assertThat(backward).isFalse();
+    }
+
+    @Test
+    public void isReachableThrowsGraphNotFoundExceptionWhenGraphIsNotFound() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willReturn(false);
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.isReachable(searchedId, "v1", "v2"));
+
+        // Then
+        assertThat(thrown).isInstanceOf(GraphNotFoundException.class);
+        verify(reachabilityIndexStore, never()).isReachable(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void findByIdServesGraphFromReplicaWhenRedisIsUnavailable() throws Exception {
+        String searchedId = "asdf";
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+
+        // Given
+        willReturn(true).given(graphReadHedger).isDegradedEnabled();
+        willReturn(graph).given(graphReadHedger).findOnReplica(searchedId);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willThrow(new RedisConnectionFailureException("Cannot get Jedis connection"));
+
+        // When
+        Graph<BigDecimal> retrievedGraph = graphRepository.findById(searchedId);
+
+        // Then
+        assertThat(retrievedGraph).isEqualTo(graph);
+        verify(graphReadHedger).recordStaleRead();
+    }
+
+    @Test
+    public void findByIdRethrowsRedisFailureWhenThereIsNoStaleCopy() {
+        String searchedId = "asdf";
+
+        // Given
+        willReturn(true).given(graphReadHedger).isDegradedEnabled();
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willThrow(new RedisConnectionFailureException("Cannot get Jedis connection"));
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.findById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(RedisConnectionFailureException.class);
+        verify(graphReadHedger, never()).recordStaleRead();
+    }
+
+    @Test
+    public void findByIdRethrowsRedisFailureWhenDegradedModeIsDisabled() {
+        String searchedId = "asdf";
+
+        // Given
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willThrow(new RedisConnectionFailureException("Cannot get Jedis connection"));
+
+        // When
+        Throwable thrown = catchThrowable(() -> graphRepository.findById(searchedId));
+
+        // Then
+        assertThat(thrown).isInstanceOf(RedisConnectionFailureException.class);
+        verify(graphReadHedger, never()).findOnReplica(anyString());
+    }
+
+    @Test
+    public void graphHasVertexIsAnsweredByCachedGraphWhenRedisIsUnavailable() throws Exception {
+        String searchedId = "asdf";
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+
+        // Given
+        willReturn(true).given(graphReadHedger).isDegradedEnabled();
+        localGraphCache.put(searchedId, graph);
+        given(hashOperations.hasKey(eq("DirectedGraph"), eq(searchedId))).willThrow(new RedisConnectionFailureException("Cannot get Jedis connection"));
+
+        // When
+        Boolean containsV1 = graphRepository.graphHasVertex(searchedId, "v1");
+        Boolean containsV2 = graphRepository.graphHasVertex(searchedId, "v2");
+
+        // Then
+        assertThat(containsV1).isTrue();
+        assertThat(containsV2).isFalse();
+        verify(graphReadHedger, never()).findOnReplica(anyString());
+    }
+
+    @Test
+    public void graphNotFoundExceptionHasNoStackTrace() {
+        // When
+        GraphNotFoundException ex = new GraphNotFoundException("Graph with id asdf not found");
+
+        // Then
+        assertThat(ex.getStackTrace()).isEmpty();
+    }
 }
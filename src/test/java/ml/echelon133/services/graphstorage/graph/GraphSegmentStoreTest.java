@@ -0,0 +1,118 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphSegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphSegmentStore store(long maxSegmentBytes) {
+        return new GraphSegmentStore(folder.getRoot().getAbsolutePath(), maxSegmentBytes);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void appendedGraphsCanBeRead() throws Exception {
+        GraphSegmentStore store = store(1024L);
+
+        // When
+        GraphSegmentStore.Location first = store.append("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        GraphSegmentStore.Location second = store.append("{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+        store.sync();
+
+        // Then
+        assertThat(text(store.read(first))).isEqualTo("{\"a\":1}");
+        assertThat(text(store.read(second))).isEqualTo("{\"b\":2}");
+        assertThat(second.getOffset()).isEqualTo(first.getOffset() + first.getLength() + 4);
+    }
+
+    @Test
+    public void newSegmentIsStartedWhenRecordDoesNotFit() throws Exception {
+        GraphSegmentStore store = store(20L);
+
+        // When
+        GraphSegmentStore.Location first = store.append(new byte[10]);
+        GraphSegmentStore.Location second = store.append(new byte[10]);
+
+        // Then
+        assertThat(first.getSegment()).isEqualTo(0);
+        assertThat(second.getSegment()).isEqualTo(1);
+        assertThat(second.getOffset()).isEqualTo(4L);
+    }
+
+    @Test
+    public void appendContinuesInLastSegmentAfterRelease() throws Exception {
+        GraphSegmentStore store = store(20L);
+        store.append(new byte[10]);
+        store.append(new byte[10]);
+        store.release();
+
+        // When
+        GraphSegmentStore.Location location = store(1024L).append("{}".getBytes(StandardCharsets.UTF_8));
+
+        // Then
+        assertThat(location.getSegment()).isEqualTo(1);
+        assertThat(location.getOffset()).isEqualTo(18L);
+        assertThat(text(store.read(location))).isEqualTo("{}");
+    }
+
+    @Test
+    public void appendDoesNotOverwriteRecordsOfAnotherWriter() throws Exception {
+        GraphSegmentStore store = store(1024L);
+        GraphSegmentStore otherStore = store(1024L);
+        store.append("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+
+        // When
+        GraphSegmentStore.Location other = otherStore.append("{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+        GraphSegmentStore.Location location = store.append("{\"c\":3}".getBytes(StandardCharsets.UTF_8));
+
+        // Then
+        assertThat(location.getOffset()).isEqualTo(other.getOffset() + other.getLength() + 4);
+        assertThat(text(store.read(other))).isEqualTo("{\"b\":2}");
+        assertThat(text(store.read(location))).isEqualTo("{\"c\":3}");
+    }
+
+    @Test
+    public void locationIsParsedFromItsFormat() {
+        // When
+        GraphSegmentStore.Location location = GraphSegmentStore.Location.parse(new GraphSegmentStore.Location(3, 100L, 42).format());
+
+        // Then
+        assertThat(location.getSegment()).isEqualTo(3);
+        assertThat(location.getOffset()).isEqualTo(100L);
+        assertThat(location.getLength()).isEqualTo(42);
+    }
+
+    @Test
+    public void compactedSegmentIsDeletedAfterGracePeriod() throws Exception {
+        GraphSegmentStore store = store(20L);
+        GraphSegmentStore.Location first = store.append(new byte[10]);
+        store.append(new byte[10]);
+        store.read(first);
+
+        // When
+        store.markCompacted(0);
+        long keptDuringGracePeriod = store.deleteCompacted(60000L);
+        long reclaimed = store.deleteCompacted(0L);
+
+        // Then
+        assertThat(keptDuringGracePeriod).isEqualTo(0L);
+        assertThat(reclaimed).isEqualTo(14L);
+        assertThat(store.isCompacted(0)).isFalse();
+        assertThat(store.segmentSizes().containsKey(0)).isFalse();
+        assertThat(store.segmentSizes().get(1)).isEqualTo(14L);
+    }
+}
@@ -0,0 +1,39 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphSizeEstimatesTest {
+
+    @Test
+    public void recordDoesNotReplaceKnownEdgeCount() {
+        GraphSizeEstimates graphSizeEstimates = new GraphSizeEstimates(10);
+
+        // When
+        graphSizeEstimates.record("asdf", 10);
+        graphSizeEstimates.record("asdf", 20);
+
+        // Then
+        assertThat(graphSizeEstimates.getEdgeCount("asdf")).isEqualTo(10);
+    }
+
+    @Test
+    public void recordForgetsGraphsWhenMaxSizeIsReached() {
+        GraphSizeEstimates graphSizeEstimates = new GraphSizeEstimates(10);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            graphSizeEstimates.record("graph" + i, i);
+        }
+
+        // Then
+        int known = 0;
+        for (int i = 0; i < 100; i++) {
+            if (graphSizeEstimates.getEdgeCount("graph" + i) != null) {
+                known++;
+            }
+        }
+        assertThat(known).isEqualTo(10);
+    }
+}
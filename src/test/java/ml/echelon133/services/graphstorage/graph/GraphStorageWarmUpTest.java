@@ -0,0 +1,151 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo;
+import ml.echelon133.graph.WeightedGraph;
+import ml.echelon133.services.graphstorage.GraphStorageApp;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphStorageWarmUpTest {
+
+    @Mock
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Mock
+    private RedisConnection redisConnection;
+
+    @Mock
+    private GraphRepository graphRepository;
+
+    @Mock
+    private GraphPopularityTracker graphPopularityTracker;
+
+    @Mock
+    private ObjectProvider<ApplicationInfoManager> applicationInfoManagerProvider;
+
+    @Mock
+    private ApplicationInfoManager applicationInfoManager;
+
+    private GraphStorageWarmUp warmUp(boolean enabled, int connections, int preloadGraphs) {
+        return new GraphStorageWarmUp(GraphStorageApp.objectMapper(1000, 0), redisConnectionFactory, graphRepository,
+                graphPopularityTracker, applicationInfoManagerProvider, enabled, 5, 100, connections, preloadGraphs);
+    }
+
+    @Test
+    public void healthIsOutOfServiceBeforeWarmUpEnds() {
+        GraphStorageWarmUp warmUp = warmUp(true, 2, 0);
+
+        // When
+        Health health = new WarmUpHealthIndicator(warmUp).health();
+
+        // Then
+        assertThat(health.getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+        assertThat(health.getDetails().get("phase")).isEqualTo("PENDING");
+    }
+
+    @Test
+    public void warmUpOpensConnectionsAndSwitchesInstanceToUp() {
+        GraphStorageWarmUp warmUp = warmUp(true, 3, 0);
+
+        // Given
+        given(redisConnectionFactory.getConnection()).willReturn(redisConnection);
+        given(applicationInfoManagerProvider.getIfAvailable()).willReturn(applicationInfoManager);
+
+        // When
+        warmUp.warmUp();
+        Health health = new WarmUpHealthIndicator(warmUp).health();
+
+        // Then
+        verify(redisConnection, times(3)).ping();
+        verify(redisConnection, times(3)).close();
+        verify(applicationInfoManager).setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails().get("serializationRounds")).isEqualTo("5/5");
+        assertThat(health.getDetails().get("openedConnections")).isEqualTo(3);
+    }
+
+    @Test
+    public void warmUpPreloadsMostReadGraphs() throws Exception {
+        GraphStorageWarmUp warmUp = warmUp(true, 0, 2);
+        Set<String> mostRead = new LinkedHashSet<>();
+        mostRead.add("asdf");
+        mostRead.add("qwer");
+
+        // Given
+        given(graphPopularityTracker.isEnabled()).willReturn(true);
+        given(graphPopularityTracker.findMostRead(2)).willReturn(mostRead);
+        given(graphRepository.findById("asdf")).willReturn(new WeightedGraph<>());
+        given(graphRepository.findById("qwer")).willThrow(new GraphNotFoundException("Graph with id qwer not found"));
+
+        // When
+        warmUp.warmUp();
+
+        // Then
+        assertThat(warmUp.getPreloadedGraphs()).isEqualTo(1);
+        assertThat(warmUp.getFailure()).isNull();
+    }
+
+    @Test
+    public void failedWarmUpStillSwitchesInstanceToUp() {
+        GraphStorageWarmUp warmUp = warmUp(true, 2, 0);
+
+        // Given
+        given(redisConnectionFactory.getConnection()).willThrow(new RedisConnectionFailureException("Connection refused"));
+        given(applicationInfoManagerProvider.getIfAvailable()).willReturn(applicationInfoManager);
+
+        // When
+        warmUp.warmUp();
+        Health health = new WarmUpHealthIndicator(warmUp).health();
+
+        // Then
+        verify(applicationInfoManager).setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails().get("failure")).isEqualTo("Connection refused");
+    }
+
+    @Test
+    public void disabledWarmUpOnlySwitchesInstanceToUp() throws Exception {
+        GraphStorageWarmUp warmUp = warmUp(false, 2, 2);
+
+        // Given
+        given(applicationInfoManagerProvider.getIfAvailable()).willReturn(applicationInfoManager);
+
+        // When
+        warmUp.warmUp();
+
+        // Then
+        verify(redisConnectionFactory, never()).getConnection();
+        verify(graphRepository, never()).findById(anyString());
+        verify(applicationInfoManager).setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+        assertThat(warmUp.isDone()).isTrue();
+    }
+
+    @Test
+    public void syntheticGraphHasRequestedNumberOfEdges() {
+        // When
+        int edgeCount = GraphStorageWarmUp.syntheticGraph(250).getEdges().size();
+
+        // Then
+        assertThat(edgeCount).isEqualTo(250);
+    }
+}
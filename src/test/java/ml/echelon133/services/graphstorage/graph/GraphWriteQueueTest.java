@@ -0,0 +1,166 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphWriteQueueTest {
+
+    @Mock
+    private GraphRepository graphRepository;
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private GraphWriteQueue createQueue(Integer capacity) {
+        return new GraphWriteQueue(graphRepository, meterRegistry, true, capacity, 1, 10);
+    }
+
+    private WeightedGraph<BigDecimal> testGraph() {
+        WeightedGraph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        return graph;
+    }
+
+    @Test
+    public void submitReturnsIdAndMarksWriteAsPending() throws Exception {
+        GraphWriteQueue queue = createQueue(10);
+
+        // When
+        String graphId = queue.submit(testGraph());
+
+        // Then
+        assertThat(graphId).isNotNull();
+        assertThat(queue.getWriteStatus(graphId)).isEqualTo(GraphWriteQueue.WriteStatus.PENDING);
+        assertThat(meterRegistry.get("graphs.storage.async.queue.depth").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void submitThrowsWriteQueueFullExceptionWhenQueueIsFull() throws Exception {
+        GraphWriteQueue queue = createQueue(1);
+        String receivedMsg = "";
+
+        // When
+        queue.submit(testGraph());
+        try {
+            queue.submit(testGraph());
+        } catch (WriteQueueFullException ex) {
+            receivedMsg = ex.getMessage();
+        }
+
+        // Then
+        assertThat(receivedMsg).isEqualTo("Too many graphs are waiting to be saved. Try again later");
+        assertThat(meterRegistry.get("graphs.storage.async.rejected").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void submitThrowsWriteQueueFullExceptionWhenQueueIsStopped() throws Exception {
+        GraphWriteQueue queue = createQueue(10);
+        String receivedMsg = "";
+
+        // Given
+        queue.start();
+        queue.stop();
+
+        // When
+        try {
+            queue.submit(testGraph());
+        } catch (WriteQueueFullException ex) {
+            receivedMsg = ex.getMessage();
+        }
+
+        // Then
+        assertThat(receivedMsg).isEqualTo("The service is shutting down. Try again later");
+        assertThat(meterRegistry.get("graphs.storage.async.queue.depth").gauge().value()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void cancelRemovesQueuedWrite() throws Exception {
+        GraphWriteQueue queue = createQueue(10);
+        String graphId = queue.submit(testGraph());
+
+        // When
+        boolean cancelled = queue.cancel(graphId);
+
+        // Then
+        assertThat(cancelled).isTrue();
+        assertThat(queue.getWriteStatus(graphId)).isNull();
+        assertThat(meterRegistry.get("graphs.storage.async.queue.depth").gauge().value()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void cancelReturnsFalseWhenGraphIsNotQueued() {
+        GraphWriteQueue queue = createQueue(10);
+
+        // When
+        boolean cancelled = queue.cancel("asdf");
+
+        // Then
+        assertThat(cancelled).isFalse();
+    }
+
+    @Test
+    public void workersSaveQueuedGraphs() throws Exception {
+        GraphWriteQueue queue = createQueue(10);
+        String graphId = queue.submit(testGraph());
+
+        // When
+        queue.start();
+
+        // Then
+        verify(graphRepository, timeout(1000)).saveAll(anyMap());
+        queue.stop();
+        assertThat(queue.getWriteStatus(graphId)).isNull();
+    }
+
+    @Test
+    public void failedWritesAreMarkedAsFailed() throws Exception {
+        GraphWriteQueue queue = createQueue(10);
+        String graphId = queue.submit(testGraph());
+
+        // Given
+        willThrow(new RuntimeException("Redis unavailable")).given(graphRepository).saveAll(anyMap());
+
+        // When
+        queue.start();
+        queue.stop();
+
+        // Then
+        assertThat(queue.getWriteStatus(graphId)).isEqualTo(GraphWriteQueue.WriteStatus.FAILED);
+    }
+
+    @Test
+    public void onlyRecentFailuresAreRemembered() throws Exception {
+        GraphWriteQueue queue = createQueue(1);
+
+        // Given
+        willThrow(new RuntimeException("Redis unavailable")).given(graphRepository).saveAll(anyMap());
+        queue.start();
+
+        // When
+        String[] graphIds = new String[3];
+        for (int i = 0; i < graphIds.length; i++) {
+            graphIds[i] = queue.submit(testGraph());
+            verify(graphRepository, timeout(1000).times(i + 1)).saveAll(anyMap());
+        }
+        queue.stop();
+
+        // Then
+        assertThat(queue.getWriteStatus(graphIds[0])).isNull();
+        assertThat(queue.getWriteStatus(graphIds[1])).isEqualTo(GraphWriteQueue.WriteStatus.FAILED);
+        assertThat(queue.getWriteStatus(graphIds[2])).isEqualTo(GraphWriteQueue.WriteStatus.FAILED);
+    }
+}
@@ -0,0 +1,114 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class LocalGraphCacheTest {
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private static Graph<BigDecimal> graphWithEdges(int edgeCount) {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        graph.addVertex(new Vertex<>("v1"));
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(graph.findVertex("v1"), graph.findVertex("v1"), new BigDecimal(i));
+        }
+        return graph;
+    }
+
+    @Test
+    public void getReturnsCachedGraph() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 10, 100);
+        Graph<BigDecimal> graph = graphWithEdges(1);
+
+        // When
+        cache.put("asdf", graph);
+
+        // Then
+        assertThat(cache.get("asdf")).isEqualTo(graph);
+        assertThat(cache.get("qwer")).isNull();
+        assertThat(meterRegistry.counter("graphs.storage.localCache.hits").count()).isEqualTo(1.0);
+        assertThat(meterRegistry.counter("graphs.storage.localCache.misses").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void disabledCacheDoesNotKeepGraphs() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 0, 100);
+
+        // When
+        cache.put("asdf", graphWithEdges(1));
+
+        // Then
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.get("asdf")).isNull();
+        assertThat(meterRegistry.counter("graphs.storage.localCache.misses").count()).isEqualTo(0.0);
+    }
+
+    @Test
+    public void graphsWithTooManyEdgesAreNotCached() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 10, 2);
+
+        // When
+        cache.put("small", graphWithEdges(2));
+        cache.put("large", graphWithEdges(3));
+
+        // Then
+        assertThat(cache.get("small")).isNotNull();
+        assertThat(cache.get("large")).isNull();
+    }
+
+    @Test
+    public void leastRecentlyUsedGraphIsEvicted() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 2, 100);
+
+        // When
+        cache.put("first", graphWithEdges(1));
+        cache.put("second", graphWithEdges(1));
+        cache.get("first");
+        cache.put("third", graphWithEdges(1));
+
+        // Then
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("first")).isNotNull();
+        assertThat(cache.get("second")).isNull();
+        assertThat(cache.get("third")).isNotNull();
+    }
+
+    @Test
+    public void graphReadBeforeInvalidationIsNotCached() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 10, 100);
+        long invalidationCountBeforeRead = cache.getInvalidationCount();
+
+        // When
+        cache.invalidate("asdf");
+        cache.put("asdf", graphWithEdges(1), invalidationCountBeforeRead);
+
+        // Then
+        assertThat(cache.get("asdf")).isNull();
+    }
+
+    @Test
+    public void largeCacheKeepsRecentlyUsedGraphs() {
+        LocalGraphCache cache = new LocalGraphCache(meterRegistry, 100, 100);
+        Graph<BigDecimal> graph = graphWithEdges(1);
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            cache.put("graph" + i, graph);
+            cache.get("graph0");
+        }
+
+        // Then
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(cache.get("graph0")).isNotNull();
+        assertThat(cache.get("graph999")).isNotNull();
+    }
+}
@@ -0,0 +1,160 @@
+package ml.echelon133.services.graphstorage.graph;
+
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class ReachabilityIndexTest {
+
+    private static Graph<BigDecimal> graph(int vertexCount, int[][] edges) {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < vertexCount; i++) {
+            graph.addVertex(new Vertex<>("v" + i));
+        }
+        for (int[] edge : edges) {
+            graph.addEdge(graph.findVertex("v" + edge[0]), graph.findVertex("v" + edge[1]), BigDecimal.ONE);
+        }
+        return graph;
+    }
+
+    @Test
+    public void cycleIsCollapsedIntoSingleComponent() {
+        // Given
+        Graph<BigDecimal> graph = graph(4, new int[][]{{0, 1}, {1, 2}, {2, 0}, {2, 3}});
+
+        // When
+        ReachabilityIndex index = ReachabilityIndex.build(graph);
+
+        // Then
+        Map<String, Integer> components = index.getVertexComponents();
+        assertThat(components.get("v0")).isEqualTo(components.get("v1"));
+        assertThat(components.get("v1")).isEqualTo(components.get("v2"));
+        assertThat(components.get("v3")).isNotEqualTo(components.get("v0"));
+        assertThat(index.getLabels().length).isEqualTo(2);
+        assertThat(index.isReachable("v2", "v0")).isTrue();
+        assertThat(index.isReachable("v1", "v3")).isTrue();
+        assertThat(index.isReachable("v3", "v0")).isFalse();
+    }
+
+    @Test
+    public void isReachableFollowsDirectionOfEdges() {
+        // Given
+        // 0 -> 1 -> 3, 0 -> 2 -> 3, 4 -> 2, 5 is isolated
+        Graph<BigDecimal> graph = graph(6, new int[][]{{0, 1}, {1, 3}, {0, 2}, {2, 3}, {4, 2}});
+
+        // When
+        ReachabilityIndex index = ReachabilityIndex.build(graph);
+
+        // Then
+        assertThat(index.isReachable("v0", "v3")).isTrue();
+        assertThat(index.isReachable("v4", "v3")).isTrue();
+        assertThat(index.isReachable("v0", "v0")).isTrue();
+        assertThat(index.isReachable("v4", "v1")).isFalse();
+        assertThat(index.isReachable("v3", "v0")).isFalse();
+        assertThat(index.isReachable("v0", "v4")).isFalse();
+        assertThat(index.isReachable("v5", "v3")).isFalse();
+    }
+
+    @Test
+    public void isReachableReturnsFalseWhenVertexIsNotInGraph() {
+        // Given
+        ReachabilityIndex index = ReachabilityIndex.build(graph(2, new int[][]{{0, 1}}));
+
+        // Then
+        assertThat(index.isReachable("v0", "asdf")).isFalse();
+        assertThat(index.isReachable("asdf", "v1")).isFalse();
+    }
+
+    @Test
+    public void searchGraphFollowsDirectionOfEdges() {
+        // Given
+        // 0 -> 1 -> 3, 0 -> 2 -> 3, 4 -> 2, 3 -> 0, 5 is isolated
+        Graph<BigDecimal> graph = graph(6, new int[][]{{0, 1}, {1, 3}, {0, 2}, {2, 3}, {4, 2}, {3, 0}});
+
+        // Then
+        assertThat(ReachabilityIndex.searchGraph(graph, "v0", "v3")).isTrue();
+        assertThat(ReachabilityIndex.searchGraph(graph, "v4", "v1")).isTrue();
+        assertThat(ReachabilityIndex.searchGraph(graph, "v5", "v5")).isTrue();
+        assertThat(ReachabilityIndex.searchGraph(graph, "v3", "v4")).isFalse();
+        assertThat(ReachabilityIndex.searchGraph(graph, "v0", "v5")).isFalse();
+        assertThat(ReachabilityIndex.searchGraph(graph, "v0", "asdf")).isFalse();
+        assertThat(ReachabilityIndex.searchGraph(graph, "asdf", "asdf")).isFalse();
+    }
+
+    @Test
+    public void longChainDoesNotOverflowStack() {
+        int vertexCount = 100000;
+        int[][] edges = new int[vertexCount - 1][];
+        for (int i = 0; i < vertexCount - 1; i++) {
+            edges[i] = new int[]{i, i + 1};
+        }
+
+        // When
+        ReachabilityIndex index = ReachabilityIndex.build(graph(vertexCount, edges));
+
+        // Then
+        assertThat(index.isReachable("v0", "v" + (vertexCount - 1))).isTrue();
+        assertThat(index.isReachable("v" + (vertexCount - 1), "v0")).isFalse();
+    }
+
+    @Test
+    public void formattedLabelIsParsedBack() {
+        ReachabilityIndex.ComponentLabel label = new ReachabilityIndex.ComponentLabel(7, 1, 4, 0, new int[]{2, 5});
+
+        // When
+        ReachabilityIndex.ComponentLabel parsed = ReachabilityIndex.ComponentLabel.parse(7, label.format());
+
+        // Then
+        assertThat(parsed.getComponent()).isEqualTo(7);
+        assertThat(parsed.getTreeLow()).isEqualTo(1);
+        assertThat(parsed.getPost()).isEqualTo(4);
+        assertThat(parsed.getReachLow()).isEqualTo(0);
+        assertThat(parsed.getSuccessors()).containsExactly(2, 5);
+    }
+
+    @Test
+    public void formattedLabelWithoutSuccessorsIsParsedBack() {
+        ReachabilityIndex.ComponentLabel label = new ReachabilityIndex.ComponentLabel(0, 0, 0, 0, new int[0]);
+
+        // When
+        ReachabilityIndex.ComponentLabel parsed = ReachabilityIndex.ComponentLabel.parse(0, label.format());
+
+        // Then
+        assertThat(parsed.getSuccessors()).isEmpty();
+    }
+
+    @Test
+    public void isReachableWithLookupLooksUpLabelsLevelByLevel() {
+        // Given
+        // a diamond with an extra branch, so that labels of the traversal tree do not decide every query
+        Graph<BigDecimal> graph = graph(5, new int[][]{{0, 1}, {0, 2}, {1, 3}, {2, 3}, {2, 4}});
+        ReachabilityIndex index = ReachabilityIndex.build(graph);
+        ReachabilityIndex.ComponentLabel[] labels = index.getLabels();
+        List<Collection<Integer>> lookups = new ArrayList<>();
+
+        // When
+        boolean reachable = ReachabilityIndex.isReachable(
+                labels[index.getVertexComponents().get("v2")],
+                labels[index.getVertexComponents().get("v3")],
+                components -> {
+                    lookups.add(new ArrayList<>(components));
+                    Map<Integer, ReachabilityIndex.ComponentLabel> found = new HashMap<>();
+                    components.forEach(component -> found.put(component, labels[component]));
+                    return found;
+                });
+
+        // Then
+        assertThat(reachable).isTrue();
+        assertThat(lookups.size()).isLessThanOrEqualTo(1);
+    }
+}
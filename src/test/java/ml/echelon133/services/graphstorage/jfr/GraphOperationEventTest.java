@@ -0,0 +1,82 @@
+package ml.echelon133.services.graphstorage.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import ml.echelon133.graph.Graph;
+import ml.echelon133.graph.Vertex;
+import ml.echelon133.graph.WeightedGraph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class GraphOperationEventTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Graph<BigDecimal> graphWithVertexes(int count) {
+        Graph<BigDecimal> graph = new WeightedGraph<>();
+        for (int i = 0; i < count; i++) {
+            graph.addVertex(new Vertex<>("v" + i));
+        }
+        return graph;
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No event " + name + " was recorded"));
+    }
+
+    @Test
+    public void startReturnsNullWhenEventIsNotRecorded() {
+        // When
+        GraphOperationEvent event = GraphOperationEvent.start("findById", "asdf");
+
+        // Then
+        assertThat(event).isNull();
+    }
+
+    @Test
+    public void operationIncludesSerializationOnItsThread() throws Exception {
+        Graph<BigDecimal> graph = graphWithVertexes(3);
+        File file = folder.newFile("operation.jfr");
+
+        // When
+        try (Recording recording = new Recording()) {
+            recording.enable(GraphOperationEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(GraphSerializationEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+
+            GraphOperationEvent operation = GraphOperationEvent.start("findById", "asdf");
+            GraphSerializationEvent serialization = GraphSerializationEvent.start("deserialize");
+            serialization.finish(graph, 120);
+            operation.finish(graph);
+
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+
+        // Then
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        RecordedEvent operationEvent = find(events, "ml.echelon133.graphstorage.GraphOperation");
+        assertThat(operationEvent.getString("operation")).isEqualTo("findById");
+        assertThat(operationEvent.getString("graphId")).isEqualTo("asdf");
+        assertThat(operationEvent.getInt("vertexCount")).isEqualTo(3);
+        assertThat(operationEvent.getLong("payloadBytes")).isEqualTo(120L);
+        assertThat(operationEvent.getDuration("serializationTime").isNegative()).isFalse();
+
+        RecordedEvent serializationEvent = find(events, "ml.echelon133.graphstorage.GraphSerialization");
+        assertThat(serializationEvent.getString("operation")).isEqualTo("deserialize");
+        assertThat(serializationEvent.getLong("payloadBytes")).isEqualTo(120L);
+    }
+}